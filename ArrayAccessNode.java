@@ -0,0 +1,32 @@
+// a[i], or m[k] on a kosh
+public class ArrayAccessNode implements ASTNode {
+    private String arrayName;
+    private ASTNode index;
+    private int containerType;  // Set by MarathiTypeChecker: ARRAY and MAP bits for what the variable can hold
+
+    public ArrayAccessNode(String arrayName, ASTNode index) {
+        this.arrayName = arrayName;
+        this.index = index;
+    }
+
+    public String getArrayName() {
+        return arrayName;
+    }
+
+    public ASTNode getIndex() {
+        return index;
+    }
+
+    public int getContainerType() {
+        return containerType;
+    }
+
+    public void setContainerType(int containerType) {
+        this.containerType = containerType;
+    }
+
+    @Override
+    public String toString() {
+        return "ArrayAccessNode{" + "arrayName='" + arrayName + '\'' + ", index=" + index + '}';
+    }
+}
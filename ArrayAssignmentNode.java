@@ -0,0 +1,38 @@
+// a[i] = value; or m[k] = value; on a kosh
+public class ArrayAssignmentNode implements ASTNode {
+    private String arrayName;
+    private ASTNode index;
+    private ASTNode value;
+    private int containerType;  // Set by MarathiTypeChecker: ARRAY and MAP bits for what the variable can hold
+
+    public ArrayAssignmentNode(String arrayName, ASTNode index, ASTNode value) {
+        this.arrayName = arrayName;
+        this.index = index;
+        this.value = value;
+    }
+
+    public String getArrayName() {
+        return arrayName;
+    }
+
+    public ASTNode getIndex() {
+        return index;
+    }
+
+    public ASTNode getValue() {
+        return value;
+    }
+
+    public int getContainerType() {
+        return containerType;
+    }
+
+    public void setContainerType(int containerType) {
+        this.containerType = containerType;
+    }
+
+    @Override
+    public String toString() {
+        return "ArrayAssignmentNode{" + "arrayName='" + arrayName + '\'' + ", index=" + index + ", value=" + value + '}';
+    }
+}
@@ -0,0 +1,19 @@
+import java.util.List;
+
+// [1, 2, 3]
+public class ArrayLiteralNode implements ASTNode {
+    private List<ASTNode> elements;
+
+    public ArrayLiteralNode(List<ASTNode> elements) {
+        this.elements = elements;
+    }
+
+    public List<ASTNode> getElements() {
+        return elements;
+    }
+
+    @Override
+    public String toString() {
+        return "ArrayLiteralNode{" + "elements=" + elements + '}';
+    }
+}
@@ -2,6 +2,7 @@ public class BinaryOperationNode implements ASTNode {
     private ASTNode left;
     private String operator;
     private ASTNode right;
+    private int operandType;  // Set by MarathiTypeChecker: INT if both operands are integers, STRING if a + is a concatenation
 
     public BinaryOperationNode(ASTNode left, String operator, ASTNode right) {
         this.left = left;
@@ -21,6 +22,14 @@ public class BinaryOperationNode implements ASTNode {
         return right;
     }
 
+    public int getOperandType() {
+        return operandType;
+    }
+
+    public void setOperandType(int operandType) {
+        this.operandType = operandType;
+    }
+
     @Override
     public String toString() {
         return "BinaryOperationNode{" + "left=" + left + ", operator='" + operator + '\'' + ", right=" + right + '}';
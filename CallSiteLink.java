@@ -0,0 +1,33 @@
+import java.lang.invoke.MethodHandle;
+
+// What a FunctionCallNode was linked to. Immutable, so it can be published with a plain field write.
+// The link stays valid while the slot still holds the same declaration it was linked against.
+public class CallSiteLink {
+    private final Object owner;  // Function table the call site was linked in
+    private final FunctionSlot slot;
+    private final FunctionDeclarationNode declaration;  // Linked karya, or null for an intrinsic
+    private final MethodHandle builtin;  // Linked intrinsic when there is no karya
+
+    public CallSiteLink(Object owner, FunctionSlot slot, FunctionDeclarationNode declaration, MethodHandle builtin) {
+        this.owner = owner;
+        this.slot = slot;
+        this.declaration = declaration;
+        this.builtin = builtin;
+    }
+
+    public boolean isValidFor(Object functionTable) {
+        return owner == functionTable && slot.getDeclaration() == declaration;
+    }
+
+    public Object getOwner() {
+        return owner;
+    }
+
+    public FunctionDeclarationNode getDeclaration() {
+        return declaration;
+    }
+
+    public MethodHandle getBuiltin() {
+        return builtin;
+    }
+}
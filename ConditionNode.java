@@ -2,6 +2,7 @@ public class ConditionNode implements ASTNode {
     private ASTNode leftOperand;
     private String operator;
     private ASTNode rightOperand;
+    private int operandType;  // Set by MarathiTypeChecker: INT or STRING if both operands are proven to be one
 
     public ConditionNode(ASTNode leftOperand, String operator, ASTNode rightOperand) {
         this.leftOperand = leftOperand;
@@ -21,6 +22,14 @@ public class ConditionNode implements ASTNode {
         return rightOperand;
     }
 
+    public int getOperandType() {
+        return operandType;
+    }
+
+    public void setOperandType(int operandType) {
+        this.operandType = operandType;
+    }
+
     @Override
     public String toString() {
         return "Condition:\n  Variable Name: " + leftOperand + "\n  Operator: " + operator + "\n  Value: " + rightOperand;
@@ -0,0 +1,8 @@
+// Thrown when a running script is stopped through MarathiInterpreter.cancel()
+public class ExecutionCancelledException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ExecutionCancelledException() {
+        super("Execution cancelled");
+    }
+}
@@ -0,0 +1,29 @@
+// pratyek (k madhye m) body sampel
+public class ForEachNode implements ASTNode {
+    private String keyVariable;
+    private ASTNode map;
+    private ASTNode body;
+
+    public ForEachNode(String keyVariable, ASTNode map, ASTNode body) {
+        this.keyVariable = keyVariable;
+        this.map = map;
+        this.body = body;
+    }
+
+    public String getKeyVariable() {
+        return keyVariable;
+    }
+
+    public ASTNode getMap() {
+        return map;
+    }
+
+    public ASTNode getBody() {
+        return body;
+    }
+
+    @Override
+    public String toString() {
+        return "ForEachNode{" + "keyVariable='" + keyVariable + '\'' + ", map=" + map + ", body=" + body + '}';
+    }
+}
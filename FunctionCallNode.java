@@ -1,14 +1,26 @@
+import java.util.Arrays;
 import java.util.List;  // Import the List class
 
 public class FunctionCallNode implements ASTNode {
+    private String module;  // Alias of the imported module the karya belongs to, or null
     private String functionName;
     private List<ASTNode> arguments;
+    private CallSiteLink[] links;  // One per function table the call site was linked in, most recent first
 
     public FunctionCallNode(String functionName, List<ASTNode> arguments) {
+        this(null, functionName, arguments);
+    }
+
+    public FunctionCallNode(String module, String functionName, List<ASTNode> arguments) {
+        this.module = module;
         this.functionName = functionName;
         this.arguments = arguments;
     }
 
+    public String getModule() {
+        return module;
+    }
+
     public String getFunctionName() {
         return functionName;
     }
@@ -16,4 +28,39 @@ public class FunctionCallNode implements ASTNode {
     public List<ASTNode> getArguments() {
         return arguments;
     }
+
+    // Interpreters running the same tree at once, such as MarathiServer's workers, each link the call site in
+    // their own function table, so it keeps a link per table. The array is replaced rather than changed, and a
+    // lost update only costs a relink.
+    private static final int MAX_LINKS = 8;
+
+    // The link made in this function table, or null
+    public CallSiteLink getLink(Object functionTable) {
+        CallSiteLink[] current = links;
+        if (current != null) {
+            for (CallSiteLink link : current) {
+                if (link != null && link.getOwner() == functionTable) {
+                    return link;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Set on the first call in a function table, and replaced when the target karya is redeclared. The table
+    // linked least recently gives way once MAX_LINKS tables have linked the call site.
+    public void setLink(CallSiteLink link) {
+        CallSiteLink[] current = links;
+        CallSiteLink[] updated = new CallSiteLink[current == null ? 1 : Math.min(current.length + 1, MAX_LINKS)];
+        updated[0] = link;
+        int count = 1;
+        if (current != null) {
+            for (int i = 0; i < current.length && count < updated.length; i++) {
+                if (current[i] != null && current[i].getOwner() != link.getOwner()) {
+                    updated[count++] = current[i];
+                }
+            }
+        }
+        links = count == updated.length ? updated : Arrays.copyOf(updated, count);
+    }
 }
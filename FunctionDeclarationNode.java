@@ -3,7 +3,8 @@ import java.util.List;  // Import the List class
 public class FunctionDeclarationNode implements ASTNode {
     private String functionName;
     private List<String> parameters;
-    private ASTNode body;
+    private volatile ASTNode body;
+    private List<Token> bodyTokens;  // Unparsed body from pre-parse mode, ending with its closing brace; guarded by this
 
     public FunctionDeclarationNode(String functionName, List<String> parameters, ASTNode body) {
         this.functionName = functionName;
@@ -11,6 +12,13 @@ public class FunctionDeclarationNode implements ASTNode {
         this.body = body;
     }
 
+    // A karya whose body is parsed from bodyTokens the first time it is needed
+    public FunctionDeclarationNode(String functionName, List<String> parameters, List<Token> bodyTokens) {
+        this.functionName = functionName;
+        this.parameters = parameters;
+        this.bodyTokens = bodyTokens;
+    }
+
     public String getFunctionName() {
         return functionName;
     }
@@ -19,7 +27,24 @@ public class FunctionDeclarationNode implements ASTNode {
         return parameters;
     }
 
+    // Parses a pre-parsed body once, even when several samantar workers call the karya at the same time.
+    // A body that fails to parse keeps its tokens, so every later call reports the same error.
     public ASTNode getBody() {
-        return body;
+        ASTNode parsed = body;
+        if (parsed == null) {
+            synchronized (this) {
+                parsed = body;
+                if (parsed == null) {
+                    parsed = MarathiParser.parseFunctionBody(bodyTokens);
+                    body = parsed;
+                    bodyTokens = null;
+                }
+            }
+        }
+        return parsed;
+    }
+
+    public boolean isBodyParsed() {
+        return body != null;
     }
 }
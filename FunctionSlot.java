@@ -0,0 +1,22 @@
+// Entry in an interpreter's function table. Call sites link to the slot, so redeclaring a karya
+// only has to replace the declaration here for every linked call site to notice.
+public class FunctionSlot {
+    private final String name;
+    private FunctionDeclarationNode declaration;  // null until a karya with this name is declared
+
+    public FunctionSlot(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public FunctionDeclarationNode getDeclaration() {
+        return declaration;
+    }
+
+    public void setDeclaration(FunctionDeclarationNode declaration) {
+        this.declaration = declaration;
+    }
+}
@@ -0,0 +1,31 @@
+import java.nio.file.Path;
+
+// aayat "path" mhanun alias;
+public class ImportNode implements ASTNode {
+    private String path;  // As written in the script
+    private String alias;
+    private Path resolvedPath;  // Absolute, resolved against the importing file's directory when parsed
+
+    public ImportNode(String path, String alias, Path resolvedPath) {
+        this.path = path;
+        this.alias = alias;
+        this.resolvedPath = resolvedPath;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public Path getResolvedPath() {
+        return resolvedPath;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportNode{" + "path='" + path + '\'' + ", alias='" + alias + '\'' + '}';
+    }
+}
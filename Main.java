@@ -6,7 +6,10 @@ import java.util.List;
 public class Main {
     public static void main(String[] args) {
     
-        String filePath = "test.marathi";
+        // --debug prints the tokens and the AST before running the script
+        boolean debug = args.length > 0 && args[0].equals("--debug");
+        int fileArgument = debug ? 1 : 0;
+        String filePath = args.length > fileArgument ? args[fileArgument] : "test.marathi";
 
         // String fileContent = readFile(filePath);
 
@@ -14,19 +17,25 @@ public class Main {
         String input = readFile(filePath);
 
         MarathiTokenizer tokenizer = new MarathiTokenizer(input);
+        tokenizer.setDebug(debug);
         List<Token> tokens = tokenizer.tokenize();
 
-        System.out.println("Tokens:");
-        for (Token token : tokens) {
-            System.out.println(token);
+        if (debug) {
+            System.out.println("Tokens:");
+            for (Token token : tokens) {
+                System.out.println(token);
+            }
         }
 
         MarathiParser parser = new MarathiParser(tokens);
         ASTNode ast = parser.parse();
 
-        System.out.println("AST:");
-        System.out.println(ast);
+        if (debug) {
+            System.out.println("AST:");
+            System.out.println(ast);
+        }
 
+        MarathiTypeChecker.check(ast, false);  // Reports type errors before anything runs
         MarathiInterpreter interpreter = new MarathiInterpreter();
         interpreter.interpret(ast);
     }
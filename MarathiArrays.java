@@ -0,0 +1,53 @@
+import java.util.Arrays;
+
+// Bulk operations behind the array built-ins.
+// The loops are kept in the simple counted form that HotSpot's C2 compiler auto-vectorizes.
+public class MarathiArrays {
+    private MarathiArrays() {
+    }
+
+    public static void fill(int[] array, int value) {
+        Arrays.fill(array, value);
+    }
+
+    public static int sum(int[] array) {
+        int sum = 0;
+        for (int i = 0; i < array.length; i++) {
+            sum += array[i];
+        }
+        return sum;
+    }
+
+    public static int min(int[] array) {
+        if (array.length == 0) {
+            throw new RuntimeException("kimaan of an empty array");
+        }
+        int min = array[0];
+        for (int i = 1; i < array.length; i++) {
+            min = Math.min(min, array[i]);
+        }
+        return min;
+    }
+
+    public static int max(int[] array) {
+        if (array.length == 0) {
+            throw new RuntimeException("kamaal of an empty array");
+        }
+        int max = array[0];
+        for (int i = 1; i < array.length; i++) {
+            max = Math.max(max, array[i]);
+        }
+        return max;
+    }
+
+    public static int dot(int[] left, int[] right) {
+        if (left.length != right.length) {
+            throw new RuntimeException("gunakar needs arrays of the same length, found " + left.length + " and " + right.length);
+        }
+        int sum = 0;
+        for (int i = 0; i < left.length; i++) {
+            sum += left[i] * right[i];
+        }
+        return sum;
+    }
+}
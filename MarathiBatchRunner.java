@@ -0,0 +1,312 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Runs many .marathi scripts in parallel, each with its own interpreter. With --slice, scripts share the
+// threads through a MarathiScheduler, which switches between them every STEPS steps. They run on MarathiMachine
+// then, so a script waiting for its next slice holds no thread; scripts that import modules need an interpreter.
+// Usage: java MarathiBatchRunner [--out DIR] [--threads N] [--slice STEPS] [--timeout SECONDS] <file|directory|glob>...
+public class MarathiBatchRunner {
+    private static final String USAGE = "Usage: java MarathiBatchRunner [--out DIR] [--threads N] [--slice STEPS] [--timeout SECONDS] <file|directory|glob>...";
+
+    private Path outputDirectory = Paths.get("batch-output");
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long timeoutSeconds = 0;  // 0 means no timeout
+    private int sliceSteps = 0;  // 0 runs each script to completion on a pool thread
+    private MarathiScheduler.Stats schedulerStats;  // Of the last run, when it used a scheduler
+
+    // Outcome of a single script
+    static class ScriptResult {
+        final Path script;
+        final String status;  // OK, FAILED or TIMEOUT
+        final long nanos;
+        final long statements;
+        final String error;
+
+        ScriptResult(Path script, String status, long nanos, long statements, String error) {
+            this.script = script;
+            this.status = status;
+            this.nanos = nanos;
+            this.statements = statements;
+            this.error = error;
+        }
+    }
+
+    public static void main(String[] args) {
+        MarathiBatchRunner runner = new MarathiBatchRunner();
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--out":
+                    runner.outputDirectory = Paths.get(optionValue(args, ++i, USAGE));
+                    break;
+                case "--threads":
+                    runner.threads = Integer.parseInt(optionValue(args, ++i, USAGE));
+                    break;
+                case "--timeout":
+                    runner.timeoutSeconds = Long.parseLong(optionValue(args, ++i, USAGE));
+                    break;
+                case "--slice":
+                    runner.sliceSteps = Integer.parseInt(optionValue(args, ++i, USAGE));
+                    break;
+                default:
+                    inputs.add(args[i]);
+            }
+        }
+        if (inputs.isEmpty()) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        try {
+            List<ScriptResult> results = runner.run(collectScripts(inputs));
+            boolean failed = printSummary(results);
+            if (runner.schedulerStats != null) {
+                System.out.println("Scheduler: " + runner.schedulerStats);
+            }
+            System.exit(failed ? 1 : 0);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    public List<ScriptResult> run(List<Path> scripts) throws IOException {
+        Files.createDirectories(outputDirectory);
+        ForkJoinPool pool = sliceSteps > 0 ? null : new ForkJoinPool(threads);  // Work-stealing, so long scripts don't hold up short ones
+        MarathiScheduler scheduler = sliceSteps > 0 ? new MarathiScheduler(threads, sliceSteps) : null;
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "marathi-batch-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<ScriptResult>> tasks = new ArrayList<>();
+            for (Path script : scripts) {
+                if (scheduler != null) {
+                    tasks.add(schedule(scheduler, script, watchdog));
+                } else {
+                    MarathiInterpreter interpreter = new MarathiInterpreter();
+                    tasks.add(pool.submit(() -> runScript(script, interpreter, watchdog)));
+                }
+            }
+            List<ScriptResult> results = new ArrayList<>();
+            for (Future<ScriptResult> task : tasks) {
+                try {
+                    results.add(task.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for scripts", e);
+                } catch (ExecutionException e) {
+                    throw new IOException(e.getCause());
+                }
+            }
+            schedulerStats = scheduler != null ? scheduler.getStats() : null;
+            return results;
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            if (scheduler != null) {
+                scheduler.shutdown();
+            }
+            watchdog.shutdownNow();
+        }
+    }
+
+    // Queues the script on a machine, or on an interpreter if it can't be flattened; runScript then reports why
+    private Future<ScriptResult> schedule(MarathiScheduler scheduler, Path script, ScheduledExecutorService watchdog) {
+        MarathiFlatAst program;
+        try {
+            String input = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+            program = MarathiFlatAst.flatten(MarathiModuleLoader.shared().parse(input, script.toAbsolutePath().getParent()));
+        } catch (Exception | StackOverflowError e) {
+            MarathiInterpreter interpreter = new MarathiInterpreter();
+            return scheduler.submit(interpreter, MarathiScheduler.NORMAL_PRIORITY, () -> runScript(script, interpreter, watchdog));
+        }
+        MachineRun run = new MachineRun(script, watchdog);
+        run.machine.start(program);
+        return scheduler.submit(run.machine, MarathiScheduler.NORMAL_PRIORITY, run).handle((machine, failure) -> run.finish(failure));
+    }
+
+    // A script on a machine. Its clock and timeout start with its first slice, as an interpreter's start when it does.
+    private class MachineRun implements Runnable {
+        final MarathiMachine machine = new MarathiMachine();
+        private final Path script;
+        private final ScheduledExecutorService watchdog;
+        private long start;
+        private ScheduledFuture<?> timeout;
+
+        MachineRun(Path script, ScheduledExecutorService watchdog) {
+            this.script = script;
+            this.watchdog = watchdog;
+        }
+
+        @Override
+        public void run() {
+            start = System.nanoTime();
+            if (timeoutSeconds > 0) {
+                timeout = watchdog.schedule(machine::cancel, timeoutSeconds, TimeUnit.SECONDS);
+            }
+        }
+
+        ScriptResult finish(Throwable failure) {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            long nanos = System.nanoTime() - start;
+            String status = "OK";
+            String error = null;
+            if (failure instanceof ExecutionCancelledException) {
+                status = "TIMEOUT";
+                error = "Timed out after " + timeoutSeconds + " s";
+            } else if (failure != null) {
+                status = "FAILED";
+                error = failure.getMessage() != null ? failure.getMessage() : failure.toString();
+            }
+            try {
+                return writeResult(script, machine.getOutput(), status, error, nanos, machine.getStatementCount());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private ScriptResult runScript(Path script, MarathiInterpreter interpreter, ScheduledExecutorService watchdog) throws IOException {
+        ScheduledFuture<?> timeout = null;
+        if (timeoutSeconds > 0) {
+            timeout = watchdog.schedule(interpreter::cancel, timeoutSeconds, TimeUnit.SECONDS);
+        }
+
+        long start = System.nanoTime();
+        String status = "OK";
+        String error = null;
+        try {
+            String input = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+            ASTNode ast = MarathiModuleLoader.shared().parse(input, script.toAbsolutePath().getParent());  // Modules are parsed once for the whole batch
+            interpreter.interpret(ast);
+        } catch (ExecutionCancelledException e) {
+            status = "TIMEOUT";
+            error = "Timed out after " + timeoutSeconds + " s";
+        } catch (Exception | StackOverflowError e) {
+            status = "FAILED";
+            error = e.getMessage() != null ? e.getMessage() : e.toString();
+        } finally {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        return writeResult(script, interpreter.getOutput(), status, error, nanos, interpreter.getStatementCount());
+    }
+
+    private ScriptResult writeResult(Path script, String output, String status, String error, long nanos, long statements) throws IOException {
+        if (error != null) {
+            output += "Error: " + error + "\n";
+        }
+        Files.write(outputFileFor(script), output.getBytes(StandardCharsets.UTF_8));
+        return new ScriptResult(script, status, nanos, statements, error);
+    }
+
+    // Output files are named after the script path so scripts with the same name in different directories don't collide
+    private Path outputFileFor(Path script) {
+        String name = script.normalize().toString().replace('/', '_').replace('\\', '_').replace(':', '_');
+        return outputDirectory.resolve(name + ".out");
+    }
+
+    // The value after a command-line option, or the usage lines and exit status 2 if the option came last
+    static String optionValue(String[] args, int i, String... usage) {
+        if (i >= args.length) {
+            System.err.println("Missing value for " + args[i - 1]);
+            for (String line : usage) {
+                System.err.println(line);
+            }
+            System.exit(2);
+        }
+        return args[i];
+    }
+
+    // Expands files, directories (searched recursively for .marathi files) and glob patterns
+    static List<Path> collectScripts(List<String> inputs) throws IOException {
+        TreeSet<Path> scripts = new TreeSet<>();
+        for (String input : inputs) {
+            if (input.contains("*") || input.contains("?") || input.contains("[") || input.contains("{")) {
+                scripts.addAll(expandGlob(input));
+                continue;
+            }
+            Path path = Paths.get(input);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> walk = Files.walk(path)) {
+                    walk.filter(p -> Files.isRegularFile(p) && p.toString().endsWith(".marathi")).forEach(scripts::add);
+                }
+            } else if (Files.isRegularFile(path)) {
+                scripts.add(path);
+            } else {
+                throw new IOException("No such file or directory: " + input);
+            }
+        }
+        return new ArrayList<>(scripts);
+    }
+
+    private static List<Path> expandGlob(String pattern) throws IOException {
+        // Walk from the longest directory prefix that has no glob characters in it
+        String normalized = pattern.replace('\\', '/');
+        int firstGlobChar = normalized.length();
+        for (char c : new char[] {'*', '?', '[', '{'}) {
+            int index = normalized.indexOf(c);
+            if (index >= 0) {
+                firstGlobChar = Math.min(firstGlobChar, index);
+            }
+        }
+        int lastSlash = normalized.lastIndexOf('/', firstGlobChar);
+        Path base = lastSlash >= 0 ? Paths.get(normalized.substring(0, lastSlash + 1)) : Paths.get(".");
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + normalized);
+
+        List<Path> matches = new ArrayList<>();
+        if (!Files.isDirectory(base)) {
+            return matches;
+        }
+        try (Stream<Path> walk = Files.walk(base)) {
+            walk.filter(Files::isRegularFile).forEach(p -> {
+                Path candidate = lastSlash >= 0 ? p : base.relativize(p);
+                if (matcher.matches(candidate)) {
+                    matches.add(p);
+                }
+            });
+        }
+        return matches;
+    }
+
+    // Prints one line per script followed by totals; returns true if any script failed
+    private static boolean printSummary(List<ScriptResult> results) {
+        int failures = 0;
+        long totalNanos = 0;
+        for (ScriptResult result : results) {
+            System.out.printf("%-8s %10.2f ms %,14d stmts  %s%s%n", result.status, result.nanos / 1_000_000.0,
+                    result.statements, result.script, result.error != null ? "  (" + result.error + ")" : "");
+            if (!result.status.equals("OK")) {
+                failures++;
+            }
+            totalNanos += result.nanos;
+        }
+        System.out.printf("%d scripts, %d passed, %d failed, %.2f ms total script time%n",
+                results.size(), results.size() - failures, failures, totalNanos / 1_000_000.0);
+        return failures > 0;
+    }
+}
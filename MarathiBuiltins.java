@@ -0,0 +1,199 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Native standard library. Each intrinsic is a static method taking and returning Object, and the
+// registry binds it by name and arity through a MethodHandle. A karya with the same name shadows it.
+public final class MarathiBuiltins {
+    // Parameter types of each intrinsic by name/arity, then its result type, as MarathiTypeChecker type sets
+    private static final Map<String, int[]> SIGNATURES = Map.ofEntries(
+            Map.entry("navin/1", new int[] {MarathiTypeChecker.INT, MarathiTypeChecker.ARRAY}),
+            Map.entry("lambi/1", new int[] {MarathiTypeChecker.ARRAY | MarathiTypeChecker.STRING | MarathiTypeChecker.MAP, MarathiTypeChecker.INT}),
+            Map.entry("bhara/2", new int[] {MarathiTypeChecker.ARRAY, MarathiTypeChecker.INT, MarathiTypeChecker.ARRAY}),
+            Map.entry("beriz/1", new int[] {MarathiTypeChecker.ARRAY, MarathiTypeChecker.INT}),
+            Map.entry("kimaan/1", new int[] {MarathiTypeChecker.ARRAY, MarathiTypeChecker.INT}),
+            Map.entry("kimaan/2", new int[] {MarathiTypeChecker.INT, MarathiTypeChecker.INT, MarathiTypeChecker.INT}),
+            Map.entry("kamaal/1", new int[] {MarathiTypeChecker.ARRAY, MarathiTypeChecker.INT}),
+            Map.entry("kamaal/2", new int[] {MarathiTypeChecker.INT, MarathiTypeChecker.INT, MarathiTypeChecker.INT}),
+            Map.entry("gunakar/2", new int[] {MarathiTypeChecker.ARRAY, MarathiTypeChecker.ARRAY, MarathiTypeChecker.INT}),
+            Map.entry("nirapeksha/1", new int[] {MarathiTypeChecker.INT, MarathiTypeChecker.INT}),
+            Map.entry("ghat/2", new int[] {MarathiTypeChecker.INT, MarathiTypeChecker.INT, MarathiTypeChecker.INT}),
+            Map.entry("ughad/1", new int[] {MarathiTypeChecker.STRING, MarathiTypeChecker.INT}),
+            Map.entry("ol/1", new int[] {MarathiTypeChecker.INT, MarathiTypeChecker.STRING}),
+            Map.entry("ank/1", new int[] {MarathiTypeChecker.INT, MarathiTypeChecker.INT}),
+            Map.entry("vaach/2", new int[] {MarathiTypeChecker.INT, MarathiTypeChecker.ARRAY, MarathiTypeChecker.INT}),
+            Map.entry("ant/1", new int[] {MarathiTypeChecker.INT, MarathiTypeChecker.INT}),
+            Map.entry("band/1", new int[] {MarathiTypeChecker.INT, MarathiTypeChecker.INT}),
+            Map.entry("kosh/0", new int[] {MarathiTypeChecker.MAP}),
+            Map.entry("aahe/2", new int[] {MarathiTypeChecker.MAP, MarathiTypeChecker.INT | MarathiTypeChecker.STRING, MarathiTypeChecker.INT}));
+    // Intrinsics that consume input, which samantar iterations would race for
+    private static final Set<String> READERS = Set.of("ol", "ank", "vaach");
+    // Handles are created on first lookup; a short script only pays for the intrinsics it calls
+    private static final ConcurrentHashMap<String, MethodHandle> REGISTRY = new ConcurrentHashMap<>();
+
+    private MarathiBuiltins() {
+    }
+
+    // The handle for name/arity, typed (Object...)Object, or null if there is no such intrinsic
+    public static MethodHandle lookup(String name, int arity) {
+        String key = name + "/" + arity;
+        MethodHandle handle = REGISTRY.get(key);
+        if (handle == null && SIGNATURES.containsKey(key)) {
+            try {
+                handle = MethodHandles.lookup().findStatic(MarathiBuiltins.class, name, MethodType.genericMethodType(arity));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Missing intrinsic " + key, e);
+            }
+            REGISTRY.putIfAbsent(key, handle);
+        }
+        return handle;
+    }
+
+    // The signature of name/arity, or null if there is no such intrinsic
+    public static int[] signature(String name, int arity) {
+        return SIGNATURES.get(name + "/" + arity);
+    }
+
+    public static boolean readsInput(String name) {
+        return READERS.contains(name);
+    }
+
+    // New array of the given length, filled with zeros
+    public static Object navin(Object length) {
+        int n = integer("navin", length);
+        if (n < 0) {
+            throw new RuntimeException("navin needs a non-negative length, found: " + n);
+        }
+        return new int[n];
+    }
+
+    public static Object lambi(Object value) {
+        if (value instanceof CharSequence) {
+            return ((CharSequence) value).length();  // Doesn't flatten ropes
+        }
+        if (value instanceof MarathiMap) {
+            return ((MarathiMap) value).size();
+        }
+        if (!(value instanceof int[])) {
+            throw new RuntimeException("lambi expects an array, a string or a kosh, found: " + MarathiValues.format(value));
+        }
+        return ((int[]) value).length;
+    }
+
+    public static Object bhara(Object array, Object value) {
+        int[] target = array("bhara", array);
+        MarathiArrays.fill(target, integer("bhara", value));
+        return target;
+    }
+
+    public static Object beriz(Object array) {
+        return MarathiArrays.sum(array("beriz", array));
+    }
+
+    public static Object kimaan(Object array) {
+        return MarathiArrays.min(array("kimaan", array));
+    }
+
+    public static Object kimaan(Object left, Object right) {
+        return Math.min(integer("kimaan", left), integer("kimaan", right));
+    }
+
+    public static Object kamaal(Object array) {
+        return MarathiArrays.max(array("kamaal", array));
+    }
+
+    public static Object kamaal(Object left, Object right) {
+        return Math.max(integer("kamaal", left), integer("kamaal", right));
+    }
+
+    public static Object gunakar(Object left, Object right) {
+        return MarathiArrays.dot(array("gunakar", left), array("gunakar", right));
+    }
+
+    // Absolute value
+    public static Object nirapeksha(Object value) {
+        return Math.abs(integer("nirapeksha", value));
+    }
+
+    // Integer power by repeated squaring; wraps around on overflow like the other integer operators
+    public static Object ghat(Object base, Object exponent) {
+        int b = integer("ghat", base);
+        int e = integer("ghat", exponent);
+        if (e < 0) {
+            throw new RuntimeException("ghat needs a non-negative exponent, found: " + e);
+        }
+        int result = 1;
+        while (e > 0) {
+            if ((e & 1) != 0) {
+                result *= b;
+            }
+            b *= b;
+            e >>= 1;
+        }
+        return result;
+    }
+
+    // Opens a file for reading; returns its handle. Handle 0, standard input, is always open.
+    public static Object ughad(Object path) {
+        if (!(path instanceof CharSequence)) {
+            throw new RuntimeException("ughad expects a file name, found: " + MarathiValues.format(path));
+        }
+        return MarathiInput.open(path.toString());
+    }
+
+    // Next line of an input
+    public static Object ol(Object handle) {
+        return MarathiInput.get("ol", integer("ol", handle)).readLine();
+    }
+
+    // Next integer of an input; whitespace and commas separate numbers
+    public static Object ank(Object handle) {
+        return MarathiInput.get("ank", integer("ank", handle)).readInt();
+    }
+
+    // Fills an array with the next integers of an input; returns how many were read, fewer at the end of the input
+    public static Object vaach(Object handle, Object array) {
+        int[] target = array("vaach", array);
+        return MarathiInput.get("vaach", integer("vaach", handle)).readInts(target);
+    }
+
+    // 1 once an input has been read to the end, otherwise 0
+    public static Object ant(Object handle) {
+        return MarathiInput.get("ant", integer("ant", handle)).atEnd() ? 1 : 0;
+    }
+
+    public static Object band(Object handle) {
+        MarathiInput.close(integer("band", handle));
+        return 0;
+    }
+
+    // New empty kosh
+    public static Object kosh() {
+        return new MarathiMap();
+    }
+
+    // 1 if the kosh has the key, otherwise 0
+    public static Object aahe(Object map, Object key) {
+        if (!(map instanceof MarathiMap)) {
+            throw new RuntimeException("aahe expects a kosh, found: " + MarathiValues.format(map));
+        }
+        return ((MarathiMap) map).contains(key) ? 1 : 0;
+    }
+
+    private static int[] array(String functionName, Object value) {
+        if (!(value instanceof int[])) {
+            throw new RuntimeException(functionName + " expects an array, found: " + MarathiValues.format(value));
+        }
+        return (int[]) value;
+    }
+
+    private static int integer(String functionName, Object value) {
+        if (!(value instanceof Integer)) {
+            throw new RuntimeException(functionName + " expects an integer, found: " + MarathiValues.format(value));
+        }
+        return (Integer) value;
+    }
+}
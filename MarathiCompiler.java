@@ -0,0 +1,987 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+// Ahead-of-time compiler from a .marathi script to a runnable jar.
+// The script is translated to Java source and compiled with the JDK's compiler: every karya becomes
+// a static method whose variables are Java locals, top-level variables become static fields, and
+// operators and checks go through MarathiOps, so output and error messages match the interpreter.
+// Usage: java MarathiCompiler [-o OUTPUT.jar|DIRECTORY] [--class NAME] [--source] <script.marathi>
+//        java MarathiCompiler --bench [--runs N] <file|directory|glob>...
+public class MarathiCompiler {
+    // Classes a compiled script uses at run time; they are copied next to it
+    private static final String[] RUNTIME_CLASSES = {"MarathiOps", "MarathiOps$LineWriter", "MarathiValues", "MarathiRope",
+            "MarathiBuiltins", "MarathiArrays", "MarathiInput", "MarathiMap"};
+    private static final int STATEMENTS_PER_METHOD = 64;  // Top-level code is split so no method nears the JVM's 64 KB limit
+    private static final String[] USAGE = {
+            "Usage: java MarathiCompiler [-o OUTPUT.jar|DIRECTORY] [--class NAME] [--source] <script.marathi>",
+            "       java MarathiCompiler --bench [--runs N] <file|directory|glob>..."};
+
+    private final String className;
+    private final ASTNode program;
+    private final Map<String, FunctionDeclarationNode> functions = new LinkedHashMap<>();
+    private final Map<String, Set<String>> functionLocals = new HashMap<>();  // Variables each karya binds itself
+    private final Map<String, Set<String>> callers = new HashMap<>();  // Every karya from which a karya can be reached
+    private final Set<String> globals = new TreeSet<>();  // Variables used by top-level code
+    private final MarathiInterpreter loopChecker = new MarathiInterpreter();  // Verifies samantar loops the way the interpreter does
+    private final StringBuilder code = new StringBuilder();
+    private int indent;
+    private int temporaries;
+    private FunctionDeclarationNode currentFunction;  // null while compiling top-level code
+    private int parallelDepth;  // samantar loops around the code being compiled
+
+    // An expression in the generated source, either an int or an Object
+    private static class Expression {
+        final String code;
+        final boolean integer;
+        final boolean constant;  // Made of literals only, which javac would fold
+
+        Expression(String code, boolean integer, boolean constant) {
+            this.code = code;
+            this.integer = integer;
+            this.constant = constant;
+        }
+    }
+
+    public MarathiCompiler(String className, ASTNode program) {
+        this.className = className;
+        this.program = program;
+    }
+
+    public static void main(String[] args) {
+        String output = null;
+        String className = null;
+        boolean keepSource = false;
+        boolean bench = false;
+        int runs = 5;
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-o":
+                    output = MarathiBatchRunner.optionValue(args, ++i, USAGE);
+                    break;
+                case "--class":
+                    className = MarathiBatchRunner.optionValue(args, ++i, USAGE);
+                    break;
+                case "--source":
+                    keepSource = true;
+                    break;
+                case "--bench":
+                    bench = true;
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(MarathiBatchRunner.optionValue(args, ++i, USAGE));
+                    break;
+                default:
+                    inputs.add(args[i]);
+            }
+        }
+        if (inputs.isEmpty() || (!bench && inputs.size() != 1)) {
+            for (String line : USAGE) {
+                System.err.println(line);
+            }
+            System.exit(2);
+        }
+
+        try {
+            if (bench) {
+                System.exit(bench(MarathiBatchRunner.collectScripts(inputs), runs) ? 0 : 1);
+            }
+            Path script = Paths.get(inputs.get(0));
+            if (className == null) {
+                className = classNameFor(script);
+            }
+            Path target = Paths.get(output != null ? output : className + ".jar");
+            String source = new MarathiCompiler(className, parse(script)).generate();
+            if (keepSource) {
+                Path sourceFile = (target.toString().endsWith(".jar") ? target.toAbsolutePath().getParent() : target).resolve(className + ".java");
+                Files.createDirectories(sourceFile.getParent());
+                Files.write(sourceFile, source.getBytes(StandardCharsets.UTF_8));
+            }
+            writeClasses(className, source, target);
+            if (target.toString().endsWith(".jar")) {
+                System.out.println("Compiled " + script + " to " + target + "; run it with: java -jar " + target);
+            } else {
+                System.out.println("Compiled " + script + " to " + target + "; run it with: java -cp " + target + " " + className);
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        } catch (RuntimeException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    static ASTNode parse(Path script) throws IOException {
+        MarathiTokenizer tokenizer = new MarathiTokenizer(new String(Files.readAllBytes(script), StandardCharsets.UTF_8));
+        tokenizer.setDebug(false);
+        return new MarathiParser(tokenizer.tokenize()).parse();
+    }
+
+    // fib-loop.marathi compiles to FibLoop
+    static String classNameFor(Path script) {
+        String name = script.getFileName().toString();
+        if (name.endsWith(".marathi")) {
+            name = name.substring(0, name.length() - ".marathi".length());
+        }
+        StringBuilder builder = new StringBuilder();
+        boolean upper = true;
+        for (char c : name.toCharArray()) {
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+                builder.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            } else {
+                upper = true;
+            }
+        }
+        if (builder.length() == 0 || Character.isDigit(builder.charAt(0)) || Arrays.asList(RUNTIME_CLASSES).contains(builder.toString())) {
+            builder.insert(0, "Script");
+        }
+        return builder.toString();
+    }
+
+    // Java source of a class with main(String[]) and run(Consumer<String>) methods that run the script
+    public String generate() {
+        for (ASTNode statement : ((BlockNode) program).getStatements()) {
+            if (statement instanceof ImportNode) {
+                throw new RuntimeException("aayat is not supported by the compiler; run scripts that import modules with the interpreter");
+            }
+        }
+        MarathiTypeChecker.check(program, false);  // A type error fails the compile instead of the compiled script
+        collectFunctions(program);
+        collectBindings(program, globals, new HashSet<>());
+        collectReads(program);
+        for (FunctionDeclarationNode function : functions.values()) {
+            loopChecker.interpret(function);  // Only registers the karya
+        }
+
+        line("// Generated by MarathiCompiler; changes are lost when the script is recompiled");
+        line("import java.util.function.Consumer;");
+        line("");
+        line("public final class " + className + " {");
+        indent++;
+        line("private static Consumer<String> out;");
+        for (String global : globals) {
+            line("private static Object " + globalName(global) + ";");
+        }
+        for (String function : functions.keySet()) {
+            line("private static boolean " + declaredFlag(function) + ";  // Set when the karya declaration runs");
+        }
+        line("");
+        line("public static void main(String[] args) {");
+        line("    MarathiOps.runMain(" + className + "::run);");
+        line("}");
+        line("");
+
+        // Statics are reset so the script can be run again in the same JVM
+        List<ASTNode> statements = ((BlockNode) program).getStatements();
+        line("public static void run(Consumer<String> output) {");
+        indent++;
+        line("out = output;");
+        for (String global : globals) {
+            line(globalName(global) + " = null;");
+        }
+        for (String function : functions.keySet()) {
+            line(declaredFlag(function) + " = false;");
+        }
+        for (int i = 0; i * STATEMENTS_PER_METHOD < statements.size(); i++) {
+            line("part" + i + "();");
+        }
+        indent--;
+        line("}");
+
+        for (int i = 0; i * STATEMENTS_PER_METHOD < statements.size(); i++) {
+            line("");
+            line("private static void part" + i + "() {");
+            indent++;
+            Set<String> assigned = new HashSet<>();
+            for (ASTNode statement : statements.subList(i * STATEMENTS_PER_METHOD, Math.min(statements.size(), (i + 1) * STATEMENTS_PER_METHOD))) {
+                compileStatement(statement, assigned);
+            }
+            indent--;
+            line("}");
+        }
+
+        for (FunctionDeclarationNode function : functions.values()) {
+            line("");
+            compileFunction(function);
+        }
+        indent--;
+        line("}");
+        return code.toString();
+    }
+
+    // ---- Analysis ----
+
+    private void collectFunctions(ASTNode node) {
+        for (ASTNode child : children(node)) {
+            if (child instanceof FunctionDeclarationNode) {
+                FunctionDeclarationNode function = (FunctionDeclarationNode) child;
+                if (functions.containsKey(function.getFunctionName())) {
+                    throw new RuntimeException("karya '" + function.getFunctionName() + "' is declared more than once; a compiled script needs a single declaration per karya");
+                }
+                if (new HashSet<>(function.getParameters()).size() != function.getParameters().size()) {
+                    throw new RuntimeException("karya '" + function.getFunctionName() + "' has two parameters with the same name");
+                }
+                functions.put(function.getFunctionName(), function);
+            }
+            collectFunctions(child);
+        }
+
+        if (node == program) {
+            Map<String, Set<String>> callees = new HashMap<>();
+            for (FunctionDeclarationNode function : functions.values()) {
+                Set<String> locals = new HashSet<>(function.getParameters());
+                Set<String> called = new HashSet<>();
+                collectBindings(function.getBody(), locals, called);
+                functionLocals.put(function.getFunctionName(), locals);
+                callees.put(function.getFunctionName(), called);
+            }
+            for (String function : functions.keySet()) {
+                Set<String> reaching = new HashSet<>();
+                for (String caller : functions.keySet()) {
+                    if (reaches(caller, function, callees)) {
+                        reaching.add(caller);
+                    }
+                }
+                callers.put(function, reaching);
+            }
+        }
+    }
+
+    // Whether 'from' can call 'to' through one or more calls
+    private static boolean reaches(String from, String to, Map<String, Set<String>> callees) {
+        Set<String> visited = new HashSet<>();
+        List<String> pending = new ArrayList<>(callees.get(from));
+        while (!pending.isEmpty()) {
+            String next = pending.remove(pending.size() - 1);
+            if (next.equals(to)) {
+                return true;
+            }
+            if (visited.add(next) && callees.containsKey(next)) {
+                pending.addAll(callees.get(next));
+            }
+        }
+        return false;
+    }
+
+    // Variables bound and karya called by code, not counting the bodies of karya declared inside it
+    private void collectBindings(ASTNode node, Set<String> bound, Set<String> called) {
+        if (node instanceof VariableDeclarationNode) {
+            bound.add(((VariableDeclarationNode) node).getVariableName());
+        } else if (node instanceof AssignmentNode) {
+            bound.add(((AssignmentNode) node).getVariableName());
+        } else if (node instanceof ParallelForNode) {
+            bound.add(((ParallelForNode) node).getIndexVariable());
+            bound.addAll(((ParallelForNode) node).getReductionVariables());
+        } else if (node instanceof ForEachNode) {
+            bound.add(((ForEachNode) node).getKeyVariable());
+        } else if (node instanceof FunctionCallNode && functions.containsKey(((FunctionCallNode) node).getFunctionName())) {
+            called.add(((FunctionCallNode) node).getFunctionName());
+        } else if (node instanceof FunctionDeclarationNode) {
+            return;
+        }
+        for (ASTNode child : children(node)) {
+            collectBindings(child, bound, called);
+        }
+    }
+
+    // Variables read outside any karya; the ones bound there are added by collectBindings
+    private void collectReads(ASTNode node) {
+        if (node instanceof FunctionDeclarationNode) {
+            return;
+        }
+        if (node instanceof VariableNode) {
+            globals.add(((VariableNode) node).getName());
+        } else if (node instanceof ArrayAccessNode) {
+            globals.add(((ArrayAccessNode) node).getArrayName());
+        } else if (node instanceof ArrayAssignmentNode) {
+            globals.add(((ArrayAssignmentNode) node).getArrayName());
+        }
+        for (ASTNode child : children(node)) {
+            collectReads(child);
+        }
+    }
+
+    private static List<ASTNode> children(ASTNode node) {
+        List<ASTNode> children = new ArrayList<>();
+        if (node instanceof BlockNode) {
+            children.addAll(((BlockNode) node).getStatements());
+        } else if (node instanceof VariableDeclarationNode) {
+            children.add(((VariableDeclarationNode) node).getValue());
+        } else if (node instanceof AssignmentNode) {
+            children.add(((AssignmentNode) node).getExpression());
+        } else if (node instanceof ArrayAssignmentNode) {
+            children.add(((ArrayAssignmentNode) node).getIndex());
+            children.add(((ArrayAssignmentNode) node).getValue());
+        } else if (node instanceof PrintStatementNode) {
+            children.add(((PrintStatementNode) node).getMessage());
+        } else if (node instanceof IfStatementNode) {
+            IfStatementNode ifStmtNode = (IfStatementNode) node;
+            children.add(ifStmtNode.getCondition());
+            children.add(ifStmtNode.getThenBranch());
+            if (ifStmtNode.getElseBranch() != null) {
+                children.add(ifStmtNode.getElseBranch());
+            }
+        } else if (node instanceof WhileLoopNode) {
+            children.add(((WhileLoopNode) node).getCondition());
+            children.add(((WhileLoopNode) node).getBody());
+        } else if (node instanceof ForLoopNode) {
+            ForLoopNode forLoopNode = (ForLoopNode) node;
+            children.addAll(Arrays.asList(forLoopNode.getInitialization(), forLoopNode.getCondition(), forLoopNode.getBody(), forLoopNode.getIncrement()));
+        } else if (node instanceof ParallelForNode) {
+            ParallelForNode loopNode = (ParallelForNode) node;
+            children.addAll(Arrays.asList(loopNode.getStart(), loopNode.getEnd(), loopNode.getBody()));
+        } else if (node instanceof ForEachNode) {
+            children.add(((ForEachNode) node).getMap());
+            children.add(((ForEachNode) node).getBody());
+        } else if (node instanceof FunctionDeclarationNode) {
+            children.add(((FunctionDeclarationNode) node).getBody());
+        } else if (node instanceof ReturnNode) {
+            children.add(((ReturnNode) node).getReturnValue());
+        } else if (node instanceof FunctionCallNode) {
+            children.addAll(((FunctionCallNode) node).getArguments());
+        } else if (node instanceof BinaryOperationNode) {
+            children.add(((BinaryOperationNode) node).getLeft());
+            children.add(((BinaryOperationNode) node).getRight());
+        } else if (node instanceof ConditionNode) {
+            children.add(((ConditionNode) node).getLeftOperand());
+            children.add(((ConditionNode) node).getRightOperand());
+        } else if (node instanceof ArrayAccessNode) {
+            children.add(((ArrayAccessNode) node).getIndex());
+        } else if (node instanceof ArrayLiteralNode) {
+            children.addAll(((ArrayLiteralNode) node).getElements());
+        }
+        return children;
+    }
+
+    // ---- Code generation ----
+
+    private void compileFunction(FunctionDeclarationNode function) {
+        currentFunction = function;
+        List<String> parameters = function.getParameters();
+        line("private static Object " + functionName(function.getFunctionName()) + "("
+                + parameters.stream().map(p -> "Object " + localName(p)).collect(Collectors.joining(", ")) + ") {");
+        indent++;
+        // A karya starts out seeing the top-level value of every variable it binds, as the interpreter's
+        // dynamic scope would when it is called from top-level code
+        for (String local : new TreeSet<>(functionLocals.get(function.getFunctionName()))) {
+            if (!parameters.contains(local)) {
+                line("Object " + localName(local) + " = " + (globals.contains(local) ? globalName(local) : "null") + ";");
+            }
+        }
+        Set<String> assigned = new HashSet<>(parameters);
+        if (compileStatement(function.getBody(), assigned)) {
+            line("return null;");
+        }
+        indent--;
+        line("}");
+        currentFunction = null;
+    }
+
+    // Returns whether execution can continue after the statement, as javac sees it; statements after
+    // one that can't are dead and are left out, since javac rejects unreachable code.
+    // 'assigned' holds the variables of the current karya that certainly have a value at this point.
+    private boolean compileStatement(ASTNode node, Set<String> assigned) {
+        if (node instanceof BlockNode) {
+            for (ASTNode statement : ((BlockNode) node).getStatements()) {
+                if (!compileStatement(statement, assigned)) {
+                    return false;
+                }
+            }
+        } else if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode declaration = (VariableDeclarationNode) node;
+            String name = declaration.getVariableName();
+            Expression value = compileExpression(declaration.getValue(), assigned);
+            boolean check = declaration.getValue() instanceof FunctionCallNode;  // Only a call can produce something other than a value
+            line(variable(name) + " = " + (check ? "MarathiOps.declared(" + value.code + ", " + literal(name) + ")" : boxed(value)) + ";");
+            assigned.add(name);
+        } else if (node instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) node;
+            String name = assignment.getVariableName();
+            Expression value = compileExpression(assignment.getExpression(), assigned);
+            boolean check = assignment.getExpression() instanceof FunctionCallNode;
+            line(variable(name) + " = " + (check ? "MarathiOps.assigned(" + value.code + ")" : boxed(value)) + ";");
+            assigned.add(name);
+        } else if (node instanceof ArrayAssignmentNode) {
+            ArrayAssignmentNode assignment = (ArrayAssignmentNode) node;
+            String name = assignment.getArrayName();
+            String array = temporary();
+            line("{");
+            indent++;
+            if ((assignment.getContainerType() & MarathiTypeChecker.MAP) != 0) {
+                // A kosh, or a variable that holds one on some paths, goes through MarathiOps
+                line("Object " + array + " = MarathiOps.container(" + read(name, assigned) + ", " + literal(name) + ");");
+                Expression index = compileExpression(assignment.getIndex(), assigned);
+                line("MarathiOps.set(" + array + ", " + boxed(index) + ", " + boxed(compileExpression(assignment.getValue(), assigned)) + ", "
+                        + literal(name) + ", " + (parallelDepth > 0) + ");");
+                indent--;
+                line("}");
+                return true;
+            }
+            line("int[] " + array + " = MarathiOps.array(" + read(name, assigned) + ", " + literal(name) + ");");
+            Expression index = compileExpression(assignment.getIndex(), assigned);
+            line(array + "[MarathiOps.index(" + array + ", " + index.code + ", " + literal(name) + ")] = "
+                    + integer(compileExpression(assignment.getValue(), assigned), "MarathiOps.element") + ";");
+            indent--;
+            line("}");
+        } else if (node instanceof PrintStatementNode) {
+            Expression message = compileExpression(((PrintStatementNode) node).getMessage(), assigned);
+            line("out.accept(" + (message.integer ? "Integer.toString(" + message.code + ")" : "MarathiValues.format(" + message.code + ")") + ");");
+        } else if (node instanceof IfStatementNode) {
+            IfStatementNode ifStmtNode = (IfStatementNode) node;
+            line("if (" + compileCondition((ConditionNode) ifStmtNode.getCondition(), assigned, false) + ") {");
+            Set<String> thenAssigned = new HashSet<>(assigned);
+            indent++;
+            boolean thenCompletes = compileStatement(ifStmtNode.getThenBranch(), thenAssigned);
+            indent--;
+            Set<String> elseAssigned = new HashSet<>(assigned);
+            boolean elseCompletes = true;
+            if (ifStmtNode.getElseBranch() != null) {
+                line("} else {");
+                indent++;
+                elseCompletes = compileStatement(ifStmtNode.getElseBranch(), elseAssigned);
+                indent--;
+            }
+            line("}");
+            if (!thenCompletes) {
+                thenAssigned = elseAssigned;
+            } else if (!elseCompletes) {
+                elseAssigned = thenAssigned;
+            }
+            thenAssigned.retainAll(elseAssigned);  // Assigned on every path that gets here
+            assigned.addAll(thenAssigned);
+            return thenCompletes || elseCompletes;
+        } else if (node instanceof WhileLoopNode) {
+            WhileLoopNode whileLoopNode = (WhileLoopNode) node;
+            line("while (" + compileCondition((ConditionNode) whileLoopNode.getCondition(), assigned, true) + ") {");
+            indent++;
+            compileStatement(whileLoopNode.getBody(), new HashSet<>(assigned));
+            indent--;
+            line("}");
+        } else if (node instanceof ForLoopNode) {
+            ForLoopNode forLoopNode = (ForLoopNode) node;
+            compileStatement(forLoopNode.getInitialization(), assigned);
+            line("while (" + compileCondition((ConditionNode) forLoopNode.getCondition(), assigned, true) + ") {");
+            indent++;
+            Set<String> bodyAssigned = new HashSet<>(assigned);
+            if (compileStatement(forLoopNode.getBody(), bodyAssigned)) {
+                compileStatement(forLoopNode.getIncrement(), bodyAssigned);
+            }
+            indent--;
+            line("}");
+        } else if (node instanceof ParallelForNode) {
+            compileParallelLoop((ParallelForNode) node, assigned);
+        } else if (node instanceof ForEachNode) {
+            ForEachNode loop = (ForEachNode) node;
+            String map = temporary();
+            String entry = temporary();
+            String end = temporary();
+            line("{");
+            indent++;
+            line("MarathiMap " + map + " = MarathiOps.map(" + boxed(compileExpression(loop.getMap(), assigned)) + ");");
+            line("for (int " + entry + " = 0, " + end + " = " + map + ".size(); " + entry + " < " + end + "; " + entry + "++) {");
+            indent++;
+            line(variable(loop.getKeyVariable()) + " = " + map + ".key(" + entry + ");");
+            Set<String> bodyAssigned = new HashSet<>(assigned);
+            bodyAssigned.add(loop.getKeyVariable());
+            compileStatement(loop.getBody(), bodyAssigned);
+            indent--;
+            line("}");
+            indent--;
+            line("}");
+        } else if (node instanceof FunctionDeclarationNode) {
+            line(declaredFlag(((FunctionDeclarationNode) node).getFunctionName()) + " = true;");
+        } else if (node instanceof FunctionCallNode) {
+            FunctionCallNode call = (FunctionCallNode) node;
+            String[] branches = compileCall(call, assigned);
+            if (branches[0] == null) {
+                line(branches[2] + ";");
+            } else {
+                line("if (" + branches[0] + ") {");
+                line("    " + branches[1] + ";");
+                line("} else {");
+                line("    " + branches[2] + ";");
+                line("}");
+            }
+        } else if (node instanceof ReturnNode) {
+            if (currentFunction == null) {
+                throw new RuntimeException("parat is only allowed inside a karya");
+            }
+            line("return " + boxed(compileExpression(((ReturnNode) node).getReturnValue(), assigned)) + ";");
+            return false;
+        } else {
+            throw new RuntimeException("Unexpected AST node type: " + node.getClass().getName());
+        }
+        return true;
+    }
+
+    // samantar runs its iterations in order here. The loop is checked exactly as the interpreter checks
+    // it, so only loops whose iterations are independent get this far, and for those the result is the same.
+    private void compileParallelLoop(ParallelForNode loopNode, Set<String> assigned) {
+        MarathiInterpreter.ParallelLoopCheck check;
+        try {
+            check = loopChecker.checkParallelLoop(loopNode);
+        } catch (RuntimeException e) {
+            line("MarathiOps.fail(" + literal(e.getMessage()) + ");");  // The interpreter fails when it reaches the loop
+            return;
+        }
+        line("{");
+        indent++;
+        for (String reduction : loopNode.getReductionVariables()) {
+            line("MarathiOps.checkReduction(" + variable(reduction) + ", " + literal(reduction) + ");");
+        }
+        String[] aliasNames = check.getAliasNames();
+        if (aliasNames != null) {
+            StringJoiner names = new StringJoiner(", ");
+            StringJoiner values = new StringJoiner(", ");
+            for (String name : aliasNames) {
+                names.add(literal(name));
+                values.add(read(name, assigned));
+            }
+            line("MarathiOps.checkLoopAliases(" + literal(loopNode.getIndexVariable()) + ", new String[] {" + names + "}, new Object[] {" + values + "}, "
+                    + check.getWrittenCount() + ", " + check.getSharedCount() + ");");
+        }
+        String start = temporary();
+        String end = temporary();
+        line("int " + start + " = MarathiOps.loopBound(" + boxed(compileExpression(loopNode.getStart(), assigned)) + ");");
+        line("int " + end + " = MarathiOps.loopBound(" + boxed(compileExpression(loopNode.getEnd(), assigned)) + ");");
+
+        // Iterations run on copies of the variables in the interpreter, so the index and the body's own
+        // variables are put back afterwards
+        Set<String> iterationLocals = new TreeSet<>();
+        iterationLocals.add(loopNode.getIndexVariable());
+        collectBindings(loopNode.getBody(), iterationLocals, new HashSet<>());
+        iterationLocals.removeAll(loopNode.getReductionVariables());
+        Map<String, String> saved = new LinkedHashMap<>();
+        for (String local : iterationLocals) {
+            saved.put(local, temporary());
+            line("Object " + saved.get(local) + " = " + variable(local) + ";");
+        }
+        String index = temporary();
+        line("for (int " + index + " = " + start + "; " + index + " < " + end + "; " + index + "++) {");
+        indent++;
+        line(variable(loopNode.getIndexVariable()) + " = Integer.valueOf(" + index + ");");
+        Set<String> bodyAssigned = new HashSet<>(assigned);
+        bodyAssigned.add(loopNode.getIndexVariable());
+        parallelDepth++;
+        compileStatement(loopNode.getBody(), bodyAssigned);
+        parallelDepth--;
+        indent--;
+        line("}");
+        for (Map.Entry<String, String> entry : saved.entrySet()) {
+            line(variable(entry.getKey()) + " = " + entry.getValue() + ";");
+        }
+        indent--;
+        line("}");
+    }
+
+    // javac treats a condition made of literals as a constant, and a loop on a constant condition
+    // makes the code around it unreachable; such conditions are computed through a call instead.
+    private String compileCondition(ConditionNode condition, Set<String> assigned, boolean loop) {
+        Expression left = compileExpression(condition.getLeftOperand(), assigned);
+        Expression right = compileExpression(condition.getRightOperand(), assigned);
+        String operator = condition.getOperator();
+        String comparison;
+        if (left.integer && right.integer) {
+            if (!left.constant || !right.constant || !loop) {
+                if (Arrays.asList("<", ">", "<=", ">=", "==", "!=").contains(operator)) {
+                    return "(" + left.code + " " + operator + " " + right.code + ")";
+                }
+            }
+            comparison = "Integer.compare(" + left.code + ", " + right.code + ")";
+        } else if (right.integer) {
+            comparison = "MarathiOps.compare(" + left.code + ", " + right.code + ")";
+        } else {
+            comparison = "MarathiOps.compare(" + boxed(left) + ", " + right.code + ")";
+        }
+        if (!Arrays.asList("<", ">", "<=", ">=", "==", "!=").contains(operator)) {
+            // Both operands are still evaluated and compared before the interpreter rejects the operator
+            return "(" + comparison + " < 0 & (Boolean) MarathiOps.fail(" + literal("Unknown operator: " + operator) + "))";
+        }
+        return "(" + comparison + " " + operator + " 0)";
+    }
+
+    private Expression compileExpression(ASTNode node, Set<String> assigned) {
+        if (node instanceof NumberNode) {
+            String digits = ((NumberNode) node).getValue();
+            try {
+                return new Expression(Integer.toString(Integer.parseInt(digits)), true, true);
+            } catch (NumberFormatException e) {
+                return new Expression("MarathiOps.toInt(" + literal(digits) + ")", true, false);  // Fails at run time, as in the interpreter
+            }
+        } else if (node instanceof StringNode) {
+            return new Expression(literal(((StringNode) node).getValue()), false, false);
+        } else if (node instanceof VariableNode) {
+            String name = ((VariableNode) node).getName();
+            return new Expression("MarathiOps.read(" + read(name, assigned) + ", " + literal(name) + ")", false, false);
+        } else if (node instanceof ArrayAccessNode) {
+            ArrayAccessNode access = (ArrayAccessNode) node;
+            String name = access.getArrayName();
+            if ((access.getContainerType() & MarathiTypeChecker.MAP) != 0) {
+                String container = "MarathiOps.container(" + read(name, assigned) + ", " + literal(name) + ")";
+                Expression key = compileExpression(access.getIndex(), assigned);
+                return new Expression("MarathiOps.get(" + container + ", " + boxed(key) + ", " + literal(name) + ")", false, false);
+            }
+            String array = "MarathiOps.array(" + read(name, assigned) + ", " + literal(name) + ")";
+            Expression index = compileExpression(access.getIndex(), assigned);
+            return new Expression("MarathiOps.load(" + array + ", " + index.code + ", " + literal(name) + ")", true, false);
+        } else if (node instanceof ArrayLiteralNode) {
+            List<String> elements = new ArrayList<>();
+            for (ASTNode element : ((ArrayLiteralNode) node).getElements()) {
+                elements.add(integer(compileExpression(element, assigned), "MarathiOps.element"));
+            }
+            return new Expression("new int[] {" + String.join(", ", elements) + "}", false, false);
+        } else if (node instanceof BinaryOperationNode) {
+            BinaryOperationNode binOp = (BinaryOperationNode) node;
+            Expression left = compileExpression(binOp.getLeft(), assigned);
+            Expression right = compileExpression(binOp.getRight(), assigned);
+            String operator = binOp.getOperator();
+            boolean constant = left.constant && right.constant;
+            if (operator.equals("+")) {
+                if (left.integer && right.integer) {
+                    return new Expression("(" + left.code + " + " + right.code + ")", true, constant);
+                }
+                return new Expression("MarathiOps.add(" + boxed(left) + ", " + boxed(right) + ")", false, false);
+            }
+            String method;
+            switch (operator) {
+                case "-": method = "subtract"; break;
+                case "*": method = "multiply"; break;
+                case "/": method = "divide"; break;
+                case "%": method = "remainder"; break;
+                default: throw new RuntimeException("Unknown operator: " + operator);
+            }
+            if (left.integer) {
+                // The left operand is already an int, so converting the right one can't reorder any failure
+                return new Expression("(" + left.code + " " + operator + " " + integer(right, "MarathiOps.toInt") + ")", true, constant);
+            }
+            return new Expression("MarathiOps." + method + "(" + left.code + ", " + right.code + ")", true, false);
+        } else if (node instanceof FunctionCallNode) {
+            String[] branches = compileCall((FunctionCallNode) node, assigned);
+            if (branches[0] == null) {
+                return new Expression(branches[2], false, false);
+            }
+            return new Expression("(" + branches[0] + " ? " + branches[1] + " : " + branches[2] + ")", false, false);
+        }
+        throw new RuntimeException("Unknown expression node: " + node);
+    }
+
+    // A call is linked the way the interpreter links it: to the karya once its declaration has run,
+    // otherwise to the intrinsic of that name. Returns { flag that selects the karya or null, karya call,
+    // fallback call }.
+    private String[] compileCall(FunctionCallNode call, Set<String> assigned) {
+        String name = call.getFunctionName();
+        List<String> arguments = new ArrayList<>();
+        for (ASTNode argument : call.getArguments()) {
+            arguments.add(boxed(compileExpression(argument, assigned)));
+        }
+        String fallback = MarathiBuiltins.lookup(name, arguments.size()) != null
+                ? "MarathiBuiltins." + name + "(" + String.join(", ", arguments) + ")"
+                : "MarathiOps.fail(" + literal("Function not defined: " + name) + ")";
+        FunctionDeclarationNode function = functions.get(name);
+        if (function == null) {
+            return new String[] {null, null, fallback};
+        }
+        String target = function.getParameters().size() == arguments.size()
+                ? functionName(name) + "(" + String.join(", ", arguments) + ")"
+                : "MarathiOps.fail(" + literal("Argument count mismatch for function: " + name) + ")";
+        return new String[] {declaredFlag(name), target, fallback};
+    }
+
+    // The Java variable a script variable lives in at this point. Reading a variable of a karya that a
+    // caller also binds would need the interpreter's dynamic scope, so such scripts are rejected.
+    private String read(String name, Set<String> assigned) {
+        if (currentFunction == null || assigned.contains(name)) {
+            return variable(name);
+        }
+        for (String caller : callers.get(currentFunction.getFunctionName())) {
+            if (functionLocals.get(caller).contains(name)) {
+                throw new RuntimeException("karya '" + currentFunction.getFunctionName() + "' reads '" + name + "', which its caller karya '" + caller
+                        + "' binds; compiled karya can only read their own variables and top-level ones");
+            }
+        }
+        if (!functionLocals.get(currentFunction.getFunctionName()).contains(name) && !globals.contains(name)) {
+            return "(Object) null";  // Never bound anywhere it could be seen from here
+        }
+        return variable(name);
+    }
+
+    private String variable(String name) {
+        if (currentFunction != null && functionLocals.get(currentFunction.getFunctionName()).contains(name)) {
+            return localName(name);
+        }
+        return globalName(name);
+    }
+
+    private static String boxed(Expression expression) {
+        return expression.integer ? "Integer.valueOf(" + expression.code + ")" : expression.code;
+    }
+
+    private static String integer(Expression expression, String conversion) {
+        return expression.integer ? expression.code : conversion + "(" + expression.code + ")";
+    }
+
+    private String temporary() {
+        return "t$" + (++temporaries);
+    }
+
+    private static String localName(String name) {
+        return "v_" + mangle(name);
+    }
+
+    private static String globalName(String name) {
+        return "g_" + mangle(name);
+    }
+
+    private static String functionName(String name) {
+        return "k_" + mangle(name);
+    }
+
+    private static String declaredFlag(String name) {
+        return "d_" + mangle(name);
+    }
+
+    // Script identifiers may hold Devanagari; anything outside ASCII letters and digits is spelled as $XXXX
+    private static String mangle(String name) {
+        StringBuilder builder = new StringBuilder();
+        for (char c : name.toCharArray()) {
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+                builder.append(c);
+            } else {
+                builder.append(String.format("$%04x", (int) c));
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String literal(String text) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c >= 0x20 && c < 0x7f) {
+                builder.append(c);
+            } else if (c < 0x80) {
+                builder.append(String.format("\\%03o", (int) c));  // A \\u escape of a line break would end the literal
+            } else {
+                builder.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    private void line(String text) {
+        for (int i = 0; i < indent && !text.isEmpty(); i++) {
+            code.append("    ");
+        }
+        code.append(text).append('\n');
+    }
+
+    // ---- Building classes ----
+
+    // Compiles the generated source and writes it, with the runtime classes, to a jar or a directory
+    static void writeClasses(String className, String source, Path target) throws IOException {
+        Path classes = Files.createTempDirectory("marathi-classes");
+        try {
+            compileSource(className, source, classes);
+            for (String runtimeClass : RUNTIME_CLASSES) {
+                try (InputStream in = MarathiCompiler.class.getResourceAsStream("/" + runtimeClass + ".class")) {
+                    if (in == null) {
+                        throw new IOException("Runtime class " + runtimeClass + " is not on the class path");
+                    }
+                    Files.copy(in, classes.resolve(runtimeClass + ".class"));
+                }
+            }
+            List<Path> files;
+            try (Stream<Path> list = Files.list(classes)) {
+                files = list.sorted().collect(Collectors.toList());
+            }
+
+            if (target.toString().endsWith(".jar")) {
+                Manifest manifest = new Manifest();
+                manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+                manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, className);
+                if (target.toAbsolutePath().getParent() != null) {
+                    Files.createDirectories(target.toAbsolutePath().getParent());
+                }
+                try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(target), manifest)) {
+                    for (Path file : files) {
+                        jar.putNextEntry(new JarEntry(file.getFileName().toString()));
+                        Files.copy(file, jar);
+                        jar.closeEntry();
+                    }
+                }
+            } else {
+                Files.createDirectories(target);
+                for (Path file : files) {
+                    Files.copy(file, target.resolve(file.getFileName().toString()), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        } finally {
+            deleteRecursively(classes);
+        }
+    }
+
+    static void compileSource(String className, String source, Path classes) throws IOException {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            throw new IOException("No Java compiler available; run MarathiCompiler on a JDK");
+        }
+        Path sources = Files.createTempDirectory("marathi-sources");
+        try {
+            Path sourceFile = sources.resolve(className + ".java");
+            Files.write(sourceFile, source.getBytes(StandardCharsets.UTF_8));
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            try (StandardJavaFileManager fileManager = javac.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+                List<String> options = Arrays.asList("-d", classes.toString(), "-classpath", System.getProperty("java.class.path"),
+                        "-encoding", "UTF-8", "-nowarn");
+                boolean ok = javac.getTask(null, fileManager, diagnostics, options, null,
+                        fileManager.getJavaFileObjects(sourceFile.toFile())).call();
+                if (!ok) {
+                    StringBuilder message = new StringBuilder("Generated code for " + className + " did not compile:");
+                    for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                        message.append("\n  line ").append(diagnostic.getLineNumber()).append(": ").append(diagnostic.getMessage(null));
+                    }
+                    throw new RuntimeException(message.toString());
+                }
+            }
+        } finally {
+            deleteRecursively(sources);
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> walk = Files.walk(directory)) {
+            for (Path path : walk.sorted(Collections.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    // ---- Benchmark ----
+
+    // Runs every script in the interpreter and compiled, checks that both print the same thing, and
+    // reports the median run time of each. Returns false if any script's outputs differ.
+    static boolean bench(List<Path> scripts, int runs) throws IOException {
+        Path classes = Files.createTempDirectory("marathi-bench");
+        boolean allMatch = true;
+        double logSpeedups = 0;
+        int compared = 0;
+        System.out.printf("%-36s %14s %14s %9s  %s%n", "script", "interpreter ms", "compiled ms", "speedup", "output");
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {classes.toUri().toURL()}, MarathiCompiler.class.getClassLoader())) {
+            for (int i = 0; i < scripts.size(); i++) {
+                Path script = scripts.get(i);
+                ASTNode ast;
+                Method run;
+                try {
+                    ast = parse(script);
+                    String className = "Bench" + i + classNameFor(script);
+                    compileSource(className, new MarathiCompiler(className, ast).generate(), classes);
+                    run = loader.loadClass(className).getMethod("run", Consumer.class);
+                } catch (RuntimeException | ReflectiveOperationException e) {
+                    System.out.printf("%-36s skipped: %s%n", script, e.getMessage());
+                    continue;
+                }
+
+                String interpreted = null;
+                String compiled = null;
+                long[] interpreterNanos = new long[runs];
+                long[] compiledNanos = new long[runs];
+                for (int r = -1; r < runs; r++) {  // Run -1 warms up both
+                    long start = System.nanoTime();
+                    interpreted = runInterpreter(ast);
+                    long middle = System.nanoTime();
+                    compiled = runCompiled(run);
+                    long end = System.nanoTime();
+                    if (r >= 0) {
+                        interpreterNanos[r] = middle - start;
+                        compiledNanos[r] = end - middle;
+                    }
+                }
+                double interpreterMillis = median(interpreterNanos) / 1_000_000.0;
+                double compiledMillis = median(compiledNanos) / 1_000_000.0;
+                boolean same = interpreted.equals(compiled);
+                allMatch &= same;
+                if (compiledMillis > 0) {
+                    logSpeedups += Math.log(interpreterMillis / compiledMillis);
+                    compared++;
+                }
+                System.out.printf("%-36s %14.2f %14.2f %8.1fx  %s%n", script, interpreterMillis, compiledMillis,
+                        interpreterMillis / compiledMillis, same ? "same" : "DIFFERENT");
+            }
+        } finally {
+            deleteRecursively(classes);
+        }
+        if (compared > 0) {
+            System.out.printf("geometric mean speedup over %d scripts: %.1fx%n", compared, Math.exp(logSpeedups / compared));
+        }
+        return allMatch;
+    }
+
+    private static String runInterpreter(ASTNode ast) {
+        MarathiInterpreter interpreter = new MarathiInterpreter();
+        try {
+            interpreter.interpret(ast);
+            return interpreter.getOutput();
+        } catch (RuntimeException | StackOverflowError e) {
+            return interpreter.getOutput() + "Error: " + (e.getMessage() != null ? e.getMessage() : e.toString()) + "\n";
+        }
+    }
+
+    private static String runCompiled(Method run) {
+        StringBuilder output = new StringBuilder();
+        Consumer<String> sink = line -> output.append(line).append('\n');
+        try {
+            run.invoke(null, sink);
+            return output.toString();
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException || cause instanceof StackOverflowError) {
+                return output + "Error: " + (cause.getMessage() != null ? cause.getMessage() : cause.toString()) + "\n";
+            }
+            throw new RuntimeException(cause);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
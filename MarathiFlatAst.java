@@ -0,0 +1,414 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+// A parsed script stored as a struct of arrays instead of a graph of node objects, for
+// MarathiFlatInterpreter. Node n has kind kinds[n] and up to three int operands in first[n], second[n] and
+// third[n]: child nodes, symbol numbers, constant numbers, literal values or offsets into lists, which holds
+// variable-length operands as a count followed by the items. Names are interned into symbols, so the
+// evaluator keeps variables in an array indexed by symbol, and number literals are parsed here once.
+// Nodes are numbered in pre-order, so a statement and its sub-expressions sit next to each other.
+public final class MarathiFlatAst {
+    static final int BLOCK = 0;  // first: list of statements
+    static final int IF = 1;  // first: condition, second: then, third: else or -1
+    static final int VAR_DECL = 2;  // first: symbol, second: value
+    static final int ASSIGN = 3;  // first: symbol, second: value
+    static final int ARRAY_ASSIGN = 4;  // first: symbol, second: index, third: value
+    static final int PRINT = 5;  // first: value
+    static final int WHILE = 6;  // first: condition, second: body
+    static final int FOR = 7;  // first: initialization, second: condition, third: list of increment and body
+    static final int PARALLEL_FOR = 8;  // first: index symbol, second: list of start, end, body and reduction symbols
+    static final int FUNCTION_DECL = 9;  // first: symbol, second: list of parameter symbols, third: body
+    static final int RETURN = 10;  // first: value
+    static final int CALL = 11;  // first: symbol, second: list of arguments
+    static final int STRING = 12;  // first: constant
+    static final int NUMBER = 13;  // first: value
+    static final int VARIABLE = 14;  // first: symbol
+    static final int ARRAY_ACCESS = 15;  // first: symbol, second: index
+    static final int ARRAY_LITERAL = 16;  // first: list of elements
+    static final int ADD = 17;  // first: left, second: right, for every operator up to NOT_EQUAL
+    static final int SUBTRACT = 18;
+    static final int MULTIPLY = 19;
+    static final int DIVIDE = 20;
+    static final int REMAINDER = 21;
+    static final int LESS = 22;
+    static final int GREATER = 23;
+    static final int LESS_EQUAL = 24;
+    static final int GREATER_EQUAL = 25;
+    static final int EQUAL = 26;
+    static final int NOT_EQUAL = 27;
+    static final int BAD_CONDITION = 28;  // first: left, second: right, third: constant holding the operator
+    static final int FAIL = 29;  // first: constant holding the message of the error evaluating it raises
+    static final int FOR_EACH = 30;  // first: key symbol, second: kosh, third: body
+
+    private static final String[] BINARY_OPERATORS = {"+", "-", "*", "/", "%"};
+    private static final String[] CONDITION_OPERATORS = {"<", ">", "<=", ">=", "==", "!="};
+
+    private byte[] kinds = new byte[64];
+    private int[] first = new int[64];
+    private int[] second = new int[64];
+    private int[] third = new int[64];
+    private int nodeCount;
+    private int[] lists = new int[64];
+    private int listsLength;
+    private List<String> symbols = new ArrayList<>();  // Only while encoding
+    private HashMap<String, Integer> symbolNumbers = new HashMap<>();
+    private List<String> constants = new ArrayList<>();
+    private String[] symbolTable;
+    private String[] constantTable;
+    private int root;
+
+    private MarathiFlatAst() {
+    }
+
+    // Encodes a parsed script. Scripts that import modules are rejected, as by MarathiCompiler.
+    public static MarathiFlatAst flatten(ASTNode program) {
+        if (program instanceof BlockNode) {
+            for (ASTNode statement : ((BlockNode) program).getStatements()) {
+                if (statement instanceof ImportNode) {
+                    throw new RuntimeException("aayat is not supported by the flat evaluator; run scripts that import modules with MarathiInterpreter");
+                }
+            }
+        }
+        MarathiFlatAst ast = new MarathiFlatAst();
+        ast.root = ast.statement(program);
+        ast.kinds = Arrays.copyOf(ast.kinds, ast.nodeCount);
+        ast.first = Arrays.copyOf(ast.first, ast.nodeCount);
+        ast.second = Arrays.copyOf(ast.second, ast.nodeCount);
+        ast.third = Arrays.copyOf(ast.third, ast.nodeCount);
+        ast.lists = Arrays.copyOf(ast.lists, ast.listsLength);
+        ast.symbolTable = ast.symbols.toArray(new String[0]);
+        ast.constantTable = ast.constants.toArray(new String[0]);
+        ast.symbols = null;
+        ast.symbolNumbers = null;
+        ast.constants = null;
+        return ast;
+    }
+
+    public int getRoot() {
+        return root;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    byte[] getKinds() {
+        return kinds;
+    }
+
+    int[] getFirst() {
+        return first;
+    }
+
+    int[] getSecond() {
+        return second;
+    }
+
+    int[] getThird() {
+        return third;
+    }
+
+    int[] getLists() {
+        return lists;
+    }
+
+    String[] getSymbols() {
+        return symbolTable;
+    }
+
+    String[] getConstants() {
+        return constantTable;
+    }
+
+    // ---- Encoding ----
+
+    private int add(int kind) {
+        if (nodeCount == kinds.length) {
+            int capacity = nodeCount * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            first = Arrays.copyOf(first, capacity);
+            second = Arrays.copyOf(second, capacity);
+            third = Arrays.copyOf(third, capacity);
+        }
+        kinds[nodeCount] = (byte) kind;
+        third[nodeCount] = -1;
+        return nodeCount++;
+    }
+
+    private void set(int node, int a, int b, int c) {
+        first[node] = a;
+        second[node] = b;
+        third[node] = c;
+    }
+
+    private int list(int[] items) {
+        while (listsLength + items.length + 1 > lists.length) {
+            lists = Arrays.copyOf(lists, lists.length * 2);
+        }
+        int offset = listsLength;
+        lists[listsLength++] = items.length;
+        for (int item : items) {
+            lists[listsLength++] = item;
+        }
+        return offset;
+    }
+
+    private int symbol(String name) {
+        Integer number = symbolNumbers.get(name);
+        if (number == null) {
+            number = symbols.size();
+            symbols.add(name);
+            symbolNumbers.put(name, number);
+        }
+        return number;
+    }
+
+    private int constant(String value) {
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    private int fail(String message) {
+        int node = add(FAIL);
+        set(node, constant(message), -1, -1);
+        return node;
+    }
+
+    private int statement(ASTNode node) {
+        if (node instanceof BlockNode) {
+            int flat = add(BLOCK);
+            List<ASTNode> statements = ((BlockNode) node).getStatements();
+            int[] items = new int[statements.size()];
+            for (int i = 0; i < items.length; i++) {
+                items[i] = statement(statements.get(i));
+            }
+            set(flat, list(items), -1, -1);
+            return flat;
+        } else if (node instanceof IfStatementNode) {
+            IfStatementNode ifStmtNode = (IfStatementNode) node;
+            int flat = add(IF);
+            int condition = expression(ifStmtNode.getCondition());
+            int thenBranch = statement(ifStmtNode.getThenBranch());
+            int elseBranch = ifStmtNode.getElseBranch() != null ? statement(ifStmtNode.getElseBranch()) : -1;
+            set(flat, condition, thenBranch, elseBranch);
+            return flat;
+        } else if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode declaration = (VariableDeclarationNode) node;
+            int flat = add(VAR_DECL);
+            set(flat, symbol(declaration.getVariableName()), expression(declaration.getValue()), -1);
+            return flat;
+        } else if (node instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) node;
+            int flat = add(ASSIGN);
+            set(flat, symbol(assignment.getVariableName()), expression(assignment.getExpression()), -1);
+            return flat;
+        } else if (node instanceof ArrayAssignmentNode) {
+            ArrayAssignmentNode assignment = (ArrayAssignmentNode) node;
+            int flat = add(ARRAY_ASSIGN);
+            int index = expression(assignment.getIndex());
+            set(flat, symbol(assignment.getArrayName()), index, expression(assignment.getValue()));
+            return flat;
+        } else if (node instanceof PrintStatementNode) {
+            int flat = add(PRINT);
+            set(flat, expression(((PrintStatementNode) node).getMessage()), -1, -1);
+            return flat;
+        } else if (node instanceof WhileLoopNode) {
+            int flat = add(WHILE);
+            int condition = expression(((WhileLoopNode) node).getCondition());
+            set(flat, condition, statement(((WhileLoopNode) node).getBody()), -1);
+            return flat;
+        } else if (node instanceof ForLoopNode) {
+            ForLoopNode forLoopNode = (ForLoopNode) node;
+            int flat = add(FOR);
+            int initialization = statement(forLoopNode.getInitialization());
+            int condition = expression(forLoopNode.getCondition());
+            int increment = statement(forLoopNode.getIncrement());
+            int body = statement(forLoopNode.getBody());
+            set(flat, initialization, condition, list(new int[] {increment, body}));
+            return flat;
+        } else if (node instanceof ParallelForNode) {
+            ParallelForNode loopNode = (ParallelForNode) node;
+            int flat = add(PARALLEL_FOR);
+            List<String> reductions = loopNode.getReductionVariables();
+            int[] items = new int[3 + reductions.size()];
+            items[0] = expression(loopNode.getStart());
+            items[1] = expression(loopNode.getEnd());
+            items[2] = statement(loopNode.getBody());
+            for (int i = 0; i < reductions.size(); i++) {
+                items[3 + i] = symbol(reductions.get(i));
+            }
+            set(flat, symbol(loopNode.getIndexVariable()), list(items), -1);
+            return flat;
+        } else if (node instanceof ForEachNode) {
+            ForEachNode loop = (ForEachNode) node;
+            int flat = add(FOR_EACH);
+            int map = expression(loop.getMap());
+            set(flat, symbol(loop.getKeyVariable()), map, statement(loop.getBody()));
+            return flat;
+        } else if (node instanceof FunctionDeclarationNode) {
+            FunctionDeclarationNode function = (FunctionDeclarationNode) node;
+            int flat = add(FUNCTION_DECL);
+            int[] parameters = new int[function.getParameters().size()];
+            for (int i = 0; i < parameters.length; i++) {
+                parameters[i] = symbol(function.getParameters().get(i));
+            }
+            int name = symbol(function.getFunctionName());
+            int parameterList = list(parameters);
+            set(flat, name, parameterList, statement(function.getBody()));
+            return flat;
+        } else if (node instanceof ReturnNode) {
+            int flat = add(RETURN);
+            set(flat, expression(((ReturnNode) node).getReturnValue()), -1, -1);
+            return flat;
+        } else if (node instanceof FunctionCallNode) {
+            return expression(node);
+        }
+        throw new RuntimeException("Unexpected AST node type: " + node.getClass().getName());
+    }
+
+    private int expression(ASTNode node) {
+        if (node instanceof BinaryOperationNode) {
+            BinaryOperationNode binOp = (BinaryOperationNode) node;
+            int operator = Arrays.asList(BINARY_OPERATORS).indexOf(binOp.getOperator());
+            if (operator < 0) {
+                return fail("Unknown operator: " + binOp.getOperator());
+            }
+            int flat = add(ADD + operator);
+            int left = expression(binOp.getLeft());
+            set(flat, left, expression(binOp.getRight()), -1);
+            return flat;
+        } else if (node instanceof ConditionNode) {
+            ConditionNode condition = (ConditionNode) node;
+            int operator = Arrays.asList(CONDITION_OPERATORS).indexOf(condition.getOperator());
+            int flat = add(operator >= 0 ? LESS + operator : BAD_CONDITION);
+            int left = expression(condition.getLeftOperand());
+            set(flat, left, expression(condition.getRightOperand()), operator >= 0 ? -1 : constant(condition.getOperator()));
+            return flat;
+        } else if (node instanceof StringNode) {
+            int flat = add(STRING);
+            set(flat, constant(((StringNode) node).getValue()), -1, -1);
+            return flat;
+        } else if (node instanceof NumberNode) {
+            int value;
+            try {
+                value = Integer.parseInt(((NumberNode) node).getValue());
+            } catch (NumberFormatException e) {
+                return fail(e.getMessage());  // Fails when evaluated, as in the interpreter
+            }
+            int flat = add(NUMBER);
+            set(flat, value, -1, -1);
+            return flat;
+        } else if (node instanceof VariableNode) {
+            VariableNode variable = (VariableNode) node;
+            if (variable.getModule() != null) {
+                return fail("Undefined module: " + variable.getModule());
+            }
+            int flat = add(VARIABLE);
+            set(flat, symbol(variable.getName()), -1, -1);
+            return flat;
+        } else if (node instanceof ArrayAccessNode) {
+            ArrayAccessNode access = (ArrayAccessNode) node;
+            int flat = add(ARRAY_ACCESS);
+            set(flat, symbol(access.getArrayName()), expression(access.getIndex()), -1);
+            return flat;
+        } else if (node instanceof ArrayLiteralNode) {
+            int flat = add(ARRAY_LITERAL);
+            List<ASTNode> elements = ((ArrayLiteralNode) node).getElements();
+            int[] items = new int[elements.size()];
+            for (int i = 0; i < items.length; i++) {
+                items[i] = expression(elements.get(i));
+            }
+            set(flat, list(items), -1, -1);
+            return flat;
+        } else if (node instanceof FunctionCallNode) {
+            FunctionCallNode call = (FunctionCallNode) node;
+            if (call.getModule() != null) {
+                return fail("Undefined module: " + call.getModule());
+            }
+            int flat = add(CALL);
+            int[] arguments = new int[call.getArguments().size()];
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = expression(call.getArguments().get(i));
+            }
+            set(flat, symbol(call.getFunctionName()), list(arguments), -1);
+            return flat;
+        }
+        throw new RuntimeException("Unknown expression node: " + node);
+    }
+
+    // ---- Decoding ----
+
+    // Rebuilds the node objects for a subtree. Only the samantar verifier needs them, and only the
+    // first time a loop runs.
+    public ASTNode toTree(int node) {
+        int a = first[node];
+        int b = second[node];
+        int c = third[node];
+        switch (kinds[node]) {
+            case BLOCK:
+                return new BlockNode(trees(a, 0));
+            case IF:
+                return new IfStatementNode(toTree(a), toTree(b), c >= 0 ? toTree(c) : null);
+            case VAR_DECL:
+                return new VariableDeclarationNode(symbolTable[a], toTree(b));
+            case ASSIGN:
+                return new AssignmentNode(symbolTable[a], toTree(b));
+            case ARRAY_ASSIGN:
+                return new ArrayAssignmentNode(symbolTable[a], toTree(b), toTree(c));
+            case PRINT:
+                return new PrintStatementNode(toTree(a));
+            case WHILE:
+                return new WhileLoopNode(toTree(a), toTree(b));
+            case FOR:
+                return new ForLoopNode(toTree(a), toTree(b), toTree(lists[c + 1]), toTree(lists[c + 2]));
+            case PARALLEL_FOR:
+                return new ParallelForNode(symbolTable[a], toTree(lists[b + 1]), toTree(lists[b + 2]), names(b, 3), toTree(lists[b + 3]));
+            case FUNCTION_DECL:
+                return new FunctionDeclarationNode(symbolTable[a], names(b, 0), toTree(c));
+            case RETURN:
+                return new ReturnNode(toTree(a));
+            case CALL:
+                return new FunctionCallNode(symbolTable[a], trees(b, 0));
+            case STRING:
+                return new StringNode(constantTable[a]);
+            case NUMBER:
+                return new NumberNode(Integer.toString(a));
+            case VARIABLE:
+                return new VariableNode(symbolTable[a]);
+            case ARRAY_ACCESS:
+                return new ArrayAccessNode(symbolTable[a], toTree(b));
+            case ARRAY_LITERAL:
+                return new ArrayLiteralNode(trees(a, 0));
+            case BAD_CONDITION:
+                return new ConditionNode(toTree(a), constantTable[c], toTree(b));
+            case FAIL:
+                return new NumberNode("0");  // Raises its error when evaluated, which verification never does
+            case FOR_EACH:
+                return new ForEachNode(symbolTable[a], toTree(b), toTree(c));
+            default:
+                int kind = kinds[node];
+                if (kind >= LESS) {
+                    return new ConditionNode(toTree(a), CONDITION_OPERATORS[kind - LESS], toTree(b));
+                }
+                return new BinaryOperationNode(toTree(a), BINARY_OPERATORS[kind - ADD], toTree(b));
+        }
+    }
+
+    private List<ASTNode> trees(int list, int skip) {
+        List<ASTNode> trees = new ArrayList<>();
+        for (int i = list + 1 + skip; i <= list + lists[list]; i++) {
+            trees.add(toTree(lists[i]));
+        }
+        return trees;
+    }
+
+    private List<String> names(int list, int skip) {
+        List<String> names = new ArrayList<>();
+        for (int i = list + 1 + skip; i <= list + lists[list]; i++) {
+            names.add(symbolTable[lists[i]]);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,153 @@
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Compares the node-object AST with MarathiFlatAst: heap retained per node, measured by keeping many
+// parsed copies of each script alive, and run time of MarathiInterpreter against MarathiFlatInterpreter
+// and the stackless MarathiMachine. Also checks that all three print the same thing. Exits with status 1
+// if any script differs.
+// Usage: java MarathiFlatBench [--runs N] [--copies N] <file|directory|glob>...
+public class MarathiFlatBench {
+    private static final String USAGE = "Usage: java MarathiFlatBench [--runs N] [--copies N] <file|directory|glob>...";
+
+    public static void main(String[] args) throws IOException {
+        int runs = 5;
+        int copies = 0;  // 0 keeps about half a million nodes alive per measurement
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--runs":
+                    runs = Integer.parseInt(MarathiBatchRunner.optionValue(args, ++i, USAGE));
+                    break;
+                case "--copies":
+                    copies = Integer.parseInt(MarathiBatchRunner.optionValue(args, ++i, USAGE));
+                    break;
+                default:
+                    inputs.add(args[i]);
+            }
+        }
+        if (inputs.isEmpty()) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        boolean allMatch = true;
+        System.out.printf("%-36s %7s %11s %11s %14s %14s %9s %14s  %s%n", "script", "nodes", "tree B/node", "flat B/node",
+                "tree ms", "flat ms", "speedup", "machine ms", "output");
+        for (Path script : MarathiBatchRunner.collectScripts(inputs)) {
+            String source = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+            ASTNode tree;
+            MarathiFlatAst flat;
+            try {
+                tree = parse(source);
+                flat = MarathiFlatAst.flatten(tree);
+            } catch (RuntimeException e) {
+                System.out.printf("%-36s skipped: %s%n", script, e.getMessage());
+                continue;
+            }
+
+            int nodes = flat.getNodeCount();
+            int kept = copies > 0 ? copies : Math.max(10, 500_000 / nodes);
+            double treeBytes = retainedBytes(source, kept, false) / (double) nodes;
+            double flatBytes = retainedBytes(source, kept, true) / (double) nodes;
+
+            String treeOutput = null;
+            String flatOutput = null;
+            String machineOutput = null;
+            long[] treeNanos = new long[runs];
+            long[] flatNanos = new long[runs];
+            long[] machineNanos = new long[runs];
+            for (int r = -1; r < runs; r++) {  // Run -1 warms up all three
+                long start = System.nanoTime();
+                treeOutput = runTree(tree);
+                long middle = System.nanoTime();
+                flatOutput = runFlat(flat);
+                long flatEnd = System.nanoTime();
+                machineOutput = runMachine(flat);
+                long end = System.nanoTime();
+                if (r >= 0) {
+                    treeNanos[r] = middle - start;
+                    flatNanos[r] = flatEnd - middle;
+                    machineNanos[r] = end - flatEnd;
+                }
+            }
+            double treeMillis = median(treeNanos) / 1_000_000.0;
+            double flatMillis = median(flatNanos) / 1_000_000.0;
+            double machineMillis = median(machineNanos) / 1_000_000.0;
+            boolean same = treeOutput.equals(flatOutput) && treeOutput.equals(machineOutput);
+            allMatch &= same;
+            System.out.printf("%-36s %7d %11.1f %11.1f %14.2f %14.2f %8.1fx %14.2f  %s%n", script, nodes, treeBytes, flatBytes,
+                    treeMillis, flatMillis, treeMillis / flatMillis, machineMillis, same ? "same" : "DIFFERENT");
+        }
+        System.exit(allMatch ? 0 : 1);
+    }
+
+    private static ASTNode parse(String source) {
+        MarathiTokenizer tokenizer = new MarathiTokenizer(source);
+        tokenizer.setDebug(false);
+        return new MarathiParser(tokenizer.tokenize()).parse();
+    }
+
+    // Heap still in use after parsing the script copies times, per copy. The flat copies keep only
+    // the encoding, as a program that flattens its scripts would.
+    private static long retainedBytes(String source, int copies, boolean flatten) {
+        Object[] kept = new Object[copies];
+        long before = usedAfterGc();
+        for (int i = 0; i < copies; i++) {
+            ASTNode tree = parse(source);
+            kept[i] = flatten ? MarathiFlatAst.flatten(tree) : tree;
+        }
+        long after = usedAfterGc();
+        Reference.reachabilityFence(kept);
+        return (after - before) / copies;
+    }
+
+    private static long usedAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String runTree(ASTNode tree) {
+        MarathiInterpreter interpreter = new MarathiInterpreter();
+        try {
+            interpreter.interpret(tree);
+            return interpreter.getOutput();
+        } catch (RuntimeException | StackOverflowError e) {
+            return interpreter.getOutput() + "Error: " + (e.getMessage() != null ? e.getMessage() : e.toString()) + "\n";
+        }
+    }
+
+    private static String runFlat(MarathiFlatAst flat) {
+        MarathiFlatInterpreter interpreter = new MarathiFlatInterpreter();
+        try {
+            interpreter.interpret(flat);
+            return interpreter.getOutput();
+        } catch (RuntimeException | StackOverflowError e) {
+            return interpreter.getOutput() + "Error: " + (e.getMessage() != null ? e.getMessage() : e.toString()) + "\n";
+        }
+    }
+
+    private static String runMachine(MarathiFlatAst flat) {
+        MarathiMachine machine = new MarathiMachine();
+        try {
+            machine.interpret(flat);
+            return machine.getOutput();
+        } catch (RuntimeException e) {
+            return machine.getOutput() + "Error: " + (e.getMessage() != null ? e.getMessage() : e.toString()) + "\n";
+        }
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,472 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Runs a MarathiFlatAst with the same semantics and error messages as MarathiInterpreter. Instead of a
+// HashMap keyed by name, the current value of every variable sits in an array indexed by its symbol,
+// karya are looked up the same way, and the undo log of writes inside karya calls holds symbol numbers.
+// samantar iterations run one after another on a snapshot of the variables; the loop is verified by
+// MarathiInterpreter's checks first, and those make the result the same as running them in parallel.
+public class MarathiFlatInterpreter {
+    private static final int PUBLISH_INTERVAL = 1024;  // Statements between stores other threads are sure to see
+    private static final VarHandle STATEMENT_COUNT;
+
+    static {
+        try {
+            STATEMENT_COUNT = MethodHandles.lookup().findVarHandle(MarathiFlatInterpreter.class, "statementCount", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private MarathiFlatAst program;
+    private byte[] kinds;
+    private int[] first;
+    private int[] second;
+    private int[] third;
+    private int[] lists;
+    private String[] symbols;
+    private String[] constants;
+
+    private Object[] values;  // Current value of each symbol, null while it is unbound
+    private int[] functions;  // FUNCTION_DECL node declared under each symbol, or -1
+    private MethodHandle[] builtins;  // Intrinsic each CALL node linked to while no karya had its name
+    private long[] verifiedLoops;  // For each PARALLEL_FOR node, karyaDeclarations + 1 when it last passed the samantar checks
+    private long karyaDeclarations;  // The checks depend on the karya, so a check made before a declaration is redone
+    private int[][] loopAliases;  // For each checked PARALLEL_FOR node: written count, shared count, then the symbols of the alias check
+    private int[] undoSymbols = new int[64];  // Undo log of variable writes made inside karya calls
+    private Object[] undoValues = new Object[64];
+    private int undoSize;
+    private int[] seenStamps;  // Used while compacting the undo log, instead of a set
+    private int stamp;
+    private int callDepth;
+    private int frameMark;  // Start of the current call's entries in the undo log
+    private int frameUndoLimit;  // Log size that triggers compaction of the current call's entries
+    private int parallelDepth;  // samantar loops being run
+    private final List<String> loopOutput = new ArrayList<>();  // Printed inside samantar; emitted once the loop completes
+    private Object returnValue;  // Set by parat while execute unwinds to the call
+
+    private StringBuilder outputBuffer = new StringBuilder();
+    private Consumer<String> outputListener;  // Receives each chapa line as it is printed
+    private volatile boolean cancelled;
+    private long statementCount;  // Written only by the executing thread; see getStatementCount
+
+    public String getOutput() {
+        return outputBuffer.toString();
+    }
+
+    public void setOutputListener(Consumer<String> outputListener) {
+        this.outputListener = outputListener;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Exact once the run has finished. While it runs, another thread sees the count as of the last
+    // PUBLISH_INTERVAL statements: the counter is a plain field, so counting costs no fence per statement.
+    public long getStatementCount() {
+        return (long) STATEMENT_COUNT.getOpaque(this);
+    }
+
+    public void interpret(MarathiFlatAst program) {
+        this.program = program;
+        kinds = program.getKinds();
+        first = program.getFirst();
+        second = program.getSecond();
+        third = program.getThird();
+        lists = program.getLists();
+        symbols = program.getSymbols();
+        constants = program.getConstants();
+        values = new Object[symbols.length];
+        functions = new int[symbols.length];
+        Arrays.fill(functions, -1);
+        seenStamps = new int[symbols.length];
+        builtins = new MethodHandle[kinds.length];
+        verifiedLoops = new long[kinds.length];
+        loopAliases = new int[kinds.length][];
+
+        if (execute(program.getRoot())) {
+            throw new RuntimeException("parat is only allowed inside a karya");
+        }
+    }
+
+    // Runs a statement; returns true when a parat was executed and the current karya should return returnValue
+    private boolean execute(int node) {
+        if (cancelled) {
+            throw new ExecutionCancelledException();
+        }
+        if ((++statementCount & (PUBLISH_INTERVAL - 1)) == 0) {
+            STATEMENT_COUNT.setOpaque(this, statementCount);
+        }
+
+        int a = first[node];
+        switch (kinds[node]) {
+            case MarathiFlatAst.BLOCK:
+                for (int i = a + 1, end = a + 1 + lists[a]; i < end; i++) {
+                    if (execute(lists[i])) {
+                        return true;
+                    }
+                }
+                return false;
+            case MarathiFlatAst.IF:
+                if (condition(a)) {
+                    return execute(second[node]);
+                }
+                return third[node] >= 0 && execute(third[node]);
+            case MarathiFlatAst.VAR_DECL:
+                store(a, MarathiOps.declared(evaluate(second[node]), symbols[a]));
+                return false;
+            case MarathiFlatAst.ASSIGN:
+                store(a, MarathiOps.assigned(evaluate(second[node])));
+                return false;
+            case MarathiFlatAst.ARRAY_ASSIGN: {
+                Object container = MarathiOps.container(values[a], symbols[a]);
+                if (container instanceof MarathiMap) {
+                    Object key = evaluate(second[node]);
+                    MarathiOps.set(container, key, evaluate(third[node]), symbols[a], parallelDepth > 0);
+                    return false;
+                }
+                int[] array = (int[]) container;
+                int index = MarathiOps.index(array, evaluate(second[node]), symbols[a]);
+                array[index] = MarathiOps.element(evaluate(third[node]));
+                return false;
+            }
+            case MarathiFlatAst.PRINT:
+                emit(MarathiValues.format(evaluate(a)));
+                return false;
+            case MarathiFlatAst.WHILE:
+                while (condition(a)) {
+                    if (execute(second[node])) {
+                        return true;
+                    }
+                }
+                return false;
+            case MarathiFlatAst.FOR: {
+                int increment = lists[third[node] + 1];
+                int body = lists[third[node] + 2];
+                execute(a);
+                while (condition(second[node])) {
+                    if (execute(body)) {
+                        return true;
+                    }
+                    execute(increment);
+                }
+                return false;
+            }
+            case MarathiFlatAst.PARALLEL_FOR:
+                executeParallelFor(node);
+                return false;
+            case MarathiFlatAst.FOR_EACH: {
+                MarathiMap map = MarathiOps.map(evaluate(second[node]));
+                for (int entry = 0, end = map.size(); entry < end; entry++) {
+                    store(a, map.key(entry));
+                    if (execute(third[node])) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            case MarathiFlatAst.FUNCTION_DECL:
+                if (parallelDepth > 0) {
+                    throw new RuntimeException("karya '" + symbols[a] + "' cannot be declared inside a samantar loop");
+                }
+                functions[a] = node;
+                karyaDeclarations++;
+                return false;
+            case MarathiFlatAst.CALL:
+                evaluateCall(node);
+                return false;
+            case MarathiFlatAst.RETURN:
+                returnValue = evaluate(a);
+                return true;
+            default:
+                throw new RuntimeException("Unexpected AST node kind: " + kinds[node]);
+        }
+    }
+
+    private Object evaluate(int node) {
+        int a = first[node];
+        switch (kinds[node]) {
+            case MarathiFlatAst.ADD:
+                return MarathiOps.add(evaluate(a), evaluate(second[node]));
+            case MarathiFlatAst.SUBTRACT:
+                return MarathiOps.subtract(evaluate(a), evaluate(second[node]));
+            case MarathiFlatAst.MULTIPLY:
+                return MarathiOps.multiply(evaluate(a), evaluate(second[node]));
+            case MarathiFlatAst.DIVIDE:
+                return MarathiOps.divide(evaluate(a), evaluate(second[node]));
+            case MarathiFlatAst.REMAINDER:
+                return MarathiOps.remainder(evaluate(a), evaluate(second[node]));
+            case MarathiFlatAst.STRING:
+                return constants[a];
+            case MarathiFlatAst.NUMBER:
+                return a;
+            case MarathiFlatAst.VARIABLE:
+                return MarathiOps.read(values[a], symbols[a]);
+            case MarathiFlatAst.ARRAY_ACCESS:
+                return MarathiOps.get(MarathiOps.container(values[a], symbols[a]), evaluate(second[node]), symbols[a]);
+            case MarathiFlatAst.ARRAY_LITERAL: {
+                int[] array = new int[lists[a]];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = MarathiOps.element(evaluate(lists[a + 1 + i]));
+                }
+                return array;
+            }
+            case MarathiFlatAst.CALL:
+                return evaluateCall(node);
+            case MarathiFlatAst.FAIL:
+                throw new RuntimeException(constants[a]);
+            default:
+                throw new RuntimeException("Unknown expression node kind: " + kinds[node]);
+        }
+    }
+
+    private boolean condition(int node) {
+        int comparison = MarathiOps.compare(evaluate(first[node]), evaluate(second[node]));
+        switch (kinds[node]) {
+            case MarathiFlatAst.LESS: return comparison < 0;
+            case MarathiFlatAst.GREATER: return comparison > 0;
+            case MarathiFlatAst.LESS_EQUAL: return comparison <= 0;
+            case MarathiFlatAst.GREATER_EQUAL: return comparison >= 0;
+            case MarathiFlatAst.EQUAL: return comparison == 0;
+            case MarathiFlatAst.NOT_EQUAL: return comparison != 0;
+            default: throw new RuntimeException("Unknown operator: " + constants[third[node]]);
+        }
+    }
+
+    // A call goes to the karya declared under its name, or to the intrinsic of that name when there is none
+    private Object evaluateCall(int node) {
+        int symbol = first[node];
+        int arguments = second[node];
+        int function = functions[symbol];
+        if (function >= 0) {
+            if (lists[second[function]] != lists[arguments]) {
+                throw new RuntimeException("Argument count mismatch for function: " + symbols[symbol]);
+            }
+            return invokeFunction(function, arguments);
+        }
+        MethodHandle builtin = builtins[node];
+        if (builtin == null) {
+            builtin = MarathiBuiltins.lookup(symbols[symbol], lists[arguments]);
+            if (builtin == null) {
+                throw new RuntimeException("Function not defined: " + symbols[symbol]);
+            }
+            builtins[node] = builtin;
+        }
+        return invokeBuiltin(builtin, arguments);
+    }
+
+    private Object invokeFunction(int function, int arguments) {
+        // Evaluate every argument before binding any parameter, so arguments see the caller's values
+        Object[] argumentValues = new Object[lists[arguments]];
+        for (int i = 0; i < argumentValues.length; i++) {
+            argumentValues[i] = evaluate(lists[arguments + 1 + i]);
+        }
+
+        int parameters = second[function];
+        int callerFrameMark = frameMark;
+        int callerFrameUndoLimit = frameUndoLimit;
+        frameMark = undoSize;
+        frameUndoLimit = 16;
+        callDepth++;
+        try {
+            for (int i = 0; i < argumentValues.length; i++) {
+                store(lists[parameters + 1 + i], argumentValues[i]);
+            }
+            if (execute(third[function])) {
+                Object result = returnValue;
+                returnValue = null;
+                return result;
+            }
+            return null;
+        } finally {
+            restoreVariables(frameMark);
+            callDepth--;
+            frameMark = callerFrameMark;
+            frameUndoLimit = callerFrameUndoLimit;
+        }
+    }
+
+    private Object invokeBuiltin(MethodHandle builtin, int arguments) {
+        try {
+            switch (lists[arguments]) {
+                case 0:
+                    return (Object) builtin.invokeExact();
+                case 1:
+                    return (Object) builtin.invokeExact(evaluate(lists[arguments + 1]));
+                case 2:
+                    return (Object) builtin.invokeExact(evaluate(lists[arguments + 1]), evaluate(lists[arguments + 2]));
+                default:
+                    Object[] argumentValues = new Object[lists[arguments]];
+                    for (int i = 0; i < argumentValues.length; i++) {
+                        argumentValues[i] = evaluate(lists[arguments + 1 + i]);
+                    }
+                    return builtin.invokeWithArguments(argumentValues);
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    // Inside a karya every write is logged with the value it replaced and rolled back on return, as in MarathiInterpreter
+    private void store(int symbol, Object value) {
+        Object previous = values[symbol];
+        values[symbol] = value;
+        if (callDepth > 0) {
+            if (undoSize == undoSymbols.length) {
+                undoSymbols = Arrays.copyOf(undoSymbols, undoSize * 2);
+                undoValues = Arrays.copyOf(undoValues, undoSize * 2);
+            }
+            undoSymbols[undoSize] = symbol;
+            undoValues[undoSize] = previous;
+            undoSize++;
+            if (undoSize - frameMark > frameUndoLimit) {
+                compactUndoLog();
+            }
+        }
+    }
+
+    // Keeps only the first write of each variable in the current frame
+    private void compactUndoLog() {
+        stamp++;
+        int kept = frameMark;
+        for (int i = frameMark; i < undoSize; i++) {
+            int symbol = undoSymbols[i];
+            if (seenStamps[symbol] != stamp) {
+                seenStamps[symbol] = stamp;
+                undoSymbols[kept] = symbol;
+                undoValues[kept] = undoValues[i];
+                kept++;
+            }
+        }
+        Arrays.fill(undoValues, kept, undoSize, null);
+        undoSize = kept;
+        frameUndoLimit = 2 * (kept - frameMark) + 16;
+    }
+
+    private void restoreVariables(int mark) {
+        for (int i = undoSize - 1; i >= mark; i--) {
+            values[undoSymbols[i]] = undoValues[i];
+            undoValues[i] = null;
+        }
+        undoSize = mark;
+    }
+
+    // MarathiInterpreter runs each range of iterations on a copy of the variables, with the reductions
+    // starting at 0, and adds the partial sums back. Running every iteration on one snapshot and then
+    // restoring the variables gives the same result, since the checks only let iterations share arrays
+    // they write at their own index.
+    private void executeParallelFor(int node) {
+        int index = first[node];
+        int loop = second[node];
+        int reductionCount = lists[loop] - 3;
+        if (verifiedLoops[node] != karyaDeclarations + 1) {
+            verifyParallelLoop(node);
+            verifiedLoops[node] = karyaDeclarations + 1;
+        }
+        checkLoopAliases(node);
+        for (int i = 0; i < reductionCount; i++) {
+            int reduction = lists[loop + 4 + i];
+            MarathiOps.checkReduction(values[reduction], symbols[reduction]);
+        }
+
+        int start = MarathiOps.loopBound(evaluate(lists[loop + 1]));
+        int end = MarathiOps.loopBound(evaluate(lists[loop + 2]));
+        if (start >= end) {
+            return;
+        }
+
+        Object[] saved = values.clone();
+        int savedCallDepth = callDepth;
+        int[] partials = new int[reductionCount];
+        callDepth = 0;  // A samantar frame is a fresh interpreter, so its own writes are not logged
+        parallelDepth++;
+        try {
+            for (int i = 0; i < reductionCount; i++) {
+                values[lists[loop + 4 + i]] = 0;
+            }
+            for (int i = start; i < end; i++) {
+                values[index] = i;
+                execute(lists[loop + 3]);
+            }
+            for (int i = 0; i < reductionCount; i++) {
+                partials[i] = (Integer) values[lists[loop + 4 + i]];
+            }
+        } finally {
+            System.arraycopy(saved, 0, values, 0, values.length);
+            callDepth = savedCallDepth;
+            parallelDepth--;
+        }
+
+        if (parallelDepth == 0) {
+            for (String line : loopOutput) {
+                emit(line);
+            }
+            loopOutput.clear();
+        }
+        for (int i = 0; i < reductionCount; i++) {
+            int reduction = lists[loop + 4 + i];
+            store(reduction, (Integer) values[reduction] + partials[i]);
+        }
+    }
+
+    // Runs MarathiInterpreter's checks on the loop, rebuilt as nodes, against the karya declared now
+    private void verifyParallelLoop(int node) {
+        MarathiInterpreter checker = new MarathiInterpreter();
+        for (int function : functions) {
+            if (function >= 0) {
+                checker.interpret(program.toTree(function));  // Only registers the karya
+            }
+        }
+        MarathiInterpreter.ParallelLoopCheck check = checker.checkParallelLoop((ParallelForNode) program.toTree(node));
+        String[] names = check.getAliasNames();
+        if (names == null) {
+            loopAliases[node] = null;
+            return;
+        }
+        List<String> symbolNames = Arrays.asList(symbols);
+        int[] aliases = new int[names.length + 2];
+        aliases[0] = check.getWrittenCount();
+        aliases[1] = check.getSharedCount();
+        for (int i = 0; i < names.length; i++) {
+            aliases[i + 2] = symbolNames.indexOf(names[i]);
+        }
+        loopAliases[node] = aliases;
+    }
+
+    private void checkLoopAliases(int node) {
+        int[] aliases = loopAliases[node];
+        if (aliases == null) {
+            return;
+        }
+        String[] names = new String[aliases.length - 2];
+        Object[] aliasValues = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = symbols[aliases[i + 2]];
+            aliasValues[i] = values[aliases[i + 2]];
+        }
+        MarathiOps.checkLoopAliases(symbols[first[node]], names, aliasValues, aliases[0], aliases[1]);
+    }
+
+    private void emit(String message) {
+        if (parallelDepth > 0) {
+            loopOutput.add(message);
+            return;
+        }
+        outputBuffer.append(message).append("\n");
+        if (outputListener != null) {
+            outputListener.accept(message);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Line-oriented lexer used for syntax highlighting in the editor.
+// It remembers the lexer state at the start of every line, so after an edit only the
+// damaged lines are re-lexed, stopping as soon as the state matches what was stored before.
+public class MarathiHighlightLexer {
+    public static final int STATE_NORMAL = 0;
+    public static final int STATE_IN_STRING = 1;  // Inside a string literal that continues on the next line
+    private static final int STATE_UNKNOWN = -1;
+
+    // A highlighted range inside one line, relative to the start of that line
+    public static class Span {
+        private final int start;
+        private final int length;
+        private final String kind;  // KEYWORD, STRING, NUMBER or COMMENT
+
+        public Span(int start, int length, String kind) {
+            this.start = start;
+            this.length = length;
+            this.kind = kind;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+    }
+
+    // Supplies the text of a line; implemented by the editor on top of its document
+    public interface LineSource {
+        int getLineCount();
+
+        CharSequence getLine(int line);
+    }
+
+    // Receives the spans of every line that was re-lexed
+    public interface LineListener {
+        void lineLexed(int line, List<Span> spans);
+    }
+
+    // The state at the start of every line, lineCount + 1 entries, kept in a gap buffer: the unused room sits
+    // between gapStart and gapEnd, and is moved to where lines are added or removed. Edits come where the user
+    // is typing, so the gap moves only as far as the cursor did, and adding or removing lines at the gap is a
+    // fill or a pointer move rather than a shift of every line below.
+    private int[] lineStates = new int[64];
+    private int gapStart;
+    private int gapEnd = lineStates.length;
+
+    public MarathiHighlightLexer() {
+        insertStates(0, 1, STATE_NORMAL);  // An empty document has one line
+        insertStates(1, 1, STATE_UNKNOWN);
+    }
+
+    // Keeps the per-line states aligned with the document after lines were added (delta > 0)
+    // or removed (delta < 0) right after the given line.
+    public void linesChanged(int line, int delta) {
+        if (delta > 0) {
+            insertStates(line + 1, delta, STATE_UNKNOWN);
+        } else if (delta < 0) {
+            moveGap(line + 1);
+            gapEnd -= delta;
+        }
+    }
+
+    // Re-lexes from firstLine onwards. Lines up to lastDamagedLine are always re-lexed; after
+    // that, lexing stops at the first line whose end state matches the stored state.
+    // Returns the last line that was re-lexed.
+    public int relex(LineSource source, int firstLine, int lastDamagedLine, LineListener listener) {
+        int lineCount = source.getLineCount();
+        List<Span> spans = new ArrayList<>();
+        int line = firstLine;
+        int state = stateAt(line);
+        while (line < lineCount) {
+            spans.clear();
+            int endState = lexLine(source.getLine(line), state, spans);
+            listener.lineLexed(line, spans);
+            boolean synced = stateAt(line + 1) == endState;
+            setStateAt(line + 1, endState);
+            if (synced && line >= lastDamagedLine) {
+                break;
+            }
+            state = endState;
+            line++;
+        }
+        return Math.min(line, lineCount - 1);
+    }
+
+    private int stateAt(int line) {
+        return lineStates[line < gapStart ? line : line + gapEnd - gapStart];
+    }
+
+    private void setStateAt(int line, int state) {
+        lineStates[line < gapStart ? line : line + gapEnd - gapStart] = state;
+    }
+
+    private void insertStates(int line, int count, int state) {
+        moveGap(line);
+        if (gapEnd - gapStart < count) {
+            int[] grown = new int[Math.max(lineStates.length * 2, lineStates.length + count)];
+            int tail = lineStates.length - gapEnd;
+            System.arraycopy(lineStates, 0, grown, 0, gapStart);
+            System.arraycopy(lineStates, gapEnd, grown, grown.length - tail, tail);
+            lineStates = grown;
+            gapEnd = grown.length - tail;
+        }
+        Arrays.fill(lineStates, gapStart, gapStart + count, state);
+        gapStart += count;
+    }
+
+    private void moveGap(int line) {
+        int gap = gapEnd - gapStart;
+        if (line < gapStart) {
+            System.arraycopy(lineStates, line, lineStates, line + gap, gapStart - line);
+        } else if (line > gapStart) {
+            System.arraycopy(lineStates, gapEnd, lineStates, gapStart, line - gapStart);
+        }
+        gapStart = line;
+        gapEnd = line + gap;
+    }
+
+    // Lexes a single line starting in the given state and returns the state at its end
+    public int lexLine(CharSequence text, int state, List<Span> spans) {
+        int length = text.length();
+        int position = 0;
+
+        if (state == STATE_IN_STRING) {
+            int close = indexOf(text, '"', 0);
+            if (close < 0) {
+                spans.add(new Span(0, length, "STRING"));
+                return STATE_IN_STRING;
+            }
+            spans.add(new Span(0, close + 1, "STRING"));
+            position = close + 1;
+        }
+
+        while (position < length) {
+            char c = text.charAt(position);
+            if (c == '"') {
+                int close = indexOf(text, '"', position + 1);
+                if (close < 0) {
+                    spans.add(new Span(position, length - position, "STRING"));
+                    return STATE_IN_STRING;
+                }
+                spans.add(new Span(position, close + 1 - position, "STRING"));
+                position = close + 1;
+            } else if (c == '/' && position + 1 < length && text.charAt(position + 1) == '/') {
+                spans.add(new Span(position, length - position, "COMMENT"));
+                return STATE_NORMAL;
+            } else if (MarathiKeywords.isDigit(c)) {
+                int start = position;
+                while (position < length && MarathiKeywords.isDigit(text.charAt(position))) {
+                    position++;
+                }
+                spans.add(new Span(start, position - start, "NUMBER"));
+            } else if (MarathiKeywords.isIdentifierStart(c)) {
+                int keyword = MarathiKeywords.match(text, position);
+                if (keyword >= 0) {
+                    spans.add(new Span(position, MarathiKeywords.length(keyword), "KEYWORD"));
+                    position += MarathiKeywords.length(keyword);
+                } else {
+                    while (position < length && MarathiKeywords.isIdentifierPart(text.charAt(position))) {
+                        position++;
+                    }
+                }
+            } else {
+                position++;
+            }
+        }
+        return STATE_NORMAL;
+    }
+
+    private static int indexOf(CharSequence text, char c, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
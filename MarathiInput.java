@@ -0,0 +1,299 @@
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// An input a script reads with the ughad, ol, ank, vaach, ant and band intrinsics, named by an integer handle.
+// Handle 0 is standard input; ughad opens files as handles 1, 2 and so on. A regular file, or standard input
+// redirected from one, is memory-mapped a window at a time; anything else, such as a pipe, is read through a
+// channel into a reused buffer. Numbers are parsed straight from the bytes, so ank and vaach allocate nothing
+// per number. The handles are shared by every script in the JVM, and each input is used by one reader at a time.
+// A thread can give the scripts it runs their own handles with beginOwnHandles, as MarathiServer does for each
+// request: their own standard input, and files they open that no other thread sees and that endOwnHandles closes.
+public final class MarathiInput {
+    private static final int MAP_WINDOW = 1 << 26;  // Bytes of a file mapped at once
+    private static final int READ_BUFFER = 1 << 16;
+    private static final ConcurrentHashMap<Integer, MarathiInput> OPEN = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_HANDLE = new AtomicInteger(1);
+    private static final ThreadLocal<OwnHandles> OWN_HANDLES = new ThreadLocal<>();  // Replace the shared table on their thread
+
+    private final FileChannel channel;
+    private final boolean mapped;
+    private long position;  // Channel position the next window is mapped from
+    private final long end;  // Size of a mapped file
+    private ByteBuffer buffer;  // Bytes not yet consumed are between its position and limit
+    private boolean exhausted;  // The channel has no more bytes; the buffer may still hold some
+    private byte[] line = new byte[256];  // Reused for the bytes of each line ol reads
+    private boolean closed;  // Only set on a thread's own standard input, which is never in a table of open handles
+
+    // The handles of the scripts a thread runs between beginOwnHandles and endOwnHandles
+    private static final class OwnHandles {
+        final MarathiInput standardInput;  // Null to read the process's
+        final HashMap<Integer, MarathiInput> open = new HashMap<>();
+
+        OwnHandles(MarathiInput standardInput) {
+            this.standardInput = standardInput;
+        }
+    }
+
+    private MarathiInput(FileChannel channel) throws IOException {
+        this.channel = channel;
+        long size = 0;
+        long start = 0;
+        try {
+            size = channel.size();  // Zero for a terminal, and for a pipe on most systems
+            start = channel.position();
+        } catch (IOException e) {
+            // Not a file; read it as a stream
+        }
+        this.mapped = size > 0 && start <= size;
+        this.position = start;
+        this.end = size;
+        this.buffer = ByteBuffer.allocate(mapped ? 0 : READ_BUFFER).limit(0);
+    }
+
+    // An input over bytes already in memory
+    private MarathiInput(byte[] bytes) {
+        this.channel = null;
+        this.mapped = false;
+        this.end = 0;
+        this.buffer = ByteBuffer.wrap(bytes);
+        this.exhausted = true;
+    }
+
+    // Gives scripts run on the calling thread a table of handles of their own, with bytes as their standard
+    // input in place of the process's unless it is null
+    public static void beginOwnHandles(byte[] standardInput) {
+        OWN_HANDLES.set(new OwnHandles(standardInput == null ? null : new MarathiInput(standardInput)));
+    }
+
+    // Closes every file the calling thread's scripts left open since beginOwnHandles, and goes back to the shared handles
+    public static void endOwnHandles() {
+        OwnHandles own = OWN_HANDLES.get();
+        OWN_HANDLES.remove();
+        if (own != null) {
+            for (MarathiInput input : own.open.values()) {
+                input.closeChannel();
+            }
+        }
+    }
+
+    // Opens a file for reading and returns its handle
+    public static int open(String path) {
+        Path file = Paths.get(path);
+        MarathiInput input;
+        try {
+            input = new MarathiInput(FileChannel.open(file, StandardOpenOption.READ));
+        } catch (NoSuchFileException e) {
+            throw new RuntimeException("ughad cannot find file: " + path);
+        } catch (IOException e) {
+            throw new RuntimeException("ughad cannot open " + path + ": " + e.getMessage());
+        }
+        int handle = NEXT_HANDLE.getAndIncrement();
+        OwnHandles own = OWN_HANDLES.get();
+        if (own != null) {
+            own.open.put(handle, input);
+        } else {
+            OPEN.put(handle, input);
+        }
+        return handle;
+    }
+
+    // The open input with this handle; standard input is opened on first use
+    public static MarathiInput get(String functionName, int handle) {
+        OwnHandles own = OWN_HANDLES.get();
+        MarathiInput input;
+        if (own != null && handle == 0 && own.standardInput != null) {
+            input = own.standardInput.closed ? null : own.standardInput;
+        } else if (own != null && handle != 0) {
+            input = own.open.get(handle);
+        } else {
+            input = OPEN.get(handle);
+        }
+        if (input == null && handle == 0 && (own == null || own.standardInput == null)) {
+            input = OPEN.computeIfAbsent(0, zero -> {
+                try {
+                    return new MarathiInput(new FileInputStream(FileDescriptor.in).getChannel());
+                } catch (IOException e) {
+                    throw new RuntimeException("Cannot read standard input: " + e.getMessage());
+                }
+            });
+        }
+        if (input == null) {
+            throw new RuntimeException(functionName + " was given a handle that is not open: " + handle);
+        }
+        return input;
+    }
+
+    public static void close(int handle) {
+        OwnHandles own = OWN_HANDLES.get();
+        MarathiInput input;
+        if (own != null && handle == 0 && own.standardInput != null) {
+            input = own.standardInput.closed ? null : own.standardInput;
+            if (input != null) {
+                input.closed = true;
+                return;
+            }
+        } else if (own != null && handle != 0) {
+            input = own.open.remove(handle);
+        } else {
+            input = OPEN.remove(handle);
+        }
+        if (input == null) {
+            throw new RuntimeException("band was given a handle that is not open: " + handle);
+        }
+        if (handle != 0) {  // Standard input stays open for the rest of the process
+            input.closeChannel();
+        }
+    }
+
+    private void closeChannel() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing more is read from it either way
+        }
+    }
+
+    // Whether every byte has been read
+    public synchronized boolean atEnd() {
+        return !buffer.hasRemaining() && !refill();
+    }
+
+    // The next line without its line break; a final line need not end with one
+    public synchronized String readLine() {
+        if (atEnd()) {
+            throw new RuntimeException("ol found no more lines in the input");
+        }
+        int length = 0;
+        while (buffer.hasRemaining() || refill()) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                break;
+            }
+            if (length == line.length) {
+                line = Arrays.copyOf(line, length * 2);
+            }
+            line[length++] = b;
+        }
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // The next integer, after any whitespace and commas. The separators after it are consumed too, so
+    // atEnd is true right after the last number of the input.
+    public synchronized int readInt() {
+        skipSeparators();
+        if (!buffer.hasRemaining()) {
+            throw new RuntimeException("ank found no more numbers in the input");
+        }
+        int value = parseInt();
+        skipSeparators();
+        return value;
+    }
+
+    // Reads numbers into array from the start, stopping when it is full or the input ends. Returns how many it read.
+    public synchronized int readInts(int[] array) {
+        int count = 0;
+        skipSeparators();
+        while (count < array.length && buffer.hasRemaining()) {
+            array[count++] = parseInt();
+            skipSeparators();
+        }
+        return count;
+    }
+
+    // Both loops scan the buffer by index and only store the position when they stop or reach its limit
+    private void skipSeparators() {
+        do {
+            int limit = buffer.limit();
+            for (int p = buffer.position(); p < limit; p++) {
+                byte b = buffer.get(p);
+                if (b != ' ' && b != ',' && (b < '\t' || b > '\r')) {
+                    buffer.position(p);
+                    return;
+                }
+            }
+            buffer.position(limit);
+        } while (refill());
+    }
+
+    // Parses an optionally negative decimal integer at the current position, which holds a byte
+    private int parseInt() {
+        boolean negative = buffer.get(buffer.position()) == '-';
+        if (negative) {
+            buffer.position(buffer.position() + 1);
+        }
+        long value = 0;
+        int digits = 0;
+        scan:
+        do {
+            int limit = buffer.limit();
+            for (int p = buffer.position(); p < limit; p++) {
+                int digit = buffer.get(p) - '0';
+                if (digit < 0 || digit > 9) {
+                    buffer.position(p);
+                    break scan;
+                }
+                value = value * 10 + digit;
+                if (value > Integer.MAX_VALUE + 1L) {
+                    throw new RuntimeException("ank found a number too large for an integer");
+                }
+                digits++;
+            }
+            buffer.position(limit);
+        } while (refill());
+        if (digits == 0) {
+            String found = buffer.hasRemaining() ? "'" + (char) (buffer.get(buffer.position()) & 0xff) + "'" : "the end of the input";
+            throw new RuntimeException("ank expects a number, found " + found);
+        }
+        if (!negative && value > Integer.MAX_VALUE) {
+            throw new RuntimeException("ank found a number too large for an integer");
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    // Makes more bytes available once the buffer is used up. Returns false at the end of the input.
+    private boolean refill() {
+        if (exhausted) {
+            return false;
+        }
+        try {
+            if (mapped) {
+                if (position >= end) {
+                    exhausted = true;
+                    return false;
+                }
+                long length = Math.min(MAP_WINDOW, end - position);
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                position += length;
+                return true;
+            }
+            buffer.clear();
+            int read;
+            do {
+                read = channel.read(buffer);
+            } while (read == 0);
+            buffer.flip();
+            if (read < 0) {
+                exhausted = true;
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read input: " + e.getMessage());
+        }
+    }
+}
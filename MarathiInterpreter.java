@@ -1,17 +1,152 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
 
 public class MarathiInterpreter {
-    private HashMap<String, Integer> variableStore = new HashMap<>();  // Variable store
-    private HashMap<String, FunctionDeclarationNode> functionStore = new HashMap<>();
+    private static final int PUBLISH_INTERVAL = 1024;  // Statements between stores other threads are sure to see
+    private static final VarHandle STATEMENT_COUNT;
+
+    static {
+        try {
+            STATEMENT_COUNT = MethodHandles.lookup().findVarHandle(MarathiInterpreter.class, "statementCount", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private HashMap<String, Object> variableStore = new HashMap<>();  // Variable store: Integer, String/MarathiRope, int[] or MarathiMap values
+    private ConcurrentHashMap<String, FunctionSlot> functionStore = new ConcurrentHashMap<>();  // Shared with samantar workers
+    private final ArrayList<String> undoNames = new ArrayList<>();  // Undo log of variable writes made inside karya calls
+    private final ArrayList<Object> undoValues = new ArrayList<>();
+    private int callDepth;
+    private int frameMark;  // Start of the current call's entries in the undo log
+    private int frameUndoLimit;  // Log size that triggers compaction of the current call's entries
     private StringBuilder outputBuffer = new StringBuilder();  // To store output
+    private Consumer<String> outputListener;  // Receives each chapa line as it is printed
+    private boolean outputCaptured = true;  // Whether chapa lines are also kept for getOutput
+    private volatile boolean cancelled;
+    private long statementCount;  // Written only by the executing thread; see getStatementCount
+    private final MarathiInterpreter root;  // Top-level interpreter; samantar workers and modules share its cancellation flag
+    private final boolean parallelFrame;  // Runs part of a samantar loop
+    private HashMap<String, MarathiInterpreter> imports = new HashMap<>();  // Imported modules by aayat alias
+    private Map<String, MarathiInterpreter> sharedImports;  // In a samantar frame: the modules it copies on first use
+    private HashMap<Path, MarathiInterpreter> modules = new HashMap<>();  // Every module this run imported, by file; null while one runs its top level
+    private MarathiInterpreter output = this;  // Where chapa lines go; a module prints through the script that runs it
+    private volatile MarathiScheduler.Task<?> task;  // Set while a MarathiScheduler runs this interpreter
+    private int sliceSteps;  // Safepoints left before the task offers its slot to another script
+
+    public MarathiInterpreter() {
+        this.root = this;
+        this.parallelFrame = false;
+    }
+
+    // Per-task frame for a samantar loop: a private copy of the parent's variables, sharing its functions.
+    // Modules the parent imported are copied the same way when the body first uses them.
+    private MarathiInterpreter(MarathiInterpreter parent) {
+        this.root = parent.root;
+        this.parallelFrame = true;
+        this.variableStore = new HashMap<>(parent.variableStore);
+        this.functionStore = parent.functionStore;
+        this.sharedImports = parent.visibleImports();
+    }
+
+    // Instance of a module imported by importer, with its own variables and karya
+    private MarathiInterpreter(MarathiInterpreter importer, HashMap<Path, MarathiInterpreter> modules) {
+        this.root = importer.root;
+        this.parallelFrame = false;
+        this.modules = modules;
+        this.output = importer.output;
+    }
 
     // Getter for the output buffer
     public String getOutput() {
         return outputBuffer.toString();
     }
 
+    // Streams every printed line to the listener in addition to the output buffer
+    public void setOutputListener(Consumer<String> outputListener) {
+        this.outputListener = outputListener;
+    }
+
+    // A caller that keeps the lines it gets from the listener can turn the buffer off, so a script that
+    // prints millions of lines isn't held in memory twice
+    public void setOutputCaptured(boolean outputCaptured) {
+        this.outputCaptured = outputCaptured;
+    }
+
+    // Requests cooperative cancellation; the running script stops at its next statement
+    public void cancel() {
+        cancelled = true;
+        MarathiScheduler.Task<?> scheduled = task;
+        if (scheduled != null) {
+            scheduled.expedite();  // A suspended script has to be resumed to stop
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Clears everything the last run left behind, so a pooled interpreter can run another script. The karya slots
+    // are kept with their declarations cleared: when the same script runs again and declares the same karya, the
+    // call sites it linked last time are still valid and don't have to be linked again.
+    public void reset() {
+        variableStore = new HashMap<>();
+        for (FunctionSlot slot : functionStore.values()) {
+            slot.setDeclaration(null);
+        }
+        undoNames.clear();
+        undoValues.clear();
+        callDepth = 0;
+        frameMark = 0;
+        frameUndoLimit = 0;
+        outputBuffer = new StringBuilder();
+        imports = new HashMap<>();
+        modules = new HashMap<>();
+        cancelled = false;
+        statementCount = 0;
+    }
+
+    // Exact once the run has finished. While it runs, another thread sees the count as of the last
+    // PUBLISH_INTERVAL statements: the counter is a plain field, so counting costs no fence per statement.
+    public long getStatementCount() {
+        return (long) STATEMENT_COUNT.getOpaque(this);
+    }
+
+    void attach(MarathiScheduler.Task<?> task, int sliceSteps) {
+        this.task = task;
+        this.sliceSteps = sliceSteps;
+    }
+
+    // Loop back-edges and karya calls are safepoints: a script run by MarathiScheduler may be suspended here
+    // once its slice is used up. samantar workers run on pool threads and never stop at one.
+    private void safepoint() {
+        MarathiInterpreter top = root;
+        if (top.task != null && !parallelFrame && --top.sliceSteps <= 0) {
+            top.sliceSteps = top.task.endSlice();
+        }
+    }
+
     public void interpret(ASTNode node) {
+        if (root.cancelled) {
+            throw new ExecutionCancelledException();
+        }
+        if ((++statementCount & (PUBLISH_INTERVAL - 1)) == 0) {
+            STATEMENT_COUNT.setOpaque(this, statementCount);
+        }
+
         if (node instanceof BlockNode) {
             interpretBlockNode((BlockNode) node);
         } else if (node instanceof IfStatementNode) {
@@ -22,10 +157,16 @@ public class MarathiInterpreter {
             interpretPrintStatementNode((PrintStatementNode) node);
         } else if (node instanceof AssignmentNode) {
             interpretAssignmentNode((AssignmentNode) node);
+        } else if (node instanceof ArrayAssignmentNode) {
+            interpretArrayAssignmentNode((ArrayAssignmentNode) node);
         } else if (node instanceof WhileLoopNode) {
             interpretWhileLoopNode((WhileLoopNode) node);
         } else if (node instanceof ForLoopNode) {
             interpretForLoopNode((ForLoopNode) node);
+        } else if (node instanceof ParallelForNode) {
+            interpretParallelForNode((ParallelForNode) node);
+        } else if (node instanceof ForEachNode) {
+            interpretForEachNode((ForEachNode) node);
         } else if (node instanceof FunctionDeclarationNode) {
             interpretFunctionDeclarationNode((FunctionDeclarationNode) node);
         } else if (node instanceof FunctionCallNode) {
@@ -33,6 +174,8 @@ public class MarathiInterpreter {
         } else if (node instanceof ReturnNode) {
             // Handle return by evaluating the return value
             throw new ReturnException(evaluateExpression(((ReturnNode) node).getReturnValue()));
+        } else if (node instanceof ImportNode) {
+            interpretImportNode((ImportNode) node);
         } else {
             throw new RuntimeException("Unexpected AST node type: " + node.getClass().getName());
         }
@@ -57,28 +200,43 @@ public class MarathiInterpreter {
         String variableName = varDeclNode.getVariableName();
         ASTNode valueNode = varDeclNode.getValue();
         Object evaluatedValue = evaluateExpression(valueNode);
-
-        if (evaluatedValue instanceof Integer) {
-            variableStore.put(variableName, (Integer) evaluatedValue);
-        } else {
-            throw new RuntimeException("Variable '" + variableName + "' must be assigned an integer value.");
-        }
+        storeVariable(variableName, MarathiOps.declared(evaluatedValue, variableName));
     }
 
     private void interpretAssignmentNode(AssignmentNode assignmentNode) {
         String variableName = assignmentNode.getVariableName();
         Object value = evaluateExpression(assignmentNode.getExpression());
+        storeVariable(variableName, MarathiOps.assigned(value));
+    }
 
-        if (value instanceof Integer) {
-            variableStore.put(variableName, (Integer) value);
-        } else {
-            throw new RuntimeException("Unsupported value type for assignment: " + value.getClass().getName());
+    private void interpretArrayAssignmentNode(ArrayAssignmentNode assignmentNode) {
+        String arrayName = assignmentNode.getArrayName();
+        Object container = MarathiOps.container(variableStore.get(arrayName), arrayName);
+        if (container instanceof MarathiMap) {
+            Object key = evaluateExpression(assignmentNode.getIndex());
+            MarathiOps.set(container, key, evaluateExpression(assignmentNode.getValue()), arrayName, parallelFrame);
+            return;
         }
+        int[] array = (int[]) container;
+        int index = MarathiOps.index(array, evaluateExpression(assignmentNode.getIndex()), arrayName);
+        array[index] = MarathiOps.element(evaluateExpression(assignmentNode.getValue()));
     }
 
     private void interpretPrintStatementNode(PrintStatementNode printStmtNode) {
-        String message = evaluateExpression(printStmtNode.getMessage()).toString();
-        outputBuffer.append(message).append("\n");  // Capture output
+        emit(MarathiValues.format(evaluateExpression(printStmtNode.getMessage())));
+    }
+
+    private void emit(String message) {
+        if (output != this) {
+            output.emit(message);
+            return;
+        }
+        if (outputCaptured) {
+            outputBuffer.append(message).append("\n");  // Capture output
+        }
+        if (outputListener != null) {
+            outputListener.accept(message);
+        }
     }
 
     private Object evaluateExpression(ASTNode node) {
@@ -87,21 +245,23 @@ public class MarathiInterpreter {
             Object leftValue = evaluateExpression(binOp.getLeft());
             Object rightValue = evaluateExpression(binOp.getRight());
 
+            if (binOp.getOperandType() == MarathiTypeChecker.INT) {
+                return evaluateIntegerOperation(binOp.getOperator(), (Integer) leftValue, (Integer) rightValue);
+            }
             switch (binOp.getOperator()) {
                 case "+":
-                    if (leftValue instanceof String || rightValue instanceof String) {
-                        return leftValue.toString() + rightValue.toString();  // String concatenation
-                    } else {
-                        return Integer.parseInt(leftValue.toString()) + Integer.parseInt(rightValue.toString());  // Numeric addition
+                    if (binOp.getOperandType() == MarathiTypeChecker.STRING) {
+                        return MarathiRope.concat(MarathiValues.toText(leftValue), MarathiValues.toText(rightValue));
                     }
+                    return MarathiOps.add(leftValue, rightValue);  // Numeric addition or string concatenation
                 case "-":
-                    return Integer.parseInt(leftValue.toString()) - Integer.parseInt(rightValue.toString());  // Numeric subtraction
+                    return MarathiOps.subtract(leftValue, rightValue);  // Numeric subtraction
                 case "*":
-                    return Integer.parseInt(leftValue.toString()) * Integer.parseInt(rightValue.toString());  // Numeric multiplication
+                    return MarathiOps.multiply(leftValue, rightValue);  // Numeric multiplication
                 case "/":
-                    return Integer.parseInt(leftValue.toString()) / Integer.parseInt(rightValue.toString());  // Numeric division
+                    return MarathiOps.divide(leftValue, rightValue);  // Numeric division
                 case "%":
-                    return Integer.parseInt(leftValue.toString()) % Integer.parseInt(rightValue.toString());  // Modulo operation
+                    return MarathiOps.remainder(leftValue, rightValue);  // Modulo operation
                 default:
                     throw new RuntimeException("Unknown operator: " + binOp.getOperator());
             }
@@ -110,12 +270,27 @@ public class MarathiInterpreter {
         } else if (node instanceof NumberNode) {
             return Integer.parseInt(((NumberNode) node).getValue());
         } else if (node instanceof VariableNode) {
-            String variableName = ((VariableNode) node).getName();
-            Object value = variableStore.get(variableName);
-            if (value == null) {
-                throw new RuntimeException("Undefined variable: " + variableName);
+            VariableNode variable = (VariableNode) node;
+            if (variable.getModule() != null) {
+                return MarathiOps.read(moduleFor(variable.getModule()).variableStore.get(variable.getName()),
+                        variable.getModule() + "." + variable.getName());
             }
-            return value;
+            String variableName = variable.getName();
+            if (variable.isBound()) {
+                return variableStore.get(variableName);
+            }
+            return MarathiOps.read(variableStore.get(variableName), variableName);
+        } else if (node instanceof ArrayAccessNode) {
+            ArrayAccessNode access = (ArrayAccessNode) node;
+            Object container = MarathiOps.container(variableStore.get(access.getArrayName()), access.getArrayName());
+            return MarathiOps.get(container, evaluateExpression(access.getIndex()), access.getArrayName());
+        } else if (node instanceof ArrayLiteralNode) {
+            List<ASTNode> elements = ((ArrayLiteralNode) node).getElements();
+            int[] array = new int[elements.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = MarathiOps.element(evaluateExpression(elements.get(i)));
+            }
+            return array;
         } else if (node instanceof FunctionCallNode) {
             return evaluateFunctionCall((FunctionCallNode) node);
         }
@@ -123,42 +298,197 @@ public class MarathiInterpreter {
         throw new RuntimeException("Unknown expression node: " + node);
     }
 
+    // Operands MarathiTypeChecker proved to be integers, so they need no conversion
+    private static Object evaluateIntegerOperation(String operator, int left, int right) {
+        switch (operator) {
+            case "+": return left + right;
+            case "-": return left - right;
+            case "*": return left * right;
+            case "/": return left / right;
+            case "%": return left % right;
+            default: throw new RuntimeException("Unknown operator: " + operator);
+        }
+    }
+
     private Object evaluateFunctionCall(FunctionCallNode functionCallNode) {
-        String functionName = functionCallNode.getFunctionName();
-        FunctionDeclarationNode functionNode = functionStore.get(functionName);
-        if (functionNode == null) {
-            throw new RuntimeException("Function not defined: " + functionName);
+        if (functionCallNode.getModule() != null) {
+            return evaluateModuleCall(functionCallNode);
+        }
+        CallSiteLink link = functionCallNode.getLink(functionStore);
+        if (link == null || !link.isValidFor(functionStore)) {
+            link = linkCallSite(functionCallNode);
         }
+        if (link.getDeclaration() != null) {
+            return invokeFunction(link.getDeclaration(), functionCallNode.getArguments());
+        }
+        return invokeBuiltin(link.getBuiltin(), functionCallNode.getArguments());
+    }
 
-        List<String> parameters = functionNode.getParameters();
-        List<ASTNode> arguments = functionCallNode.getArguments();
+    // Resolves a call site to a karya, or to an intrinsic from MarathiBuiltins when no karya with that
+    // name is declared, and checks the argument count once instead of on every call.
+    private CallSiteLink linkCallSite(FunctionCallNode functionCallNode) {
+        String functionName = functionCallNode.getFunctionName();
+        int argumentCount = functionCallNode.getArguments().size();
+        FunctionSlot slot = slotFor(functionName);
+        FunctionDeclarationNode declaration = slot.getDeclaration();
 
-        if (parameters.size() != arguments.size()) {
-            throw new RuntimeException("Argument count mismatch for function: " + functionName);
+        CallSiteLink link;
+        if (declaration != null) {
+            if (declaration.getParameters().size() != argumentCount) {
+                throw new RuntimeException("Argument count mismatch for function: " + functionName);
+            }
+            link = new CallSiteLink(functionStore, slot, declaration, null);
+        } else if (functionCallNode.getModule() != null) {
+            throw new RuntimeException("Function not defined: " + functionCallNode.getModule() + "." + functionName);
+        } else {
+            MethodHandle builtin = MarathiBuiltins.lookup(functionName, argumentCount);
+            if (builtin == null) {
+                throw new RuntimeException("Function not defined: " + functionName);
+            }
+            link = new CallSiteLink(functionStore, slot, null, builtin);
         }
+        functionCallNode.setLink(link);
+        return link;
+    }
 
-        HashMap<String, Integer> previousVariableStore = new HashMap<>(variableStore);
+    // A module's karya runs in the module's own interpreter, so it sees the module's variables rather than the caller's.
+    // The call site is linked in the module's function table.
+    private Object evaluateModuleCall(FunctionCallNode functionCallNode) {
+        MarathiInterpreter module = moduleFor(functionCallNode.getModule());
+        CallSiteLink link = functionCallNode.getLink(module.functionStore);
+        if (link == null || !link.isValidFor(module.functionStore)) {
+            link = module.linkCallSite(functionCallNode);
+        }
+        Object[] values = evaluateArguments(functionCallNode.getArguments());
+        long moduleStatements = module.statementCount;
+        try {
+            return module.callFunction(link.getDeclaration(), values);
+        } finally {
+            statementCount += module.statementCount - moduleStatements;
+        }
+    }
+
+    private Object invokeFunction(FunctionDeclarationNode functionNode, List<ASTNode> arguments) {
+        return callFunction(functionNode, evaluateArguments(arguments));
+    }
 
-        for (int i = 0; i < parameters.size(); i++) {
-            Object argumentValue = evaluateExpression(arguments.get(i));
-            variableStore.put(parameters.get(i), (Integer) argumentValue);
+    // Evaluate every argument before binding any parameter, so arguments see the caller's values
+    private Object[] evaluateArguments(List<ASTNode> arguments) {
+        Object[] values = new Object[arguments.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = evaluateExpression(arguments.get(i));
         }
+        return values;
+    }
 
-        Object returnValue = null;
+    private Object callFunction(FunctionDeclarationNode functionNode, Object[] values) {
+        safepoint();
+        List<String> parameters = functionNode.getParameters();
+        int callerFrameMark = frameMark;
+        int callerFrameUndoLimit = frameUndoLimit;
+        frameMark = undoNames.size();
+        frameUndoLimit = 16;
+        callDepth++;
         try {
+            for (int i = 0; i < values.length; i++) {
+                storeVariable(parameters.get(i), values[i]);
+            }
             interpret(functionNode.getBody());
+            return null;
         } catch (ReturnException returnEx) {
-            returnValue = returnEx.getValue();  // Capture the return value
+            return returnEx.getValue();  // Capture the return value
+        } finally {
+            restoreVariables(frameMark);
+            callDepth--;
+            frameMark = callerFrameMark;
+            frameUndoLimit = callerFrameUndoLimit;
         }
+    }
+
+    // Intrinsics are called straight through their MethodHandle, without setting up a frame
+    private Object invokeBuiltin(MethodHandle builtin, List<ASTNode> arguments) {
+        try {
+            switch (arguments.size()) {
+                case 0:
+                    return (Object) builtin.invokeExact();
+                case 1:
+                    return (Object) builtin.invokeExact(evaluateExpression(arguments.get(0)));
+                case 2:
+                    return (Object) builtin.invokeExact(evaluateExpression(arguments.get(0)), evaluateExpression(arguments.get(1)));
+                default:
+                    Object[] values = new Object[arguments.size()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = evaluateExpression(arguments.get(i));
+                    }
+                    return builtin.invokeWithArguments(values);
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    // Inside a karya every write is logged with the value it replaced, and the log is rolled back
+    // on return. The callee sees the caller's variables, but its writes never leak back to the caller.
+    private void storeVariable(String name, Object value) {
+        Object previous = variableStore.put(name, value);
+        if (callDepth > 0) {
+            undoNames.add(name);
+            undoValues.add(previous);
+            if (undoNames.size() - frameMark > frameUndoLimit) {
+                compactUndoLog();
+            }
+        }
+    }
 
-        variableStore = previousVariableStore;
+    // Keeps only the first write of each variable in the current frame, so a loop inside a karya
+    // doesn't grow the log without bound
+    private void compactUndoLog() {
+        HashSet<String> seen = new HashSet<>();
+        int kept = frameMark;
+        for (int i = frameMark; i < undoNames.size(); i++) {
+            if (seen.add(undoNames.get(i))) {
+                undoNames.set(kept, undoNames.get(i));
+                undoValues.set(kept, undoValues.get(i));
+                kept++;
+            }
+        }
+        undoNames.subList(kept, undoNames.size()).clear();
+        undoValues.subList(kept, undoValues.size()).clear();
+        frameUndoLimit = 2 * (kept - frameMark) + 16;
+    }
 
-        return returnValue;
+    private void restoreVariables(int mark) {
+        for (int i = undoNames.size() - 1; i >= mark; i--) {
+            Object previous = undoValues.get(i);
+            if (previous == null) {
+                variableStore.remove(undoNames.get(i));
+            } else {
+                variableStore.put(undoNames.get(i), previous);
+            }
+        }
+        undoNames.subList(mark, undoNames.size()).clear();
+        undoValues.subList(mark, undoValues.size()).clear();
+    }
+
+    // Written without a method reference: bootstrapping the first lambda costs more than a short script takes to run
+    private FunctionSlot slotFor(String name) {
+        FunctionSlot slot = functionStore.get(name);
+        if (slot == null) {
+            FunctionSlot created = new FunctionSlot(name);
+            slot = functionStore.putIfAbsent(name, created);
+            if (slot == null) {
+                slot = created;
+            }
+        }
+        return slot;
     }
 
     private void interpretWhileLoopNode(WhileLoopNode whileLoopNode) {
         while (evaluateCondition((ConditionNode) whileLoopNode.getCondition())) {
             interpret(whileLoopNode.getBody());
+            safepoint();
         }
     }
 
@@ -166,20 +496,21 @@ public class MarathiInterpreter {
         Object leftValue = evaluateExpression(conditionNode.getLeftOperand());
         Object rightValue = evaluateExpression(conditionNode.getRightOperand());
 
-        if (!(leftValue instanceof Integer) || !(rightValue instanceof Integer)) {
-            throw new RuntimeException("Both operands must be integers for condition evaluation.");
-        }
-
         String operator = conditionNode.getOperator();
-        int leftIntValue = (Integer) leftValue;
-        int rightIntValue = (Integer) rightValue;
+        int comparison;
+        if (conditionNode.getOperandType() == MarathiTypeChecker.INT) {
+            comparison = Integer.compare((Integer) leftValue, (Integer) rightValue);
+        } else {
+            comparison = MarathiOps.compare(leftValue, rightValue);
+        }
 
         switch (operator) {
-            case "<": return leftIntValue < rightIntValue;
-            case ">": return leftIntValue > rightIntValue;
-            case "<=": return leftIntValue <= rightIntValue;
-            case ">=": return leftIntValue >= rightIntValue;
-            case "==": return leftIntValue == rightIntValue;
+            case "<": return comparison < 0;
+            case ">": return comparison > 0;
+            case "<=": return comparison <= 0;
+            case ">=": return comparison >= 0;
+            case "==": return comparison == 0;
+            case "!=": return comparison != 0;
             default: throw new RuntimeException("Unknown operator: " + operator);
         }
     }
@@ -190,11 +521,691 @@ public class MarathiInterpreter {
         while (evaluateCondition((ConditionNode) forLoopNode.getCondition())) {
             interpret(forLoopNode.getBody());
             interpret(forLoopNode.getIncrement());
+            safepoint();
+        }
+    }
+
+    // Keys added by the body are not visited; the loop runs over the keys the kosh had when it started
+    private void interpretForEachNode(ForEachNode forEachNode) {
+        MarathiMap map = MarathiOps.map(evaluateExpression(forEachNode.getMap()));
+        for (int entry = 0, end = map.size(); entry < end; entry++) {
+            storeVariable(forEachNode.getKeyVariable(), map.key(entry));
+            interpret(forEachNode.getBody());
+            safepoint();
         }
     }
 
     private void interpretFunctionDeclarationNode(FunctionDeclarationNode functionNode) {
-        functionStore.put(functionNode.getFunctionName(), functionNode);
+        if (parallelFrame) {
+            // Reached through a function called from a samantar body; the function table is shared between workers
+            throw new RuntimeException("karya '" + functionNode.getFunctionName() + "' cannot be declared inside a samantar loop");
+        }
+        slotFor(functionNode.getFunctionName()).setDeclaration(functionNode);
+    }
+
+    // Runs a module's top level the first time this run imports its file; importing the same file again,
+    // from the script or from another module, binds the alias to the same instance
+    private void interpretImportNode(ImportNode importNode) {
+        Path path = importNode.getResolvedPath();
+        MarathiInterpreter module = modules.get(path);
+        if (module == null) {
+            if (modules.containsKey(path)) {
+                throw new RuntimeException("Circular aayat: " + path + " is imported again while its own imports are still running");
+            }
+            MarathiModule parsed = MarathiModuleLoader.shared().load(path);
+            modules.put(path, null);
+            module = new MarathiInterpreter(this, modules);
+            module.interpret(parsed.getBody());
+            statementCount += module.statementCount;
+            modules.put(path, module);
+        }
+        if (imports.containsKey(importNode.getAlias())) {
+            throw new RuntimeException("Module alias '" + importNode.getAlias() + "' is already used");
+        }
+        imports.put(importNode.getAlias(), module);
+    }
+
+    private MarathiInterpreter moduleFor(String alias) {
+        MarathiInterpreter module = imports.get(alias);
+        if (module == null && sharedImports != null && sharedImports.containsKey(alias)) {
+            // Module calls never change the module's variables for good, so a private copy behaves the same
+            module = new MarathiInterpreter(sharedImports.get(alias));
+            module.output = output;
+            imports.put(alias, module);
+        }
+        if (module == null) {
+            throw new RuntimeException("Undefined module: " + alias);
+        }
+        return module;
+    }
+
+    // The modules this interpreter can reach by alias, for a samantar frame to copy from
+    private Map<String, MarathiInterpreter> visibleImports() {
+        if (sharedImports == null) {
+            return imports;
+        }
+        HashMap<String, MarathiInterpreter> visible = new HashMap<>(sharedImports);
+        visible.putAll(imports);
+        return visible;
+    }
+
+    private void interpretParallelForNode(ParallelForNode loopNode) {
+        ParallelLoopCheck check = loopNode.getCheck();
+        if (check == null || !check.isCurrent(functionStore)) {
+            check = verifyParallelLoop(loopNode);
+            loopNode.setCheck(check);
+        }
+        String[] aliasNames = check.getAliasNames();
+        if (aliasNames != null) {
+            Object[] aliasValues = new Object[aliasNames.length];
+            for (int i = 0; i < aliasNames.length; i++) {
+                aliasValues[i] = variableStore.get(aliasNames[i]);
+            }
+            MarathiOps.checkLoopAliases(loopNode.getIndexVariable(), aliasNames, aliasValues, check.getWrittenCount(), check.getSharedCount());
+        }
+        for (String reduction : loopNode.getReductionVariables()) {
+            MarathiOps.checkReduction(variableStore.get(reduction), reduction);
+        }
+
+        int start = MarathiOps.loopBound(evaluateExpression(loopNode.getStart()));
+        int end = MarathiOps.loopBound(evaluateExpression(loopNode.getEnd()));
+        if (start >= end) {
+            return;
+        }
+
+        int grain = Math.max(1, (end - start) / (ForkJoinPool.getCommonPoolParallelism() * 8));
+        ParallelLoopResult result = ForkJoinPool.commonPool().invoke(new ParallelLoopTask(loopNode, start, end, grain));
+
+        for (String line : result.output) {
+            emit(line);
+        }
+        List<String> reductions = loopNode.getReductionVariables();
+        for (int i = 0; i < reductions.size(); i++) {
+            storeVariable(reductions.get(i), (Integer) variableStore.get(reductions.get(i)) + result.reductions[i]);
+        }
+        statementCount += result.statements;
+    }
+
+    // Output, reduction partials and statement count of a range of samantar iterations
+    private static class ParallelLoopResult {
+        final List<String> output;
+        final int[] reductions;
+        final long statements;
+
+        ParallelLoopResult(List<String> output, int[] reductions, long statements) {
+            this.output = output;
+            this.reductions = reductions;
+            this.statements = statements;
+        }
+
+        // 'later' covers the iterations right after this one, so output stays in iteration order
+        ParallelLoopResult combine(ParallelLoopResult later) {
+            output.addAll(later.output);
+            for (int i = 0; i < reductions.length; i++) {
+                reductions[i] += later.reductions[i];
+            }
+            return new ParallelLoopResult(output, reductions, statements + later.statements);
+        }
+    }
+
+    // Splits the index range in halves until a range is small enough to run in a single frame
+    private class ParallelLoopTask extends RecursiveTask<ParallelLoopResult> {
+        private static final long serialVersionUID = 1L;
+
+        private final ParallelForNode loopNode;
+        private final int start;
+        private final int end;
+        private final int grain;
+
+        ParallelLoopTask(ParallelForNode loopNode, int start, int end, int grain) {
+            this.loopNode = loopNode;
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+        }
+
+        @Override
+        protected ParallelLoopResult compute() {
+            if (end - start <= grain) {
+                return runRange();
+            }
+            int middle = start + (end - start) / 2;
+            ParallelLoopTask left = new ParallelLoopTask(loopNode, start, middle, grain);
+            ParallelLoopTask right = new ParallelLoopTask(loopNode, middle, end, grain);
+            left.fork();
+            ParallelLoopResult rightResult = right.compute();
+            return left.join().combine(rightResult);
+        }
+
+        private ParallelLoopResult runRange() {
+            MarathiInterpreter frame = new MarathiInterpreter(MarathiInterpreter.this);
+            List<String> reductions = loopNode.getReductionVariables();
+            for (String reduction : reductions) {
+                frame.variableStore.put(reduction, 0);
+            }
+            List<String> output = new ArrayList<>();
+            frame.setOutputListener(output::add);
+            frame.setOutputCaptured(false);  // The lines are merged into the parent's output after the loop
+
+            for (int i = start; i < end; i++) {
+                frame.variableStore.put(loopNode.getIndexVariable(), i);
+                frame.interpret(loopNode.getBody());
+            }
+
+            int[] partials = new int[reductions.size()];
+            for (int i = 0; i < partials.length; i++) {
+                partials[i] = (Integer) frame.variableStore.get(reductions.get(i));
+            }
+            return new ParallelLoopResult(output, partials, frame.statementCount);
+        }
+    }
+
+    // A samantar body may only write variables it declares itself, its reduction variables through
+    // 'r = r + expression', and elements of outer arrays at the loop index. Any other write would be
+    // shared between iterations.
+    private ParallelLoopCheck verifyParallelLoop(ParallelForNode loopNode) {
+        ParallelLoopCheck check = new ParallelLoopCheck(loopNode, functionStore);
+        collectDeclarations(loopNode.getBody(), check);
+        for (String reduction : loopNode.getReductionVariables()) {
+            if (check.locals.contains(reduction) || reduction.equals(loopNode.getIndexVariable())) {
+                throw new RuntimeException("Reduction variable '" + reduction + "' cannot be declared inside the samantar loop");
+            }
+        }
+        check.freshArrays.removeAll(check.reassigned);
+        check.writtenArrays.removeAll(check.locals);
+        Set<String> declared = new HashSet<>();
+        declared.add(loopNode.getIndexVariable());
+        verifyParallelStatement(loopNode.getBody(), check, declared);
+        check.collectAliasNames();
+        return check;
+    }
+
+    // Lets MarathiCompiler, MarathiFlatInterpreter and MarathiMachine reject the same samantar loops as the
+    // interpreter, against this interpreter's karya. They still compare the loop's aliases each time it runs.
+    ParallelLoopCheck checkParallelLoop(ParallelForNode loopNode) {
+        return verifyParallelLoop(loopNode);
+    }
+
+    // What the verifier knows about a samantar body. The verdict depends on the karya the body calls, so the
+    // check notes every slot it looked up and the declaration it found there; the loop node keeps the check
+    // and it is redone once any of those slots holds a different karya.
+    static class ParallelLoopCheck {
+        final ParallelForNode loopNode;
+        private final Object functionTable;  // Of the interpreter that made the check
+        private final List<FunctionSlot> slots = new ArrayList<>();
+        private final List<FunctionDeclarationNode> declarations = new ArrayList<>();  // What each slot held
+        final Set<String> locals = new HashSet<>();  // Variables declared in the body
+        final Set<String> freshArrays = new HashSet<>();  // Locals only ever bound to newly created arrays
+        final Set<String> reassigned = new HashSet<>();  // Locals bound to anything else at least once
+        final Set<String> writtenArrays = new HashSet<>();  // Outer arrays whose elements the body writes
+        final Set<String> sharedReads = new LinkedHashSet<>();  // Outer variables read whole or at any index
+        final Set<String> indexedReads = new LinkedHashSet<>();  // Outer variables read only at the loop index
+        private String[] aliasNames;  // What checkAliases compares, or null if nothing can alias a written array
+        private int sharedCount;
+
+        ParallelLoopCheck(ParallelForNode loopNode, Object functionTable) {
+            this.loopNode = loopNode;
+            this.functionTable = functionTable;
+        }
+
+        // Whether the check still holds for an interpreter with this function table
+        boolean isCurrent(Object table) {
+            if (table != functionTable) {
+                return false;
+            }
+            for (int i = 0; i < slots.size(); i++) {
+                if (slots.get(i).getDeclaration() != declarations.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        FunctionDeclarationNode lookup(FunctionSlot slot) {
+            slots.add(slot);
+            declarations.add(slot.getDeclaration());
+            return slot.getDeclaration();
+        }
+
+        boolean isLoopIndex(ASTNode node) {
+            return node instanceof VariableNode && ((VariableNode) node).getName().equals(loopNode.getIndexVariable());
+        }
+
+        // The written arrays, then the shared reads, then the reads at the loop index
+        String[] getAliasNames() {
+            return aliasNames;
+        }
+
+        int getWrittenCount() {
+            return writtenArrays.size();
+        }
+
+        int getSharedCount() {
+            return sharedCount;
+        }
+
+        private void collectAliasNames() {
+            indexedReads.removeAll(sharedReads);
+            indexedReads.removeAll(writtenArrays);
+            if (writtenArrays.isEmpty() || sharedReads.size() + indexedReads.size() == 0) {
+                return;
+            }
+            List<String> names = new ArrayList<>(writtenArrays);
+            names.addAll(sharedReads);
+            names.addAll(indexedReads);
+            aliasNames = names.toArray(new String[0]);
+            sharedCount = sharedReads.size();
+        }
+    }
+
+    private void collectDeclarations(ASTNode node, ParallelLoopCheck check) {
+        if (node instanceof BlockNode) {
+            for (ASTNode statement : ((BlockNode) node).getStatements()) {
+                collectDeclarations(statement, check);
+            }
+        } else if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode declaration = (VariableDeclarationNode) node;
+            check.locals.add(declaration.getVariableName());
+            noteArrayBinding(declaration.getVariableName(), declaration.getValue(), check);
+        } else if (node instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) node;
+            noteArrayBinding(assignment.getVariableName(), assignment.getExpression(), check);
+        } else if (node instanceof ArrayAssignmentNode) {
+            check.writtenArrays.add(((ArrayAssignmentNode) node).getArrayName());
+        } else if (node instanceof IfStatementNode) {
+            collectDeclarations(((IfStatementNode) node).getThenBranch(), check);
+            if (((IfStatementNode) node).getElseBranch() != null) {
+                collectDeclarations(((IfStatementNode) node).getElseBranch(), check);
+            }
+        } else if (node instanceof WhileLoopNode) {
+            collectDeclarations(((WhileLoopNode) node).getBody(), check);
+        } else if (node instanceof ForLoopNode) {
+            collectDeclarations(((ForLoopNode) node).getInitialization(), check);
+            collectDeclarations(((ForLoopNode) node).getBody(), check);
+            collectDeclarations(((ForLoopNode) node).getIncrement(), check);
+        } else if (node instanceof ParallelForNode) {
+            check.locals.add(((ParallelForNode) node).getIndexVariable());
+            collectDeclarations(((ParallelForNode) node).getBody(), check);
+        } else if (node instanceof ForEachNode) {
+            check.locals.add(((ForEachNode) node).getKeyVariable());
+            collectDeclarations(((ForEachNode) node).getBody(), check);
+        }
+    }
+
+    private void noteArrayBinding(String name, ASTNode value, ParallelLoopCheck check) {
+        boolean fresh = value instanceof ArrayLiteralNode
+                || (value instanceof FunctionCallNode && ((FunctionCallNode) value).getFunctionName().equals("navin")
+                    && ((FunctionCallNode) value).getModule() == null && check.lookup(slotFor("navin")) == null);
+        if (fresh) {
+            check.freshArrays.add(name);
+        } else {
+            check.reassigned.add(name);
+        }
+    }
+
+    // 'declared' holds the locals that are certainly declared at this point of the iteration
+    private void verifyParallelStatement(ASTNode node, ParallelLoopCheck check, Set<String> declared) {
+        ParallelForNode loopNode = check.loopNode;
+        if (node instanceof BlockNode) {
+            for (ASTNode statement : ((BlockNode) node).getStatements()) {
+                verifyParallelStatement(statement, check, declared);
+            }
+        } else if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode declaration = (VariableDeclarationNode) node;
+            if (declaration.getVariableName().equals(loopNode.getIndexVariable())) {
+                throw new RuntimeException("samantar loop index '" + declaration.getVariableName() + "' cannot be redeclared");
+            }
+            verifyParallelReads(declaration.getValue(), check, declared);
+            declared.add(declaration.getVariableName());
+        } else if (node instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) node;
+            String target = assignment.getVariableName();
+            if (target.equals(loopNode.getIndexVariable())) {
+                throw new RuntimeException("samantar loop index '" + target + "' cannot be assigned");
+            } else if (loopNode.getReductionVariables().contains(target)) {
+                ASTNode expression = assignment.getExpression();
+                if (!(expression instanceof BinaryOperationNode)
+                        || !((BinaryOperationNode) expression).getOperator().equals("+")
+                        || !(((BinaryOperationNode) expression).getLeft() instanceof VariableNode)
+                        || !((VariableNode) ((BinaryOperationNode) expression).getLeft()).getName().equals(target)) {
+                    throw new RuntimeException("Reduction variable '" + target + "' can only be updated as '" + target + " = " + target + " + ...' inside samantar");
+                }
+                verifyParallelReads(((BinaryOperationNode) expression).getRight(), check, declared);
+            } else if (check.locals.contains(target) && declared.contains(target)) {
+                verifyParallelReads(assignment.getExpression(), check, declared);
+            } else {
+                throw new RuntimeException("samantar body writes '" + target + "', which is shared between iterations; declare it inside the loop or list it as a reduction");
+            }
+        } else if (node instanceof ArrayAssignmentNode) {
+            ArrayAssignmentNode assignment = (ArrayAssignmentNode) node;
+            String target = assignment.getArrayName();
+            boolean privateArray = check.freshArrays.contains(target) && declared.contains(target);
+            boolean ownElement = !check.locals.contains(target) && check.isLoopIndex(assignment.getIndex());
+            if (!privateArray && !ownElement) {
+                throw new RuntimeException("samantar body writes " + target + "[...] at an index other than the loop index '"
+                        + loopNode.getIndexVariable() + "', which is shared between iterations");
+            }
+            verifyParallelReads(assignment.getIndex(), check, declared);
+            verifyParallelReads(assignment.getValue(), check, declared);
+        } else if (node instanceof PrintStatementNode) {
+            verifyParallelReads(((PrintStatementNode) node).getMessage(), check, declared);
+        } else if (node instanceof IfStatementNode) {
+            IfStatementNode ifStmtNode = (IfStatementNode) node;
+            verifyParallelReads(ifStmtNode.getCondition(), check, declared);
+            Set<String> thenDeclared = new HashSet<>(declared);
+            verifyParallelStatement(ifStmtNode.getThenBranch(), check, thenDeclared);
+            Set<String> elseDeclared = new HashSet<>(declared);
+            if (ifStmtNode.getElseBranch() != null) {
+                verifyParallelStatement(ifStmtNode.getElseBranch(), check, elseDeclared);
+            }
+            thenDeclared.retainAll(elseDeclared);  // Declared on both paths
+            declared.addAll(thenDeclared);
+        } else if (node instanceof WhileLoopNode) {
+            verifyParallelReads(((WhileLoopNode) node).getCondition(), check, declared);
+            verifyParallelStatement(((WhileLoopNode) node).getBody(), check, new HashSet<>(declared));
+        } else if (node instanceof ForLoopNode) {
+            ForLoopNode forLoopNode = (ForLoopNode) node;
+            Set<String> loopDeclared = new HashSet<>(declared);
+            verifyParallelStatement(forLoopNode.getInitialization(), check, loopDeclared);
+            verifyParallelReads(forLoopNode.getCondition(), check, loopDeclared);
+            verifyParallelStatement(forLoopNode.getBody(), check, loopDeclared);
+            verifyParallelStatement(forLoopNode.getIncrement(), check, loopDeclared);
+        } else if (node instanceof ParallelForNode) {
+            // The inner loop checks its own iterations against each other when it runs. Its body also runs once
+            // per outer iteration, so it follows this loop's rules too: an array element it writes must be at
+            // this loop's index, not the inner one, and its reductions must stay private to this iteration.
+            ParallelForNode inner = (ParallelForNode) node;
+            if (inner.getIndexVariable().equals(loopNode.getIndexVariable())) {
+                throw new RuntimeException("samantar loop index '" + inner.getIndexVariable() + "' cannot be assigned");
+            }
+            verifyParallelReads(inner.getStart(), check, declared);
+            verifyParallelReads(inner.getEnd(), check, declared);
+            for (String reduction : inner.getReductionVariables()) {
+                if (!declared.contains(reduction) && !loopNode.getReductionVariables().contains(reduction)) {
+                    throw new RuntimeException("samantar body writes '" + reduction + "', which is shared between iterations; declare it inside the loop or list it as a reduction");
+                }
+            }
+            Set<String> loopDeclared = new HashSet<>(declared);
+            loopDeclared.add(inner.getIndexVariable());
+            verifyParallelStatement(inner.getBody(), check, loopDeclared);
+        } else if (node instanceof ForEachNode) {
+            ForEachNode forEachNode = (ForEachNode) node;
+            if (forEachNode.getKeyVariable().equals(loopNode.getIndexVariable())) {
+                throw new RuntimeException("samantar loop index '" + forEachNode.getKeyVariable() + "' cannot be assigned");
+            }
+            verifyParallelReads(forEachNode.getMap(), check, declared);
+            Set<String> loopDeclared = new HashSet<>(declared);
+            loopDeclared.add(forEachNode.getKeyVariable());
+            verifyParallelStatement(forEachNode.getBody(), check, loopDeclared);
+        } else if (node instanceof FunctionCallNode) {
+            verifyParallelReads(node, check, declared);
+        } else if (node instanceof ReturnNode) {
+            throw new RuntimeException("parat is not allowed inside a samantar loop");
+        } else if (node instanceof FunctionDeclarationNode) {
+            throw new RuntimeException("karya '" + ((FunctionDeclarationNode) node).getFunctionName() + "' cannot be declared inside a samantar loop");
+        }
+    }
+
+    private void verifyParallelReads(ASTNode node, ParallelLoopCheck check, Set<String> declared) {
+        verifyParallelReads(node, check, declared, null);
+    }
+
+    // 'scope' is null in the body itself, and describes the karya being read otherwise
+    private void verifyParallelReads(ASTNode node, ParallelLoopCheck check, Set<String> declared, KaryaScope scope) {
+        ParallelForNode loopNode = check.loopNode;
+        if (node instanceof VariableNode && ((VariableNode) node).getModule() != null) {
+            return;  // Module variables can't be written from the loop body
+        } else if (node instanceof VariableNode) {
+            String name = ((VariableNode) node).getName();
+            if (scope != null && scope.shadowed.contains(name)) {
+                return;
+            }
+            if (loopNode.getReductionVariables().contains(name)) {
+                throw new RuntimeException("Reduction variable '" + name + "' can only be updated as '" + name + " = " + name + " + ...' inside samantar");
+            }
+            if (check.locals.contains(name) && !declared.contains(name)) {
+                throw new RuntimeException("samantar body reads '" + name + "' before declaring it, so it would see a value from another iteration");
+            }
+            if (check.writtenArrays.contains(name)) {
+                throw new RuntimeException("samantar body writes " + name + "[" + loopNode.getIndexVariable() + "], so it can only read " + name + "[" + loopNode.getIndexVariable() + "]");
+            }
+            if (!check.locals.contains(name) && !name.equals(loopNode.getIndexVariable())) {
+                check.sharedReads.add(name);
+            }
+        } else if (node instanceof ArrayAccessNode) {
+            ArrayAccessNode access = (ArrayAccessNode) node;
+            String name = access.getArrayName();
+            boolean outer = scope == null || !scope.shadowed.contains(name);
+            if (outer && check.writtenArrays.contains(name) && !isLoopIndex(access.getIndex(), check, scope)) {
+                throw new RuntimeException("samantar body writes " + name + "[" + loopNode.getIndexVariable() + "], so it can only read "
+                        + name + "[" + loopNode.getIndexVariable() + "]");
+            }
+            if (outer && !check.locals.contains(name)) {
+                (isLoopIndex(access.getIndex(), check, scope) ? check.indexedReads : check.sharedReads).add(name);
+            }
+            verifyParallelReads(access.getIndex(), check, declared, scope);
+        } else if (node instanceof ArrayLiteralNode) {
+            for (ASTNode element : ((ArrayLiteralNode) node).getElements()) {
+                verifyParallelReads(element, check, declared, scope);
+            }
+        } else if (node instanceof BinaryOperationNode) {
+            verifyParallelReads(((BinaryOperationNode) node).getLeft(), check, declared, scope);
+            verifyParallelReads(((BinaryOperationNode) node).getRight(), check, declared, scope);
+        } else if (node instanceof ConditionNode) {
+            verifyParallelReads(((ConditionNode) node).getLeftOperand(), check, declared, scope);
+            verifyParallelReads(((ConditionNode) node).getRightOperand(), check, declared, scope);
+        } else if (node instanceof FunctionCallNode) {
+            FunctionCallNode call = (FunctionCallNode) node;
+            MarathiInterpreter owner = call.getModule() != null ? moduleFor(call.getModule()) : this;
+            FunctionDeclarationNode function = check.lookup(owner.slotFor(call.getFunctionName()));
+            if (function != null) {
+                if (owner.writesArrays(function.getBody(), new HashSet<>(), check)) {
+                    throw new RuntimeException("karya '" + call.getFunctionName() + "' writes array elements or kosh entries or reads input, so it cannot be called inside samantar");
+                }
+                if (owner == this) {
+                    verifyKaryaReads(call, function, check, declared, scope);
+                }
+            } else if (call.getModule() == null && MarathiBuiltins.readsInput(call.getFunctionName())) {
+                throw new RuntimeException("samantar body cannot call " + call.getFunctionName() + ", since iterations would share the input; read it before the loop");
+            } else if (call.getModule() == null && call.getFunctionName().equals("bhara") && !call.getArguments().isEmpty()) {
+                ASTNode target = call.getArguments().get(0);
+                if (!(target instanceof VariableNode) || !check.freshArrays.contains(((VariableNode) target).getName())) {
+                    throw new RuntimeException("samantar body can only bhara arrays it creates itself");
+                }
+            }
+            for (ASTNode argument : call.getArguments()) {
+                verifyParallelReads(argument, check, declared, scope);
+            }
+        }
+    }
+
+    // In the body the loop index is the index variable. In a karya it is any parameter passed the loop index,
+    // and the index variable itself if the karya doesn't rebind it.
+    private static boolean isLoopIndex(ASTNode node, ParallelLoopCheck check, KaryaScope scope) {
+        if (scope == null) {
+            return check.isLoopIndex(node);
+        }
+        return node instanceof VariableNode && ((VariableNode) node).getModule() == null
+                && scope.indexNames.contains(((VariableNode) node).getName());
+    }
+
+    // A karya called from a samantar body
+    private static class KaryaScope {
+        final Set<String> shadowed;  // Its parameters and the names it has declared so far
+        final Set<String> indexNames;  // Names that hold the loop index
+        final Set<List<Object>> walked;  // Karya already read with a given scope, shared by the whole call chain
+
+        KaryaScope(Set<String> shadowed, Set<String> indexNames, Set<List<Object>> walked) {
+            this.shadowed = shadowed;
+            this.indexNames = indexNames;
+            this.walked = walked;
+        }
+
+        KaryaScope branch() {
+            return new KaryaScope(new HashSet<>(shadowed), indexNames, walked);
+        }
+    }
+
+    // A karya sees its caller's variables, so one called from the body reads the iteration's variables through
+    // every name its parameters and declarations don't shadow, and those reads follow the body's rules
+    private void verifyKaryaReads(FunctionCallNode call, FunctionDeclarationNode function, ParallelLoopCheck check, Set<String> declared, KaryaScope caller) {
+        List<String> parameters = function.getParameters();
+        Set<String> bound = new HashSet<>();
+        collectBindings(function.getBody(), bound);
+        Set<String> indexNames = new HashSet<>();
+        for (int i = 0; i < parameters.size() && i < call.getArguments().size(); i++) {
+            if (isLoopIndex(call.getArguments().get(i), check, caller)) {
+                indexNames.add(parameters.get(i));
+            }
+        }
+        for (String name : caller == null ? Set.of(check.loopNode.getIndexVariable()) : caller.indexNames) {
+            if (!parameters.contains(name)) {
+                indexNames.add(name);
+            }
+        }
+        indexNames.removeAll(bound);
+        Set<String> shadowed = caller == null ? new HashSet<>() : new HashSet<>(caller.shadowed);
+        shadowed.addAll(parameters);
+        KaryaScope scope = new KaryaScope(shadowed, indexNames, caller == null ? new HashSet<>() : caller.walked);
+        if (scope.walked.add(List.of(function, new HashSet<>(shadowed), indexNames))) {
+            verifyKaryaStatement(function.getBody(), check, declared, scope);
+        }
+    }
+
+    private void verifyKaryaStatement(ASTNode node, ParallelLoopCheck check, Set<String> declared, KaryaScope scope) {
+        if (node instanceof BlockNode) {
+            for (ASTNode statement : ((BlockNode) node).getStatements()) {
+                verifyKaryaStatement(statement, check, declared, scope);
+            }
+        } else if (node instanceof VariableDeclarationNode) {
+            verifyParallelReads(((VariableDeclarationNode) node).getValue(), check, declared, scope);
+            scope.shadowed.add(((VariableDeclarationNode) node).getVariableName());
+        } else if (node instanceof AssignmentNode) {
+            verifyParallelReads(((AssignmentNode) node).getExpression(), check, declared, scope);
+        } else if (node instanceof PrintStatementNode) {
+            verifyParallelReads(((PrintStatementNode) node).getMessage(), check, declared, scope);
+        } else if (node instanceof ReturnNode) {
+            verifyParallelReads(((ReturnNode) node).getReturnValue(), check, declared, scope);
+        } else if (node instanceof IfStatementNode) {
+            IfStatementNode ifStmtNode = (IfStatementNode) node;
+            verifyParallelReads(ifStmtNode.getCondition(), check, declared, scope);
+            verifyKaryaStatement(ifStmtNode.getThenBranch(), check, declared, scope.branch());
+            if (ifStmtNode.getElseBranch() != null) {
+                verifyKaryaStatement(ifStmtNode.getElseBranch(), check, declared, scope.branch());
+            }
+        } else if (node instanceof WhileLoopNode) {
+            verifyParallelReads(((WhileLoopNode) node).getCondition(), check, declared, scope);
+            verifyKaryaStatement(((WhileLoopNode) node).getBody(), check, declared, scope.branch());
+        } else if (node instanceof ForLoopNode) {
+            ForLoopNode forLoopNode = (ForLoopNode) node;
+            KaryaScope loopScope = scope.branch();
+            verifyKaryaStatement(forLoopNode.getInitialization(), check, declared, loopScope);
+            verifyParallelReads(forLoopNode.getCondition(), check, declared, loopScope);
+            verifyKaryaStatement(forLoopNode.getBody(), check, declared, loopScope);
+            verifyKaryaStatement(forLoopNode.getIncrement(), check, declared, loopScope);
+        } else if (node instanceof ParallelForNode) {
+            verifyParallelReads(((ParallelForNode) node).getStart(), check, declared, scope);
+            verifyParallelReads(((ParallelForNode) node).getEnd(), check, declared, scope);
+        } else if (node instanceof ForEachNode) {
+            ForEachNode forEachNode = (ForEachNode) node;
+            verifyParallelReads(forEachNode.getMap(), check, declared, scope);
+            KaryaScope loopScope = scope.branch();
+            loopScope.shadowed.add(forEachNode.getKeyVariable());
+            verifyKaryaStatement(forEachNode.getBody(), check, declared, loopScope);
+        } else if (node instanceof FunctionCallNode) {
+            verifyParallelReads(node, check, declared, scope);
+        }
+    }
+
+    // Names a karya body assigns or declares anywhere
+    private static void collectBindings(ASTNode node, Set<String> bound) {
+        if (node instanceof BlockNode) {
+            for (ASTNode statement : ((BlockNode) node).getStatements()) {
+                collectBindings(statement, bound);
+            }
+        } else if (node instanceof VariableDeclarationNode) {
+            bound.add(((VariableDeclarationNode) node).getVariableName());
+        } else if (node instanceof AssignmentNode) {
+            bound.add(((AssignmentNode) node).getVariableName());
+        } else if (node instanceof IfStatementNode) {
+            collectBindings(((IfStatementNode) node).getThenBranch(), bound);
+            if (((IfStatementNode) node).getElseBranch() != null) {
+                collectBindings(((IfStatementNode) node).getElseBranch(), bound);
+            }
+        } else if (node instanceof WhileLoopNode) {
+            collectBindings(((WhileLoopNode) node).getBody(), bound);
+        } else if (node instanceof ForLoopNode) {
+            collectBindings(((ForLoopNode) node).getInitialization(), bound);
+            collectBindings(((ForLoopNode) node).getBody(), bound);
+            collectBindings(((ForLoopNode) node).getIncrement(), bound);
+        } else if (node instanceof ParallelForNode) {
+            bound.add(((ParallelForNode) node).getIndexVariable());
+            bound.addAll(((ParallelForNode) node).getReductionVariables());
+        } else if (node instanceof ForEachNode) {
+            bound.add(((ForEachNode) node).getKeyVariable());
+            collectBindings(((ForEachNode) node).getBody(), bound);
+        }
+    }
+
+    // Whether running this code may write array elements or kosh entries or consume input, following calls to other karya
+    private boolean writesArrays(ASTNode node, Set<FunctionDeclarationNode> visitedFunctions, ParallelLoopCheck check) {
+        if (node instanceof ArrayAssignmentNode) {
+            return true;
+        } else if (node instanceof BlockNode) {
+            for (ASTNode statement : ((BlockNode) node).getStatements()) {
+                if (writesArrays(statement, visitedFunctions, check)) {
+                    return true;
+                }
+            }
+            return false;
+        } else if (node instanceof IfStatementNode) {
+            IfStatementNode ifStmtNode = (IfStatementNode) node;
+            return writesArrays(ifStmtNode.getCondition(), visitedFunctions, check)
+                    || writesArrays(ifStmtNode.getThenBranch(), visitedFunctions, check)
+                    || (ifStmtNode.getElseBranch() != null && writesArrays(ifStmtNode.getElseBranch(), visitedFunctions, check));
+        } else if (node instanceof WhileLoopNode) {
+            return writesArrays(((WhileLoopNode) node).getCondition(), visitedFunctions, check)
+                    || writesArrays(((WhileLoopNode) node).getBody(), visitedFunctions, check);
+        } else if (node instanceof ForLoopNode) {
+            ForLoopNode forLoopNode = (ForLoopNode) node;
+            return writesArrays(forLoopNode.getInitialization(), visitedFunctions, check)
+                    || writesArrays(forLoopNode.getCondition(), visitedFunctions, check)
+                    || writesArrays(forLoopNode.getBody(), visitedFunctions, check)
+                    || writesArrays(forLoopNode.getIncrement(), visitedFunctions, check);
+        } else if (node instanceof ParallelForNode) {
+            return writesArrays(((ParallelForNode) node).getBody(), visitedFunctions, check);
+        } else if (node instanceof ForEachNode) {
+            return writesArrays(((ForEachNode) node).getMap(), visitedFunctions, check)
+                    || writesArrays(((ForEachNode) node).getBody(), visitedFunctions, check);
+        } else if (node instanceof VariableDeclarationNode) {
+            return writesArrays(((VariableDeclarationNode) node).getValue(), visitedFunctions, check);
+        } else if (node instanceof AssignmentNode) {
+            return writesArrays(((AssignmentNode) node).getExpression(), visitedFunctions, check);
+        } else if (node instanceof PrintStatementNode) {
+            return writesArrays(((PrintStatementNode) node).getMessage(), visitedFunctions, check);
+        } else if (node instanceof ReturnNode) {
+            return writesArrays(((ReturnNode) node).getReturnValue(), visitedFunctions, check);
+        } else if (node instanceof BinaryOperationNode) {
+            return writesArrays(((BinaryOperationNode) node).getLeft(), visitedFunctions, check)
+                    || writesArrays(((BinaryOperationNode) node).getRight(), visitedFunctions, check);
+        } else if (node instanceof ConditionNode) {
+            return writesArrays(((ConditionNode) node).getLeftOperand(), visitedFunctions, check)
+                    || writesArrays(((ConditionNode) node).getRightOperand(), visitedFunctions, check);
+        } else if (node instanceof FunctionCallNode) {
+            FunctionCallNode call = (FunctionCallNode) node;
+            for (ASTNode argument : call.getArguments()) {
+                if (writesArrays(argument, visitedFunctions, check)) {
+                    return true;
+                }
+            }
+            MarathiInterpreter owner = call.getModule() != null ? moduleFor(call.getModule()) : this;
+            FunctionDeclarationNode function = check.lookup(owner.slotFor(call.getFunctionName()));
+            if (function == null) {
+                return call.getModule() == null && (call.getFunctionName().equals("bhara") || MarathiBuiltins.readsInput(call.getFunctionName()));
+            }
+            return visitedFunctions.add(function) && owner.writesArrays(function.getBody(), visitedFunctions, check);
+        }
+        return false;
     }
 
     // Custom exception to handle return values
@@ -202,6 +1213,7 @@ public class MarathiInterpreter {
         private final Object value;
 
         public ReturnException(Object value) {
+            super(null, null, false, false);  // Control flow only; capturing a stack trace on every parat is costly
             this.value = value;
         }
 
@@ -0,0 +1,195 @@
+import java.util.Arrays;
+
+// Keyword recognizer shared by the tokenizer and the editor's highlighter.
+// At class load the keyword table is compiled into a DFA over a small alphabet, so matching costs the
+// same per character however many keywords there are. Each keyword has a Latin and a Devanagari
+// spelling; Latin spellings ignore case.
+public final class MarathiKeywords {
+    private static final byte OTHER = 0;
+    private static final byte WHITESPACE = 1;
+    private static final byte LETTER = 2;  // Starts or continues an identifier
+    private static final byte DIGIT = 3;
+    private static final byte MARK = 4;  // Combining marks such as Devanagari vowel signs; continue an identifier
+
+    // { spelling, token type, token value }
+    private static final String[][] KEYWORDS = {
+        {"karya", "FUNCTION_DECL", "karya"},
+        {"\u0915\u093e\u0930\u094d\u092f", "FUNCTION_DECL", "karya"},
+        {"parat", "RETURN", "parat"},
+        {"\u092a\u0930\u0924", "RETURN", "parat"},
+        {"he aahe", "VAR_DECL", "He aahe"},
+        {"\u0939\u0947 \u0906\u0939\u0947", "VAR_DECL", "He aahe"},
+        {"jar", "IF", "Jar"},
+        {"\u091c\u0930", "IF", "Jar"},
+        {"nahitar", "ELSE", "Nahitar"},
+        {"\u0928\u093e\u0939\u0940\u0924\u0930", "ELSE", "Nahitar"},
+        {"chapa", "PRINT", "Chapa"},
+        {"\u091b\u093e\u092a\u093e", "PRINT", "Chapa"},
+        {"joparyant", "WHILE", "joparyant"},
+        {"\u091c\u094b\u092a\u0930\u094d\u092f\u0902\u0924", "WHILE", "joparyant"},
+        {"sampel", "END_WHILE", "sampel"},
+        {"\u0938\u0902\u092a\u0947\u0932", "END_WHILE", "sampel"},
+        {"paryant", "FOR", "paryant"},
+        {"\u092a\u0930\u094d\u092f\u0902\u0924", "FOR", "paryant"},
+        {"samantar", "PARALLEL_FOR", "samantar"},
+        {"\u0938\u092e\u093e\u0902\u0924\u0930", "PARALLEL_FOR", "samantar"},
+        {"aayat", "IMPORT", "aayat"},
+        {"\u0906\u092f\u093e\u0924", "IMPORT", "aayat"},
+        {"mhanun", "AS", "mhanun"},
+        {"\u092e\u094d\u0939\u0923\u0942\u0928", "AS", "mhanun"},
+        {"pratyek", "FOR_EACH", "pratyek"},
+        {"\u092a\u094d\u0930\u0924\u094d\u092f\u0947\u0915", "FOR_EACH", "pratyek"},
+        {"madhye", "IN", "madhye"},
+        {"\u092e\u0927\u094d\u092f\u0947", "IN", "madhye"},
+    };
+
+    private static final byte[] ASCII_CLASS = new byte[128];  // Other characters are classified a block at a time when met
+    private static final Block[] BLOCKS = new Block[1 << 8];  // By the high byte of a character; null until one is met
+    private static final int SYMBOL_TABLE_SIZE = 0x0980;  // Up to the end of the Devanagari block, which holds every keyword character
+    private static final byte[] SYMBOL = new byte[SYMBOL_TABLE_SIZE];  // 0 for characters no keyword uses
+    private static final int ALPHABET_SIZE;
+    private static final int[] NEXT;  // NEXT[state * ALPHABET_SIZE + symbol], 0 is the dead state
+    private static final int[] ACCEPT;  // Keyword index accepted in a state, or -1
+
+    // This runs before every script, mostly in the bytecode interpreter, so it sticks to plain arrays and
+    // ASCII: the first call into Character for a Devanagari character initializes large Unicode tables.
+    static {
+        for (char c = 0; c < ASCII_CLASS.length; c++) {
+            if (c == ' ' || (c >= '\t' && c <= '\r') || (c >= '\u001c' && c <= '\u001f')) {
+                ASCII_CLASS[c] = WHITESPACE;  // As Character.isWhitespace
+            } else if (c >= '0' && c <= '9') {
+                ASCII_CLASS[c] = DIGIT;
+            } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                ASCII_CLASS[c] = LETTER;
+            }
+        }
+
+        // Number the characters the keywords use; both cases of a Latin letter share a symbol
+        int symbols = 1;
+        int maxStates = 2;
+        for (String[] keyword : KEYWORDS) {
+            maxStates += keyword[0].length();
+            for (int i = 0; i < keyword[0].length(); i++) {
+                char c = keyword[0].charAt(i);
+                if (SYMBOL[c] == 0) {
+                    SYMBOL[c] = (byte) symbols;
+                    if (c >= 'a' && c <= 'z') {
+                        SYMBOL[c - 'a' + 'A'] = (byte) symbols;
+                    }
+                    symbols++;
+                }
+            }
+        }
+        ALPHABET_SIZE = symbols;
+
+        // Build the trie, which is already a DFA since every path is a fixed string.
+        // State 0 is the dead state and state 1 the start state.
+        int[] next = new int[maxStates * ALPHABET_SIZE];
+        int[] accept = new int[maxStates];
+        Arrays.fill(accept, -1);
+        int stateCount = 2;
+        for (int k = 0; k < KEYWORDS.length; k++) {
+            int state = 1;
+            String spelling = KEYWORDS[k][0];
+            for (int i = 0; i < spelling.length(); i++) {
+                int edge = state * ALPHABET_SIZE + SYMBOL[spelling.charAt(i)];
+                if (next[edge] == 0) {
+                    next[edge] = stateCount++;
+                }
+                state = next[edge];
+            }
+            accept[state] = k;
+        }
+        NEXT = Arrays.copyOf(next, stateCount * ALPHABET_SIZE);
+        ACCEPT = Arrays.copyOf(accept, stateCount);
+    }
+
+    private MarathiKeywords() {
+    }
+
+    // The classes of 256 characters sharing a high byte. The table is only reachable through a final field, so a
+    // thread that sees the block sees it filled; two threads meeting a new block at once just both build it.
+    private static final class Block {
+        final byte[] classes = new byte[1 << 8];
+
+        Block(int high) {
+            for (int low = 0; low < classes.length; low++) {
+                classes[low] = classify((char) (high << 8 | low));
+            }
+        }
+    }
+
+    private static byte classify(char c) {
+        if (Character.isWhitespace(c)) {
+            return WHITESPACE;
+        } else if (Character.isDigit(c)) {
+            return DIGIT;
+        } else if (Character.isLetter(c)) {
+            return LETTER;
+        }
+        int type = Character.getType(c);
+        if (type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK) {
+            return MARK;
+        }
+        return OTHER;
+    }
+
+    private static byte charClass(char c) {
+        if (c < ASCII_CLASS.length) {
+            return ASCII_CLASS[c];
+        }
+        Block block = BLOCKS[c >>> 8];
+        if (block == null) {
+            block = new Block(c >>> 8);
+            BLOCKS[c >>> 8] = block;
+        }
+        return block.classes[c & 0xFF];
+    }
+
+    // Index of the longest keyword starting at position and ending on a word boundary, or -1.
+    // "jarvis" and "chapaVal" are identifiers, not keywords followed by text.
+    public static int match(CharSequence input, int position) {
+        int state = 1;
+        int matched = -1;
+        int length = input.length();
+        for (int i = position; i < length; i++) {
+            char c = input.charAt(i);
+            if (c >= SYMBOL_TABLE_SIZE) {
+                break;
+            }
+            state = NEXT[state * ALPHABET_SIZE + SYMBOL[c]];
+            if (state == 0) {
+                break;
+            }
+            if (ACCEPT[state] >= 0 && (i + 1 == length || !isIdentifierPart(input.charAt(i + 1)))) {
+                matched = ACCEPT[state];
+            }
+        }
+        return matched;
+    }
+
+    // Number of characters the keyword spans in the source
+    public static int length(int keyword) {
+        return KEYWORDS[keyword][0].length();
+    }
+
+    public static Token token(int keyword) {
+        return new Token(KEYWORDS[keyword][1], KEYWORDS[keyword][2]);
+    }
+
+    public static boolean isWhitespace(char c) {
+        return charClass(c) == WHITESPACE;
+    }
+
+    public static boolean isDigit(char c) {
+        return charClass(c) == DIGIT;
+    }
+
+    public static boolean isIdentifierStart(char c) {
+        return charClass(c) == LETTER;
+    }
+
+    public static boolean isIdentifierPart(char c) {
+        return charClass(c) >= LETTER;
+    }
+}
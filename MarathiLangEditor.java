@@ -1,15 +1,33 @@
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 public class MarathiLangEditor extends JFrame {
-    private JTextArea codeArea;
-    private JTextArea outputArea;
-    private JButton runButton, clearButton;
-    private JLabel fileLabel, outputLabel;
+    private static final int OUTPUT_LINES = 100_000;  // Lines the output console keeps; older ones are dropped
+
+    private JTextPane codeArea;
+    private MarathiOutputBuffer output = new MarathiOutputBuffer(OUTPUT_LINES);
+    private JList<String> outputList;
+    private JScrollPane outputScrollPane;
+    private JButton runButton, stopButton, clearButton, saveButton;
+    private JCheckBox historyBox;
+    private JLabel fileLabel, outputLabel, statusLabel;
+    private ScriptWorker currentWorker;  // Script currently running in the background, if any
 
     public MarathiLangEditor() {
         // Set up the main window
@@ -28,18 +46,23 @@ public class MarathiLangEditor extends JFrame {
         add(topPanel, BorderLayout.NORTH);
 
         // Set up the code input area
-        codeArea = new JTextArea(20, 50);
+        codeArea = new JTextPane();
         codeArea.setFont(new Font("Monospaced", Font.PLAIN, 14));
         codeArea.setBorder(new EmptyBorder(10, 10, 10, 10));
         codeArea.setBackground(Color.decode("#F7F9FB"));
+        codeArea.getDocument().addDocumentListener(new SyntaxHighlighter(codeArea.getStyledDocument()));
         JScrollPane codeScrollPane = new JScrollPane(codeArea);
+        codeScrollPane.setPreferredSize(new Dimension(450, 400));
 
-        // Set up the output area (on the right)
-        outputArea = new JTextArea(20, 50);
-        outputArea.setEditable(false);  // Output area should be read-only
-        outputArea.setFont(new Font("Monospaced", Font.PLAIN, 14));
-        outputArea.setBackground(Color.decode("#F7F9FB"));
-        JScrollPane outputScrollPane = new JScrollPane(outputArea);
+        // Set up the output console (on the right). Rows have a fixed size, so the list neither measures
+        // every line nor paints more than the rows in view.
+        outputList = new JList<>(output);
+        outputList.setFont(new Font("Monospaced", Font.PLAIN, 14));
+        outputList.setBackground(Color.decode("#F7F9FB"));
+        outputList.setFixedCellHeight(outputList.getFontMetrics(outputList.getFont()).getHeight());
+        outputList.setFixedCellWidth(0);
+        outputScrollPane = new JScrollPane(outputList);
+        outputScrollPane.setPreferredSize(new Dimension(450, 400));
 
         // Split pane to separate the code editor and output panel
         JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, codeScrollPane, outputScrollPane);
@@ -50,7 +73,13 @@ public class MarathiLangEditor extends JFrame {
         JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
         bottomPanel.setBackground(Color.WHITE);
         runButton = new JButton("Run");
+        stopButton = new JButton("Stop");
         clearButton = new JButton("Clear");
+        saveButton = new JButton("Save Output");
+        historyBox = new JCheckBox("Keep full output");
+        historyBox.setToolTipText("Also write every line to a temporary file, so Save Output can save more than the last "
+                + String.format("%,d", OUTPUT_LINES) + " lines");
+        historyBox.setBackground(Color.WHITE);
 
         // Customizing the buttons (color and font)
         runButton.setBackground(Color.decode("#007BFF"));
@@ -58,24 +87,54 @@ public class MarathiLangEditor extends JFrame {
         runButton.setFocusPainted(false);
         runButton.setFont(new Font("SansSerif", Font.BOLD, 14));
 
+        stopButton.setBackground(Color.decode("#DC3545"));
+        stopButton.setForeground(Color.WHITE);
+        stopButton.setFocusPainted(false);
+        stopButton.setFont(new Font("SansSerif", Font.BOLD, 14));
+        stopButton.setEnabled(false);
+
         clearButton.setBackground(Color.decode("#F8F9FA"));
         clearButton.setForeground(Color.BLACK);
         clearButton.setFocusPainted(false);
         clearButton.setFont(new Font("SansSerif", Font.BOLD, 14));
 
+        saveButton.setBackground(Color.decode("#F8F9FA"));
+        saveButton.setForeground(Color.BLACK);
+        saveButton.setFocusPainted(false);
+        saveButton.setFont(new Font("SansSerif", Font.BOLD, 14));
+
         // Action for the "Run" button
         runButton.addActionListener(new RunCodeListener());
 
+        // Action for the "Stop" button
+        stopButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (currentWorker != null) {
+                    currentWorker.stop();
+                }
+            }
+        });
+
         // Action for the "Clear" button
         clearButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                outputArea.setText("");  // Clear the output area
+                clearOutput();
+            }
+        });
+
+        // Action for the "Save Output" button
+        saveButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                saveOutput();
             }
         });
 
         // Add buttons to the bottom panel
         bottomPanel.add(runButton);
+        bottomPanel.add(stopButton);
         bottomPanel.add(clearButton);
+        bottomPanel.add(saveButton);
+        bottomPanel.add(historyBox);
 
         // Label for the output section
         outputLabel = new JLabel("Output");
@@ -83,25 +142,263 @@ public class MarathiLangEditor extends JFrame {
         outputLabel.setBorder(new EmptyBorder(0, 10, 10, 10));
         topPanel.add(outputLabel, BorderLayout.EAST);
 
+        // Status bar showing elapsed time and statement rate of the running script
+        statusLabel = new JLabel("Ready");
+        statusLabel.setFont(new Font("SansSerif", Font.PLAIN, 12));
+        statusLabel.setBorder(new EmptyBorder(0, 10, 5, 10));
+
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(bottomPanel, BorderLayout.CENTER);
+        southPanel.add(statusLabel, BorderLayout.SOUTH);
+
         // Add the bottom panel to the main window
-        add(bottomPanel, BorderLayout.SOUTH);
+        add(southPanel, BorderLayout.SOUTH);
+    }
+
+    // Colours keywords, strings, numbers and comments as the user types.
+    // Only the lines touched by an edit are re-lexed, see MarathiHighlightLexer.
+    class SyntaxHighlighter implements DocumentListener, MarathiHighlightLexer.LineSource, MarathiHighlightLexer.LineListener {
+        private final StyledDocument document;
+        private final MarathiHighlightLexer lexer = new MarathiHighlightLexer();
+        private final Segment segment = new Segment();
+        private final SimpleAttributeSet plainStyle = new SimpleAttributeSet();
+        private final SimpleAttributeSet keywordStyle;
+        private final SimpleAttributeSet stringStyle;
+        private final SimpleAttributeSet numberStyle;
+        private final SimpleAttributeSet commentStyle;
+        private int dirtyFrom = -1;  // First line waiting to be re-lexed, -1 when nothing is pending
+        private int dirtyTo;  // Last line touched by the pending edits
+
+        SyntaxHighlighter(StyledDocument document) {
+            this.document = document;
+            StyleConstants.setFontFamily(plainStyle, "Monospaced");
+            StyleConstants.setFontSize(plainStyle, 14);
+            StyleConstants.setForeground(plainStyle, Color.BLACK);
+            keywordStyle = new SimpleAttributeSet(plainStyle);
+            stringStyle = new SimpleAttributeSet(plainStyle);
+            numberStyle = new SimpleAttributeSet(plainStyle);
+            commentStyle = new SimpleAttributeSet(plainStyle);
+            StyleConstants.setForeground(keywordStyle, Color.decode("#0033B3"));
+            StyleConstants.setBold(keywordStyle, true);
+            StyleConstants.setForeground(stringStyle, Color.decode("#067D17"));
+            StyleConstants.setForeground(numberStyle, Color.decode("#1750EB"));
+            StyleConstants.setForeground(commentStyle, Color.decode("#8C8C8C"));
+            StyleConstants.setItalic(commentStyle, true);
+        }
+
+        public void insertUpdate(DocumentEvent e) {
+            documentChanged(e);
+        }
+
+        public void removeUpdate(DocumentEvent e) {
+            documentChanged(e);
+        }
+
+        public void changedUpdate(DocumentEvent e) {
+            // Attribute changes, including our own highlighting, don't affect the lexer state
+        }
+
+        private void documentChanged(DocumentEvent e) {
+            Element root = document.getDefaultRootElement();
+            int line = root.getElementIndex(e.getOffset());
+            DocumentEvent.ElementChange change = e.getChange(root);
+            int delta = change == null ? 0 : change.getChildrenAdded().length - change.getChildrenRemoved().length;
+            lexer.linesChanged(line, delta);
+
+            if (dirtyFrom < 0) {
+                dirtyFrom = line;
+                dirtyTo = line + Math.max(delta, 0);
+                // Attributes can't be changed while the document is notifying listeners
+                SwingUtilities.invokeLater(this::rehighlight);
+            } else {
+                if (dirtyTo > line) {
+                    dirtyTo = Math.max(line, dirtyTo + delta);
+                }
+                dirtyFrom = Math.min(dirtyFrom, line);
+                dirtyTo = Math.max(dirtyTo, line + Math.max(delta, 0));
+            }
+        }
+
+        private void rehighlight() {
+            int lastLine = getLineCount() - 1;
+            int from = Math.min(dirtyFrom, lastLine);
+            int to = Math.min(dirtyTo, lastLine);
+            dirtyFrom = -1;
+            lexer.relex(this, from, to, this);
+        }
+
+        public int getLineCount() {
+            return document.getDefaultRootElement().getElementCount();
+        }
+
+        public CharSequence getLine(int line) {
+            Element element = document.getDefaultRootElement().getElement(line);
+            int start = element.getStartOffset();
+            int end = Math.min(element.getEndOffset(), document.getLength());
+            try {
+                document.getText(start, end - start, segment);
+            } catch (BadLocationException ex) {
+                segment.count = 0;
+            }
+            return segment;
+        }
+
+        public void lineLexed(int line, List<MarathiHighlightLexer.Span> spans) {
+            Element element = document.getDefaultRootElement().getElement(line);
+            int start = element.getStartOffset();
+            int end = Math.min(element.getEndOffset(), document.getLength());
+            document.setCharacterAttributes(start, end - start, plainStyle, true);
+            for (MarathiHighlightLexer.Span span : spans) {
+                document.setCharacterAttributes(start + span.getStart(), span.getLength(), styleFor(span.getKind()), true);
+            }
+        }
+
+        private SimpleAttributeSet styleFor(String kind) {
+            switch (kind) {
+                case "KEYWORD": return keywordStyle;
+                case "STRING": return stringStyle;
+                case "NUMBER": return numberStyle;
+                default: return commentStyle;
+            }
+        }
     }
 
     // Listener for the Run button
     class RunCodeListener implements ActionListener {
         public void actionPerformed(ActionEvent e) {
-            String code = codeArea.getText();  // Get the code written in the JTextArea
+            if (currentWorker != null) {
+                return;  // A script is already running
+            }
+            String code = codeArea.getText();  // Get the code written in the editor
+            clearOutput();
             try {
-                String output = runMarathiInterpreter(code);  // Process the code and get output
-                outputArea.setText(output);  // Display the output in the output area
-            } catch (Exception ex) {
-                outputArea.setText("Error: " + ex.getMessage());  // Display any errors
+                output.setSpilling(historyBox.isSelected());
+            } catch (UncheckedIOException ex) {
+                JOptionPane.showMessageDialog(MarathiLangEditor.this, ex.getMessage(), "Output", JOptionPane.WARNING_MESSAGE);
             }
+            runButton.setEnabled(false);
+            stopButton.setEnabled(true);
+            currentWorker = new ScriptWorker(code);
+            currentWorker.start();
         }
     }
 
-    // Method to invoke the Marathi Interpreter and capture output
-    private String runMarathiInterpreter(String code) throws Exception {
+    // Runs a script in the background and streams its chapa output to the output console.
+    // SwingWorker coalesces published lines, so the EDT appends them in batches.
+    class ScriptWorker extends SwingWorker<Void, String> {
+        private final String code;
+        private final MarathiInterpreter interpreter = new MarathiInterpreter();
+        private final Timer statusTimer;
+        private long startNanos;
+
+        ScriptWorker(String code) {
+            this.code = code;
+            this.statusTimer = new Timer(250, new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    updateStatus("Running");
+                }
+            });
+        }
+
+        void start() {
+            startNanos = System.nanoTime();
+            statusTimer.start();
+            execute();  // Runs the interpreter off the Event Dispatch Thread
+        }
+
+        void stop() {
+            interpreter.cancel();
+        }
+
+        @Override
+        protected Void doInBackground() {
+            interpreter.setOutputListener(line -> publish(line));
+            interpreter.setOutputCaptured(false);  // The console keeps the lines
+            runMarathiInterpreter(code, interpreter);
+            return null;
+        }
+
+        @Override
+        protected void process(List<String> lines) {
+            appendOutput(lines);
+        }
+
+        @Override
+        protected void done() {
+            statusTimer.stop();
+            try {
+                get();
+                updateStatus("Finished");
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof ExecutionCancelledException) {
+                    updateStatus("Stopped");
+                } else {
+                    appendOutput(List.of("Error: " + (cause.getMessage() != null ? cause.getMessage() : cause.toString())));  // Display any errors
+                    updateStatus("Failed");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            runButton.setEnabled(true);
+            stopButton.setEnabled(false);
+            currentWorker = null;
+        }
+
+        private void updateStatus(String state) {
+            long elapsedNanos = System.nanoTime() - startNanos;
+            long statements = interpreter.getStatementCount();
+            double seconds = elapsedNanos / 1_000_000_000.0;
+            long rate = seconds > 0 ? (long) (statements / seconds) : 0;
+            statusLabel.setText(String.format("%s: %.2f s, %,d statements (%,d/s)", state, seconds, statements, rate));
+        }
+    }
+
+    // Adds lines to the console, following the end of the output unless the user has scrolled up
+    private void appendOutput(List<String> lines) {
+        JScrollBar bar = outputScrollPane.getVerticalScrollBar();
+        boolean following = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - outputList.getFixedCellHeight();
+        try {
+            output.addAll(lines);
+        } catch (UncheckedIOException ex) {
+            historyBox.setSelected(false);
+            statusLabel.setText(ex.getMessage());
+        }
+
+        int width = output.getLongestLine() * outputList.getFontMetrics(outputList.getFont()).charWidth('m') + 10;
+        if (width > outputList.getFixedCellWidth()) {
+            outputList.setFixedCellWidth(width);
+        }
+        long dropped = output.getDroppedLines();
+        outputLabel.setText(dropped == 0 ? "Output"
+                : String.format("Output (last %,d of %,d lines)", output.getSize(), output.getTotalLines()));
+        if (following) {
+            outputList.ensureIndexIsVisible(output.getSize() - 1);
+        }
+    }
+
+    private void clearOutput() {
+        output.clear();
+        outputList.setFixedCellWidth(0);
+        outputLabel.setText("Output");
+    }
+
+    // Saves the console to a file: the full output of the run when "Keep full output" was on, otherwise the kept lines
+    private void saveOutput() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("output.txt"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        try {
+            output.export(chooser.getSelectedFile().toPath());
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, "Cannot save the output: " + ex.getMessage(), "Output", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    // Method to invoke the Marathi Interpreter; output is streamed to the console
+    private void runMarathiInterpreter(String code, MarathiInterpreter interpreter) {
         // Step 1: Tokenize the input code
         MarathiTokenizer tokenizer = new MarathiTokenizer(code);
         List<Token> tokens = tokenizer.tokenize();
@@ -113,12 +410,11 @@ public class MarathiLangEditor extends JFrame {
         System.out.println("AST:");
         System.out.println(ast);
         
-        // Step 3: Interpret the parsed AST and capture the output
-        MarathiInterpreter interpreter = new MarathiInterpreter();
+        // Step 3: Check types, so a type error is reported before anything runs
+        MarathiTypeChecker.check(ast, false);
+
+        // Step 4: Interpret the parsed AST
         interpreter.interpret(ast);
-        
-        // Return the output captured by the interpreter
-        return interpreter.getOutput();
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,90 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Consumer;
+
+// Command-line runner for short scripts that are started over and over, e.g. from cron jobs.
+// Unlike Main it prints only what the script prints, and it loads nothing but the module loader, tokenizer,
+// parser, type checker, interpreter and AST classes (no Swing, no token or AST dumps), so the class-data-sharing archive
+// that marathi-cds.sh builds covers everything a typical run needs.
+// Usage: java MarathiLauncher <script.marathi>
+//        java MarathiLauncher --train    Runs a built-in script that touches every statement type, to record an archive
+public class MarathiLauncher {
+    private static final String TRAINING_SCRIPT = String.join("\n",
+            "he aahe a = [3, 1, 2];",
+            "he aahe n = navin(4);",
+            "bhara(n, 7);",
+            "a[0] = a[1] + lambi(a);",
+            "he aahe s = \"x\";",
+            "karya f(k) {",
+            "    jar (k < 1)",
+            "        parat(0);",
+            "    nahitar",
+            "        parat(k + f(k - 1));",
+            "}",
+            "he aahe i = 0;",
+            "joparyant (i < 3)",
+            "    s = s + i;",
+            "    i = i + 1;",
+            "sampel",
+            "paryant (he aahe j = 0;; j < 3; j = j + 1;)",
+            "    chapa(s + f(j) + beriz(a) + kimaan(a) + kamaal(n[0], 2));",
+            "sampel",
+            "he aahe total = 0;",
+            "samantar (k = 0, 8; total)",
+            "    total = total + k;",
+            "sampel",
+            "jar (s == \"x012\")",
+            "    chapa(total);",
+            "nahitar",
+            "    chapa(a);");
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: java MarathiLauncher <script.marathi>");
+            System.exit(2);
+        }
+
+        String source;
+        Path directory = null;  // aayat paths in the training script resolve against the working directory
+        if (args[0].equals("--train")) {
+            source = TRAINING_SCRIPT;
+        } else {
+            directory = Paths.get(args[0]).toAbsolutePath().getParent();
+            try (InputStream in = new FileInputStream(args[0])) {
+                source = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                System.err.println("Error: cannot read " + args[0] + ": " + e.getMessage());
+                System.exit(2);
+                return;
+            }
+        }
+        MarathiOps.runMain(new ScriptRun(source, directory, args[0].equals("--train")));
+    }
+
+    // Tokenizes, parses and runs the script, sending each chapa line to the output it is given
+    private static class ScriptRun implements Consumer<Consumer<String>> {
+        private final String source;
+        private final Path directory;
+        private final boolean quiet;
+
+        ScriptRun(String source, Path directory, boolean quiet) {
+            this.source = source;
+            this.directory = directory;
+            this.quiet = quiet;
+        }
+
+        @Override
+        public void accept(Consumer<String> output) {
+            ASTNode ast = MarathiModuleLoader.shared().parse(source, directory);
+            MarathiInterpreter interpreter = new MarathiInterpreter();
+            if (!quiet) {
+                interpreter.setOutputListener(output);
+            }
+            interpreter.interpret(ast);
+        }
+    }
+}
@@ -0,0 +1,807 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Runs a MarathiFlatAst without using the Java stack, with the same semantics and error messages as
+// MarathiFlatInterpreter. Every statement or expression being run has a frame on a control stack kept in int
+// arrays: the node, how far the node has got, and one spare int. Values being computed sit on an operand stack,
+// and each karya call saves the caller's undo-log marks on a third stack. A step advances the top frame by one
+// stage, so karya can recurse as deep as the heap allows, a run can stop after any step and carry on later,
+// and a stopped run can be copied into an independent machine.
+public class MarathiMachine {
+    private static final int DISCARD = -1;  // Frame node that drops the value of a karya called as a statement
+    private static final int PUBLISH_INTERVAL = 1024;  // Statements between stores other threads are sure to see
+    private static final VarHandle STATEMENT_COUNT;
+
+    static {
+        try {
+            STATEMENT_COUNT = MethodHandles.lookup().findVarHandle(MarathiMachine.class, "statementCount", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private MarathiFlatAst program;
+    private byte[] kinds;
+    private int[] first;
+    private int[] second;
+    private int[] third;
+    private int[] lists;
+    private String[] symbols;
+    private String[] constants;
+
+    private Object[] values;  // Current value of each symbol, null while it is unbound
+    private int[] functions;  // FUNCTION_DECL node declared under each symbol, or -1
+    private MethodHandle[] builtins;  // Intrinsic each CALL node linked to while no karya had its name
+    private long[] verifiedLoops;  // For each PARALLEL_FOR node, karyaDeclarations + 1 when it last passed the samantar checks
+    private long karyaDeclarations;  // The checks depend on the karya, so a check made before a declaration is redone
+    private int[][] loopAliases;  // For each checked PARALLEL_FOR node: written count, shared count, then the symbols of the alias check
+    private int[] undoSymbols = new int[64];  // Undo log of variable writes made inside karya calls
+    private Object[] undoValues = new Object[64];
+    private int undoSize;
+    private int[] seenStamps;  // Used while compacting the undo log, instead of a set
+    private int stamp;
+    private int callDepth;
+    private int frameMark;  // Start of the current call's entries in the undo log
+    private int frameUndoLimit;  // Log size that triggers compaction of the current call's entries
+    private int parallelDepth;  // samantar loops being run
+    private List<String> loopOutput = new ArrayList<>();  // Printed inside samantar; emitted once the loop completes
+    private Object returnValue;  // Set by parat while the frames above its karya call are dropped
+
+    private int[] frameNodes = new int[64];
+    private int[] framePcs = new int[64];  // Stage the frame has reached; its meaning depends on the node kind
+    private int[] frameSpares = new int[64];  // A karya called, an array index or a loop counter, by node kind
+    private int frameCount;
+    private Object[] operands = new Object[64];
+    private int operandCount;
+    private int[] callMarks = new int[64];  // frameMark and frameUndoLimit of the caller of each karya call
+    private int callMarkCount;
+
+    private StringBuilder outputBuffer = new StringBuilder();
+    private Consumer<String> outputListener;  // Receives each chapa line as it is printed
+    private volatile boolean cancelled;
+    private volatile boolean suspendRequested;
+    private long statementCount;  // Written only by the executing thread; see getStatementCount
+
+    public String getOutput() {
+        return outputBuffer.toString();
+    }
+
+    public void setOutputListener(Consumer<String> outputListener) {
+        this.outputListener = outputListener;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Makes run return after its current step; may be called from any thread
+    public void suspend() {
+        suspendRequested = true;
+    }
+
+    // Exact once the run has finished. While it runs, another thread sees the count as of the last
+    // PUBLISH_INTERVAL statements: the counter is a plain field, so counting costs no fence per statement.
+    public long getStatementCount() {
+        return (long) STATEMENT_COUNT.getOpaque(this);
+    }
+
+    // Frames on the control stack, about five per karya call in progress
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public boolean isFinished() {
+        return frameCount == 0;
+    }
+
+    public void interpret(MarathiFlatAst program) {
+        start(program);
+        run(Long.MAX_VALUE);
+    }
+
+    // Sets up a run of program; nothing runs until run is called
+    public void start(MarathiFlatAst program) {
+        this.program = program;
+        kinds = program.getKinds();
+        first = program.getFirst();
+        second = program.getSecond();
+        third = program.getThird();
+        lists = program.getLists();
+        symbols = program.getSymbols();
+        constants = program.getConstants();
+        values = new Object[symbols.length];
+        functions = new int[symbols.length];
+        Arrays.fill(functions, -1);
+        seenStamps = new int[symbols.length];
+        builtins = new MethodHandle[kinds.length];
+        verifiedLoops = new long[kinds.length];
+        loopAliases = new int[kinds.length][];
+        pushStatement(program.getRoot());
+    }
+
+    // Runs at most maxSteps steps, or until suspend is called. Returns true once the script has finished.
+    // An error ends the run, so the machine counts as finished after it.
+    public boolean run(long maxSteps) {
+        suspendRequested = false;
+        try {
+            for (long steps = 0; frameCount > 0 && steps < maxSteps && !suspendRequested; steps++) {
+                if (cancelled) {
+                    throw new ExecutionCancelledException();
+                }
+                step();
+            }
+        } catch (RuntimeException e) {
+            Arrays.fill(operands, 0, operandCount, null);
+            frameCount = 0;
+            operandCount = 0;
+            throw e;
+        }
+        return frameCount == 0;
+    }
+
+    // An independent copy of a machine that is not running, which carries on from the same point when run.
+    // Arrays the script can reach are copied too, keeping any sharing between variables. The copy starts
+    // with no output of its own and no listener; the program itself is shared, since nothing changes it.
+    public MarathiMachine snapshot() {
+        MarathiMachine copy = new MarathiMachine();
+        IdentityHashMap<Object, Object> copied = new IdentityHashMap<>();
+        copy.program = program;
+        copy.kinds = kinds;
+        copy.first = first;
+        copy.second = second;
+        copy.third = third;
+        copy.lists = lists;
+        copy.symbols = symbols;
+        copy.constants = constants;
+        copy.values = copyValues(values, values.length, copied);
+        copy.functions = functions.clone();
+        copy.builtins = builtins.clone();
+        copy.verifiedLoops = verifiedLoops.clone();
+        copy.loopAliases = loopAliases.clone();
+        copy.karyaDeclarations = karyaDeclarations;
+        copy.undoSymbols = Arrays.copyOf(undoSymbols, Math.max(64, undoSize));
+        copy.undoValues = copyValues(undoValues, Math.max(64, undoSize), copied);
+        copy.undoSize = undoSize;
+        copy.seenStamps = new int[seenStamps.length];
+        copy.callDepth = callDepth;
+        copy.frameMark = frameMark;
+        copy.frameUndoLimit = frameUndoLimit;
+        copy.parallelDepth = parallelDepth;
+        copy.loopOutput = new ArrayList<>(loopOutput);
+        copy.returnValue = copyValue(returnValue, copied);
+        copy.frameNodes = Arrays.copyOf(frameNodes, Math.max(64, frameCount));
+        copy.framePcs = Arrays.copyOf(framePcs, Math.max(64, frameCount));
+        copy.frameSpares = Arrays.copyOf(frameSpares, Math.max(64, frameCount));
+        copy.frameCount = frameCount;
+        copy.operands = copyValues(operands, Math.max(64, operandCount), copied);
+        copy.operandCount = operandCount;
+        copy.callMarks = Arrays.copyOf(callMarks, Math.max(64, callMarkCount));
+        copy.callMarkCount = callMarkCount;
+        copy.statementCount = statementCount;
+        return copy;
+    }
+
+    // Strings and ropes never change, so only arrays and kosh need copying
+    private static Object[] copyValues(Object[] source, int length, IdentityHashMap<Object, Object> copied) {
+        Object[] target = new Object[length];
+        for (int i = 0; i < Math.min(length, source.length); i++) {
+            target[i] = copyValue(source[i], copied);
+        }
+        return target;
+    }
+
+    private static Object copyValue(Object value, IdentityHashMap<Object, Object> copied) {
+        if (value instanceof int[]) {
+            return copied.computeIfAbsent(value, array -> ((int[]) array).clone());
+        } else if (value instanceof MarathiMap) {
+            MarathiMap copy = (MarathiMap) copied.get(value);
+            if (copy == null) {
+                MarathiMap map = (MarathiMap) value;
+                copy = new MarathiMap();
+                copied.put(value, copy);  // Before the values, so a kosh that holds itself is copied once
+                for (int entry = 0; entry < map.size(); entry++) {
+                    copy.put(map.key(entry), copyValue(map.value(entry), copied));
+                }
+            }
+            return copy;
+        } else if (value instanceof Object[]) {  // Variables saved by a samantar loop
+            Object copy = copied.get(value);
+            if (copy == null) {
+                copy = copyValues((Object[]) value, ((Object[]) value).length, copied);
+                copied.put(value, copy);
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    // ---- Stacks ----
+
+    private void pushFrame(int node) {
+        if (frameCount == frameNodes.length) {
+            int capacity = frameCount * 2;
+            frameNodes = Arrays.copyOf(frameNodes, capacity);
+            framePcs = Arrays.copyOf(framePcs, capacity);
+            frameSpares = Arrays.copyOf(frameSpares, capacity);
+        }
+        frameNodes[frameCount] = node;
+        framePcs[frameCount] = 0;
+        frameSpares[frameCount] = 0;
+        frameCount++;
+    }
+
+    private void pushStatement(int node) {
+        if ((++statementCount & (PUBLISH_INTERVAL - 1)) == 0) {
+            STATEMENT_COUNT.setOpaque(this, statementCount);
+        }
+        if (kinds[node] == MarathiFlatAst.CALL) {
+            pushFrame(DISCARD);
+        }
+        pushFrame(node);
+    }
+
+    // Literals and variables are read right away instead of getting a frame
+    private void pushExpression(int node) {
+        int a = first[node];
+        switch (kinds[node]) {
+            case MarathiFlatAst.NUMBER:
+                pushOperand(a);
+                return;
+            case MarathiFlatAst.STRING:
+                pushOperand(constants[a]);
+                return;
+            case MarathiFlatAst.VARIABLE:
+                pushOperand(MarathiOps.read(values[a], symbols[a]));
+                return;
+            default:
+                pushFrame(node);
+        }
+    }
+
+    private void pushOperand(Object value) {
+        if (operandCount == operands.length) {
+            operands = Arrays.copyOf(operands, operandCount * 2);
+        }
+        operands[operandCount++] = value;
+    }
+
+    private Object popOperand() {
+        Object value = operands[--operandCount];
+        operands[operandCount] = null;
+        return value;
+    }
+
+    private void pushCallMarks() {
+        if (callMarkCount == callMarks.length) {
+            callMarks = Arrays.copyOf(callMarks, callMarkCount * 2);
+        }
+        callMarks[callMarkCount++] = frameMark;
+        callMarks[callMarkCount++] = frameUndoLimit;
+        frameMark = undoSize;
+        frameUndoLimit = 16;
+    }
+
+    // ---- Steps ----
+
+    private void step() {
+        int top = frameCount - 1;
+        int node = frameNodes[top];
+        if (node == DISCARD) {
+            popOperand();
+            frameCount--;
+            return;
+        }
+        int pc = framePcs[top];
+        int a = first[node];
+        switch (kinds[node]) {
+            case MarathiFlatAst.BLOCK:
+                if (pc < lists[a]) {
+                    framePcs[top] = pc + 1;
+                    pushStatement(lists[a + 1 + pc]);
+                } else {
+                    frameCount--;
+                }
+                return;
+            case MarathiFlatAst.IF:
+                if (pc == 0) {
+                    framePcs[top] = 1;
+                    pushExpression(a);
+                } else {
+                    frameCount--;
+                    if (popOperand() == Boolean.TRUE) {
+                        pushStatement(second[node]);
+                    } else if (third[node] >= 0) {
+                        pushStatement(third[node]);
+                    }
+                }
+                return;
+            case MarathiFlatAst.VAR_DECL:
+                if (pc == 0) {
+                    framePcs[top] = 1;
+                    pushExpression(second[node]);
+                } else {
+                    frameCount--;
+                    store(a, MarathiOps.declared(popOperand(), symbols[a]));
+                }
+                return;
+            case MarathiFlatAst.ASSIGN:
+                if (pc == 0) {
+                    framePcs[top] = 1;
+                    pushExpression(second[node]);
+                } else {
+                    frameCount--;
+                    store(a, MarathiOps.assigned(popOperand()));
+                }
+                return;
+            case MarathiFlatAst.ARRAY_ASSIGN:
+                if (pc == 0) {  // The array or kosh is looked up before the index and value are evaluated
+                    framePcs[top] = 1;
+                    pushOperand(MarathiOps.container(values[a], symbols[a]));
+                    pushExpression(second[node]);
+                } else if (pc == 1) {
+                    if (operands[operandCount - 2] instanceof MarathiMap) {
+                        framePcs[top] = 3;  // The key stays on the operand stack
+                    } else {
+                        Object index = popOperand();
+                        framePcs[top] = 2;
+                        frameSpares[top] = MarathiOps.index((int[]) operands[operandCount - 1], index, symbols[a]);
+                    }
+                    pushExpression(third[node]);
+                } else if (pc == 2) {
+                    int element = MarathiOps.element(popOperand());
+                    ((int[]) popOperand())[frameSpares[top]] = element;
+                    frameCount--;
+                } else {
+                    Object value = popOperand();
+                    Object key = popOperand();
+                    MarathiOps.set(popOperand(), key, value, symbols[a], parallelDepth > 0);
+                    frameCount--;
+                }
+                return;
+            case MarathiFlatAst.PRINT:
+                if (pc == 0) {
+                    framePcs[top] = 1;
+                    pushExpression(a);
+                } else {
+                    frameCount--;
+                    emit(MarathiValues.format(popOperand()));
+                }
+                return;
+            case MarathiFlatAst.WHILE:
+                if (pc == 0) {
+                    framePcs[top] = 1;
+                    pushExpression(a);
+                } else if (popOperand() == Boolean.TRUE) {
+                    framePcs[top] = 0;
+                    pushStatement(second[node]);
+                } else {
+                    frameCount--;
+                }
+                return;
+            case MarathiFlatAst.FOR:
+                if (pc == 0) {
+                    framePcs[top] = 1;
+                    pushStatement(a);
+                } else if (pc == 1) {
+                    framePcs[top] = 2;
+                    pushExpression(second[node]);
+                } else if (pc == 2) {
+                    if (popOperand() == Boolean.TRUE) {
+                        framePcs[top] = 3;
+                        pushStatement(lists[third[node] + 2]);
+                    } else {
+                        frameCount--;
+                    }
+                } else {
+                    framePcs[top] = 1;
+                    pushStatement(lists[third[node] + 1]);
+                }
+                return;
+            case MarathiFlatAst.PARALLEL_FOR:
+                stepParallelFor(top, node, pc);
+                return;
+            case MarathiFlatAst.FOR_EACH:
+                // While the body runs, the operand stack holds the kosh and its size when the loop started,
+                // and the spare int holds the next entry
+                if (pc == 0) {
+                    framePcs[top] = 1;
+                    pushExpression(second[node]);
+                } else if (pc == 1) {
+                    MarathiMap map = MarathiOps.map(popOperand());
+                    pushOperand(map);
+                    pushOperand(map.size());
+                    framePcs[top] = 2;
+                } else if (frameSpares[top] < (Integer) operands[operandCount - 1]) {
+                    int entry = frameSpares[top];
+                    store(a, ((MarathiMap) operands[operandCount - 2]).key(entry));
+                    frameSpares[top] = entry + 1;
+                    pushStatement(third[node]);
+                } else {
+                    popOperand();
+                    popOperand();
+                    frameCount--;
+                }
+                return;
+            case MarathiFlatAst.FUNCTION_DECL:
+                if (parallelDepth > 0) {
+                    throw new RuntimeException("karya '" + symbols[a] + "' cannot be declared inside a samantar loop");
+                }
+                functions[a] = node;
+                karyaDeclarations++;
+                frameCount--;
+                return;
+            case MarathiFlatAst.CALL:
+                stepCall(top, node, pc);
+                return;
+            case MarathiFlatAst.RETURN:
+                if (pc == 0) {
+                    framePcs[top] = 1;
+                    pushExpression(a);
+                } else {
+                    frameCount--;
+                    returnValue = popOperand();
+                    unwindToCall();
+                }
+                return;
+            case MarathiFlatAst.ADD:
+            case MarathiFlatAst.SUBTRACT:
+            case MarathiFlatAst.MULTIPLY:
+            case MarathiFlatAst.DIVIDE:
+            case MarathiFlatAst.REMAINDER:
+            case MarathiFlatAst.LESS:
+            case MarathiFlatAst.GREATER:
+            case MarathiFlatAst.LESS_EQUAL:
+            case MarathiFlatAst.GREATER_EQUAL:
+            case MarathiFlatAst.EQUAL:
+            case MarathiFlatAst.NOT_EQUAL:
+            case MarathiFlatAst.BAD_CONDITION:
+                if (pc == 0) {
+                    framePcs[top] = 1;
+                    pushExpression(a);
+                } else if (pc == 1) {
+                    framePcs[top] = 2;
+                    pushExpression(second[node]);
+                } else {
+                    Object right = popOperand();
+                    Object left = popOperand();
+                    frameCount--;
+                    pushOperand(operate(node, left, right));
+                }
+                return;
+            case MarathiFlatAst.ARRAY_ACCESS:
+                if (pc == 0) {
+                    framePcs[top] = 1;
+                    pushOperand(MarathiOps.container(values[a], symbols[a]));
+                    pushExpression(second[node]);
+                } else {
+                    Object index = popOperand();
+                    Object container = popOperand();
+                    frameCount--;
+                    pushOperand(MarathiOps.get(container, index, symbols[a]));
+                }
+                return;
+            case MarathiFlatAst.ARRAY_LITERAL: {
+                int count = lists[a];
+                if (pc == 0) {
+                    pushOperand(new int[count]);
+                } else {
+                    int element = MarathiOps.element(popOperand());
+                    ((int[]) operands[operandCount - 1])[pc - 1] = element;
+                }
+                if (pc < count) {
+                    framePcs[top] = pc + 1;
+                    pushExpression(lists[a + 1 + pc]);
+                } else {
+                    frameCount--;
+                }
+                return;
+            }
+            case MarathiFlatAst.FAIL:
+                throw new RuntimeException(constants[a]);
+            default:
+                throw new RuntimeException("Unexpected AST node kind: " + kinds[node]);
+        }
+    }
+
+    private Object operate(int node, Object left, Object right) {
+        switch (kinds[node]) {
+            case MarathiFlatAst.ADD: return MarathiOps.add(left, right);
+            case MarathiFlatAst.SUBTRACT: return MarathiOps.subtract(left, right);
+            case MarathiFlatAst.MULTIPLY: return MarathiOps.multiply(left, right);
+            case MarathiFlatAst.DIVIDE: return MarathiOps.divide(left, right);
+            case MarathiFlatAst.REMAINDER: return MarathiOps.remainder(left, right);
+            default:
+                break;
+        }
+        int comparison = MarathiOps.compare(left, right);
+        switch (kinds[node]) {
+            case MarathiFlatAst.LESS: return comparison < 0;
+            case MarathiFlatAst.GREATER: return comparison > 0;
+            case MarathiFlatAst.LESS_EQUAL: return comparison <= 0;
+            case MarathiFlatAst.GREATER_EQUAL: return comparison >= 0;
+            case MarathiFlatAst.EQUAL: return comparison == 0;
+            case MarathiFlatAst.NOT_EQUAL: return comparison != 0;
+            default: throw new RuntimeException("Unknown operator: " + constants[third[node]]);
+        }
+    }
+
+    // Stage 0 picks the target, stages 1 to n evaluate the arguments, stage n + 1 runs the karya's body and
+    // stage n + 2 is reached when the body ends without parat. The spare int holds the karya, or -1 for an intrinsic.
+    private void stepCall(int top, int node, int pc) {
+        int symbol = first[node];
+        int arguments = second[node];
+        int count = lists[arguments];
+        if (pc == 0) {
+            int function = functions[symbol];
+            if (function >= 0) {
+                if (lists[second[function]] != count) {
+                    throw new RuntimeException("Argument count mismatch for function: " + symbols[symbol]);
+                }
+            } else if (builtins[node] == null) {
+                MethodHandle builtin = MarathiBuiltins.lookup(symbols[symbol], count);
+                if (builtin == null) {
+                    throw new RuntimeException("Function not defined: " + symbols[symbol]);
+                }
+                builtins[node] = builtin;
+            }
+            frameSpares[top] = function;
+        }
+        if (pc < count) {
+            framePcs[top] = pc + 1;
+            pushExpression(lists[arguments + 1 + pc]);
+            return;
+        }
+
+        int function = frameSpares[top];
+        if (pc == count + 1) {
+            finishCall(null);
+        } else if (function >= 0) {
+            // Every argument is evaluated before any parameter is bound, so arguments see the caller's values
+            int parameters = second[function];
+            pushCallMarks();
+            callDepth++;
+            int base = operandCount - count;
+            for (int i = 0; i < count; i++) {
+                store(lists[parameters + 1 + i], operands[base + i]);
+            }
+            Arrays.fill(operands, base, operandCount, null);
+            operandCount = base;
+            framePcs[top] = count + 1;
+            pushStatement(third[function]);
+        } else {
+            Object result = invokeBuiltin(builtins[node], count);
+            frameCount--;
+            pushOperand(result);
+        }
+    }
+
+    // Ends the karya call on top of the control stack
+    private void finishCall(Object result) {
+        restoreVariables(frameMark);
+        callDepth--;
+        frameUndoLimit = callMarks[--callMarkCount];
+        frameMark = callMarks[--callMarkCount];
+        frameCount--;
+        pushOperand(result);
+    }
+
+    // Drops the frames between a parat and its karya call. A samantar body ends its iteration there instead,
+    // as in MarathiFlatInterpreter.
+    private void unwindToCall() {
+        while (frameCount > 0) {
+            int node = frameNodes[frameCount - 1];
+            if (node >= 0 && kinds[node] == MarathiFlatAst.CALL) {
+                Object result = returnValue;
+                returnValue = null;
+                finishCall(result);
+                return;
+            } else if (node >= 0 && kinds[node] == MarathiFlatAst.PARALLEL_FOR) {
+                return;
+            } else if (node >= 0 && kinds[node] == MarathiFlatAst.FOR_EACH && framePcs[frameCount - 1] == 2) {
+                popOperand();  // The kosh and its size
+                popOperand();
+            }
+            frameCount--;
+        }
+        throw new RuntimeException("parat is only allowed inside a karya");
+    }
+
+    private Object invokeBuiltin(MethodHandle builtin, int count) {
+        int base = operandCount - count;
+        Object[] argumentValues = Arrays.copyOfRange(operands, base, operandCount);
+        Arrays.fill(operands, base, operandCount, null);
+        operandCount = base;
+        try {
+            switch (count) {
+                case 0:
+                    return (Object) builtin.invokeExact();
+                case 1:
+                    return (Object) builtin.invokeExact(argumentValues[0]);
+                case 2:
+                    return (Object) builtin.invokeExact(argumentValues[0], argumentValues[1]);
+                default:
+                    return builtin.invokeWithArguments(argumentValues);
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    // Iterations run one after another on a snapshot of the variables, as in MarathiFlatInterpreter.
+    // While the body runs, the operand stack holds the saved variables, the end of the range and the
+    // caller's call depth, and the spare int holds the next index.
+    private void stepParallelFor(int top, int node, int pc) {
+        int index = first[node];
+        int loop = second[node];
+        int reductionCount = lists[loop] - 3;
+        if (pc == 0) {
+            if (verifiedLoops[node] != karyaDeclarations + 1) {
+                verifyParallelLoop(node);
+                verifiedLoops[node] = karyaDeclarations + 1;
+            }
+            checkLoopAliases(node);
+            for (int i = 0; i < reductionCount; i++) {
+                int reduction = lists[loop + 4 + i];
+                MarathiOps.checkReduction(values[reduction], symbols[reduction]);
+            }
+            framePcs[top] = 1;
+            pushExpression(lists[loop + 1]);
+        } else if (pc == 1) {
+            frameSpares[top] = MarathiOps.loopBound(popOperand());
+            framePcs[top] = 2;
+            pushExpression(lists[loop + 2]);
+        } else if (pc == 2) {
+            int start = frameSpares[top];
+            int end = MarathiOps.loopBound(popOperand());
+            if (start >= end) {
+                frameCount--;
+                return;
+            }
+            pushOperand(values.clone());
+            pushOperand(end);
+            pushOperand(callDepth);
+            callDepth = 0;  // A samantar frame is a fresh interpreter, so its own writes are not logged
+            parallelDepth++;
+            for (int i = 0; i < reductionCount; i++) {
+                values[lists[loop + 4 + i]] = 0;
+            }
+            framePcs[top] = 3;
+        } else {
+            int i = frameSpares[top];
+            if (i < (Integer) operands[operandCount - 2]) {
+                values[index] = i;
+                frameSpares[top] = i + 1;
+                pushStatement(lists[loop + 3]);
+                return;
+            }
+            int[] partials = new int[reductionCount];
+            for (int r = 0; r < reductionCount; r++) {
+                partials[r] = (Integer) values[lists[loop + 4 + r]];
+            }
+            callDepth = (Integer) popOperand();
+            popOperand();
+            Object[] saved = (Object[]) popOperand();
+            System.arraycopy(saved, 0, values, 0, values.length);
+            parallelDepth--;
+            frameCount--;
+
+            if (parallelDepth == 0) {
+                for (String line : loopOutput) {
+                    emit(line);
+                }
+                loopOutput.clear();
+            }
+            for (int r = 0; r < reductionCount; r++) {
+                int reduction = lists[loop + 4 + r];
+                store(reduction, (Integer) values[reduction] + partials[r]);
+            }
+        }
+    }
+
+    // Runs MarathiInterpreter's checks on the loop, rebuilt as nodes, against the karya declared now
+    private void verifyParallelLoop(int node) {
+        MarathiInterpreter checker = new MarathiInterpreter();
+        for (int function : functions) {
+            if (function >= 0) {
+                checker.interpret(program.toTree(function));  // Only registers the karya
+            }
+        }
+        MarathiInterpreter.ParallelLoopCheck check = checker.checkParallelLoop((ParallelForNode) program.toTree(node));
+        String[] names = check.getAliasNames();
+        if (names == null) {
+            loopAliases[node] = null;
+            return;
+        }
+        List<String> symbolNames = Arrays.asList(symbols);
+        int[] aliases = new int[names.length + 2];
+        aliases[0] = check.getWrittenCount();
+        aliases[1] = check.getSharedCount();
+        for (int i = 0; i < names.length; i++) {
+            aliases[i + 2] = symbolNames.indexOf(names[i]);
+        }
+        loopAliases[node] = aliases;
+    }
+
+    private void checkLoopAliases(int node) {
+        int[] aliases = loopAliases[node];
+        if (aliases == null) {
+            return;
+        }
+        String[] names = new String[aliases.length - 2];
+        Object[] aliasValues = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = symbols[aliases[i + 2]];
+            aliasValues[i] = values[aliases[i + 2]];
+        }
+        MarathiOps.checkLoopAliases(symbols[first[node]], names, aliasValues, aliases[0], aliases[1]);
+    }
+
+    // ---- Variables and output ----
+
+    // Inside a karya every write is logged with the value it replaced and rolled back on return, as in MarathiInterpreter
+    private void store(int symbol, Object value) {
+        Object previous = values[symbol];
+        values[symbol] = value;
+        if (callDepth > 0) {
+            if (undoSize == undoSymbols.length) {
+                undoSymbols = Arrays.copyOf(undoSymbols, undoSize * 2);
+                undoValues = Arrays.copyOf(undoValues, undoSize * 2);
+            }
+            undoSymbols[undoSize] = symbol;
+            undoValues[undoSize] = previous;
+            undoSize++;
+            if (undoSize - frameMark > frameUndoLimit) {
+                compactUndoLog();
+            }
+        }
+    }
+
+    // Keeps only the first write of each variable in the current frame
+    private void compactUndoLog() {
+        stamp++;
+        int kept = frameMark;
+        for (int i = frameMark; i < undoSize; i++) {
+            int symbol = undoSymbols[i];
+            if (seenStamps[symbol] != stamp) {
+                seenStamps[symbol] = stamp;
+                undoSymbols[kept] = symbol;
+                undoValues[kept] = undoValues[i];
+                kept++;
+            }
+        }
+        Arrays.fill(undoValues, kept, undoSize, null);
+        undoSize = kept;
+        frameUndoLimit = 2 * (kept - frameMark) + 16;
+    }
+
+    private void restoreVariables(int mark) {
+        for (int i = undoSize - 1; i >= mark; i--) {
+            values[undoSymbols[i]] = undoValues[i];
+            undoValues[i] = null;
+        }
+        undoSize = mark;
+    }
+
+    private void emit(String message) {
+        if (parallelDepth > 0) {
+            loopOutput.add(message);
+            return;
+        }
+        outputBuffer.append(message).append("\n");
+        if (outputListener != null) {
+            outputListener.accept(message);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+import java.util.Arrays;
+
+// The kosh value: a hash map from integer or string keys to script values, kept in insertion order.
+// Entries are numbered as they are added and stored in fixed-size pages of parallel arrays: integer keys and
+// integer values sit in int arrays, and a page only gets Object arrays once a string key or a non-integer
+// value lands on it, so a map from integers to integers boxes nothing. The index is an open-addressing table
+// of entry numbers probed linearly. It doubles when half full, and the entries are moved into the larger
+// table a few at a time by the puts that follow, while lookups check both tables, so no single put pays
+// for rehashing the whole map. Entries are never removed. Reads don't change the map, so any number of
+// threads may read one as long as none writes it.
+public final class MarathiMap {
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int MIGRATION_STEP = 64;  // Entries moved to the new index by each put during a resize
+    private static final int HASH_MULTIPLIER = 0x9E3779B9;  // 2^32 divided by the golden ratio
+
+    private int[][] intKeys = new int[1][];
+    private String[][] stringKeys = new String[1][];  // A page's entry has a string key where this is non-null
+    private int[][] intValues = new int[1][];
+    private Object[][] objectValues = new Object[1][];  // A page's entry holds an Object value where this is non-null
+    private int size;
+
+    private int[] index = new int[16];  // Entry number + 1, or 0 for a free slot
+    private int shift = 32 - 4;  // 32 - log2(index.length)
+    private int[] previousIndex;  // The table being emptied during a resize, or null
+    private int previousShift;
+    private int migrated;  // Entries before this one are in index; the rest of the first 'resizeSize' are still in previousIndex
+    private int resizeSize;  // Entry count when the resize started
+
+    public int size() {
+        return size;
+    }
+
+    // The value stored under key, or null if there is none
+    public Object get(Object key) {
+        int entry = key instanceof Integer ? find((Integer) key) : find(stringKey(key));
+        return entry < 0 ? null : value(entry);
+    }
+
+    public boolean contains(Object key) {
+        return (key instanceof Integer ? find((Integer) key) : find(stringKey(key))) >= 0;
+    }
+
+    public void put(Object key, Object value) {
+        if (key instanceof Integer) {
+            put(((Integer) key).intValue(), value);
+            return;
+        }
+        String text = stringKey(key);
+        int entry = find(text);
+        if (entry < 0) {
+            entry = append(text.hashCode() * HASH_MULTIPLIER);
+            stringPage(entry)[entry & PAGE_MASK] = text;
+        }
+        setValue(entry, value);
+    }
+
+    public void put(int key, Object value) {
+        int entry = find(key);
+        if (entry < 0) {
+            entry = append(key * HASH_MULTIPLIER);
+            intKeys[entry >>> PAGE_BITS][entry & PAGE_MASK] = key;
+        }
+        setValue(entry, value);
+    }
+
+    public void put(int key, int value) {
+        int entry = find(key);
+        if (entry < 0) {
+            entry = append(key * HASH_MULTIPLIER);
+            intKeys[entry >>> PAGE_BITS][entry & PAGE_MASK] = key;
+        }
+        intValues[entry >>> PAGE_BITS][entry & PAGE_MASK] = value;
+        Object[] objects = objectValues[entry >>> PAGE_BITS];
+        if (objects != null) {
+            objects[entry & PAGE_MASK] = null;
+        }
+    }
+
+    // The key of the entry added 'entry'-th, as an Integer or a String
+    public Object key(int entry) {
+        String[] strings = stringKeys[entry >>> PAGE_BITS];
+        if (strings != null && strings[entry & PAGE_MASK] != null) {
+            return strings[entry & PAGE_MASK];
+        }
+        return intKeys[entry >>> PAGE_BITS][entry & PAGE_MASK];
+    }
+
+    public Object value(int entry) {
+        Object[] objects = objectValues[entry >>> PAGE_BITS];
+        if (objects != null && objects[entry & PAGE_MASK] != null) {
+            return objects[entry & PAGE_MASK];
+        }
+        return intValues[entry >>> PAGE_BITS][entry & PAGE_MASK];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int entry = 0; entry < size; entry++) {
+            if (entry > 0) {
+                builder.append(", ");
+            }
+            builder.append(key(entry)).append(": ").append(MarathiValues.format(value(entry)));
+        }
+        return builder.append('}').toString();
+    }
+
+    private static String stringKey(Object key) {
+        if (!(key instanceof CharSequence)) {
+            throw new RuntimeException("kosh keys must be integers or strings, found: " + MarathiValues.format(key));
+        }
+        return key.toString();  // Flattens a rope once, so lookups compare plain strings
+    }
+
+    // ---- Lookup ----
+
+    private int find(int key) {
+        int hash = key * HASH_MULTIPLIER;
+        int entry = probe(index, shift, hash, key, null);
+        if (entry < 0 && previousIndex != null) {
+            entry = probe(previousIndex, previousShift, hash, key, null);
+        }
+        return entry;
+    }
+
+    private int find(String key) {
+        int hash = key.hashCode() * HASH_MULTIPLIER;
+        int entry = probe(index, shift, hash, 0, key);
+        if (entry < 0 && previousIndex != null) {
+            entry = probe(previousIndex, previousShift, hash, 0, key);
+        }
+        return entry;
+    }
+
+    // The entry with the integer key, or the string key when it is non-null, or -1
+    private int probe(int[] table, int tableShift, int hash, int intKey, String stringKey) {
+        int mask = table.length - 1;
+        for (int slot = hash >>> tableShift; ; slot = (slot + 1) & mask) {
+            int entry = table[slot] - 1;
+            if (entry < 0) {
+                return -1;
+            }
+            String[] strings = stringKeys[entry >>> PAGE_BITS];
+            String found = strings != null ? strings[entry & PAGE_MASK] : null;
+            if (stringKey == null ? found == null && intKeys[entry >>> PAGE_BITS][entry & PAGE_MASK] == intKey
+                    : stringKey.equals(found)) {
+                return entry;
+            }
+        }
+    }
+
+    // ---- Growth ----
+
+    // Adds an entry with no key or value yet and returns its number
+    private int append(int hash) {
+        if (previousIndex != null) {
+            migrate(MIGRATION_STEP);
+        }
+        if (size + 1 > index.length >>> 1) {
+            if (previousIndex != null) {
+                migrate(resizeSize - migrated);  // Only if puts outran the migration; it normally ends long before
+            }
+            previousIndex = index;
+            previousShift = shift;
+            index = new int[index.length * 2];
+            shift--;
+            migrated = 0;
+            resizeSize = size;
+        }
+        int entry = size;
+        int page = entry >>> PAGE_BITS;
+        if (page == intKeys.length) {
+            // Only the page directories are copied; entries already stored never move
+            intKeys = Arrays.copyOf(intKeys, page * 2);
+            stringKeys = Arrays.copyOf(stringKeys, page * 2);
+            intValues = Arrays.copyOf(intValues, page * 2);
+            objectValues = Arrays.copyOf(objectValues, page * 2);
+        }
+        if (intKeys[page] == null || intKeys[page].length == (entry & PAGE_MASK)) {
+            growPage(page);
+        }
+        insert(index, shift, hash, entry);
+        size++;
+        return entry;
+    }
+
+    // Later pages are allocated full size. The first one starts small, since most maps are, and doubles up to
+    // the page size; copying it costs at most a page's worth of entries.
+    private void growPage(int page) {
+        int length = page > 0 ? PAGE_SIZE : intKeys[0] == null ? 8 : intKeys[0].length * 2;
+        intKeys[page] = intKeys[page] == null ? new int[length] : Arrays.copyOf(intKeys[page], length);
+        intValues[page] = intValues[page] == null ? new int[length] : Arrays.copyOf(intValues[page], length);
+        if (stringKeys[page] != null) {
+            stringKeys[page] = Arrays.copyOf(stringKeys[page], length);
+        }
+        if (objectValues[page] != null) {
+            objectValues[page] = Arrays.copyOf(objectValues[page], length);
+        }
+    }
+
+    private void migrate(int count) {
+        int end = Math.min(resizeSize, migrated + count);
+        for (; migrated < end; migrated++) {
+            insert(index, shift, hash(migrated), migrated);
+        }
+        if (migrated == resizeSize) {
+            previousIndex = null;
+        }
+    }
+
+    private int hash(int entry) {
+        String[] strings = stringKeys[entry >>> PAGE_BITS];
+        if (strings != null && strings[entry & PAGE_MASK] != null) {
+            return strings[entry & PAGE_MASK].hashCode() * HASH_MULTIPLIER;
+        }
+        return intKeys[entry >>> PAGE_BITS][entry & PAGE_MASK] * HASH_MULTIPLIER;
+    }
+
+    private static void insert(int[] table, int tableShift, int hash, int entry) {
+        int mask = table.length - 1;
+        int slot = hash >>> tableShift;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = entry + 1;
+    }
+
+    // ---- Values ----
+
+    private void setValue(int entry, Object value) {
+        Object[] objects = objectValues[entry >>> PAGE_BITS];
+        if (value instanceof Integer) {
+            intValues[entry >>> PAGE_BITS][entry & PAGE_MASK] = (Integer) value;
+            if (objects != null) {
+                objects[entry & PAGE_MASK] = null;
+            }
+        } else {
+            objectPage(entry)[entry & PAGE_MASK] = value;
+        }
+    }
+
+    // A page's Object array is allocated when the first entry on the page needs one, as long as its int arrays
+    private String[] stringPage(int entry) {
+        String[] page = stringKeys[entry >>> PAGE_BITS];
+        if (page == null) {
+            page = new String[intKeys[entry >>> PAGE_BITS].length];
+            stringKeys[entry >>> PAGE_BITS] = page;
+        }
+        return page;
+    }
+
+    private Object[] objectPage(int entry) {
+        Object[] page = objectValues[entry >>> PAGE_BITS];
+        if (page == null) {
+            page = new Object[intKeys[entry >>> PAGE_BITS].length];
+            objectValues[entry >>> PAGE_BITS] = page;
+        }
+        return page;
+    }
+}
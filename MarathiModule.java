@@ -0,0 +1,37 @@
+import java.nio.file.Path;
+import java.util.List;
+
+// A parsed .marathi file as MarathiModuleLoader caches it. Nothing here changes after parsing, so one
+// copy is shared by every interpreter that imports the file.
+public final class MarathiModule {
+    private final Path path;
+    private final long lastModified;  // Of the file that was parsed, in milliseconds
+    private final long size;
+    private final ASTNode body;
+    private final List<Path> imports;  // Files named by the module's aayat statements, in order
+
+    public MarathiModule(Path path, long lastModified, long size, ASTNode body, List<Path> imports) {
+        this.path = path;
+        this.lastModified = lastModified;
+        this.size = size;
+        this.body = body;
+        this.imports = imports;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public ASTNode getBody() {
+        return body;
+    }
+
+    public List<Path> getImports() {
+        return imports;
+    }
+
+    // Whether the file still looks the way it did when it was parsed
+    public boolean isCurrent(long lastModified, long size) {
+        return this.lastModified == lastModified && this.size == size;
+    }
+}
@@ -0,0 +1,172 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Reads, parses and type-checks the files scripts import with aayat. Everything a script imports, directly or
+// through other modules, is tokenized and parsed in parallel on the common fork/join pool before the script runs.
+// Parsed modules are cached for the whole JVM, so scripts importing the same library share one AST;
+// a cached module is parsed again when its file's timestamp or size changes.
+public final class MarathiModuleLoader {
+    private static final MarathiModuleLoader SHARED = new MarathiModuleLoader();
+
+    private final ConcurrentHashMap<Path, MarathiModule> cache = new ConcurrentHashMap<>();
+
+    public static MarathiModuleLoader shared() {
+        return SHARED;
+    }
+
+    // The module in this file, after loading every module it imports
+    public MarathiModule load(Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        MarathiModule module = current(path);
+        Set<Path> visited = ConcurrentHashMap.newKeySet();
+        visited.add(path);
+        loadAll(module.getImports(), visited);
+        return module;
+    }
+
+    // Parses and type-checks a script that doesn't come from the cache, such as the file a launcher was given,
+    // and loads what it imports. Relative aayat paths are resolved against directory, or the working directory if null.
+    public ASTNode parse(String source, Path directory) {
+        BlockNode program = parseSource(source, directory);
+        loadAll(importsOf(program), ConcurrentHashMap.<Path>newKeySet());
+        MarathiTypeChecker.check(program, false);
+        return program;
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    private void loadAll(List<Path> paths, Set<Path> visited) {
+        List<Path> pending = new ArrayList<>();
+        for (Path path : paths) {
+            if (visited.add(path)) {
+                pending.add(path);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        LoadRun run = new LoadRun(visited);
+        ForkJoinPool.commonPool().invoke(new LoadTask(pending, run));
+        if (run.error != null) {
+            throw run.error;
+        }
+    }
+
+    // The cached module for this file if the file hasn't changed, otherwise a freshly parsed one
+    private MarathiModule current(Path path) {
+        BasicFileAttributes attributes;
+        byte[] bytes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            MarathiModule cached = cache.get(path);
+            if (cached != null && cached.isCurrent(attributes.lastModifiedTime().toMillis(), attributes.size())) {
+                return cached;
+            }
+            bytes = Files.readAllBytes(path);  // Read after the timestamp, so a concurrent edit is picked up next time
+        } catch (NoSuchFileException e) {
+            throw new RuntimeException("Module not found: " + path);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read module " + path + ": " + e.getMessage());
+        }
+        BlockNode body;
+        try {
+            body = parseSource(new String(bytes, StandardCharsets.UTF_8), path.getParent());
+            MarathiTypeChecker.check(body, true);  // Before the module is shared, since the check marks its nodes
+        } catch (RuntimeException e) {
+            throw new RuntimeException("In module " + path + ": " + e.getMessage());
+        }
+        MarathiModule module = new MarathiModule(path, attributes.lastModifiedTime().toMillis(), attributes.size(),
+                body, importsOf(body));
+        cache.put(path, module);
+        return module;
+    }
+
+    private static BlockNode parseSource(String source, Path directory) {
+        MarathiTokenizer tokenizer = new MarathiTokenizer(source);
+        tokenizer.setDebug(false);
+        MarathiParser parser = new MarathiParser(tokenizer.tokenize(), directory);
+        parser.setLazyFunctionBodies(true);  // Karya that are never called are never parsed
+        parser.setParallel(true);
+        return (BlockNode) parser.parse();
+    }
+
+    // The parser only accepts aayat at the start of a file, so the imports are at the top level
+    private static List<Path> importsOf(BlockNode program) {
+        List<Path> imports = new ArrayList<>();
+        for (ASTNode statement : program.getStatements()) {
+            if (statement instanceof ImportNode) {
+                imports.add(((ImportNode) statement).getResolvedPath());
+            }
+        }
+        return Collections.unmodifiableList(imports);
+    }
+
+    // State shared by the tasks loading one script's imports
+    private static class LoadRun {
+        final Set<Path> visited;  // Files some task has already taken; an import cycle stops here
+        volatile RuntimeException error;  // First failure; rethrown on the calling thread with its message intact
+
+        LoadRun(Set<Path> visited) {
+            this.visited = visited;
+        }
+    }
+
+    // Loads one file and then, in parallel, the files it imports that no other task has taken yet.
+    // A task given several files splits into one task per file.
+    private class LoadTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> paths;
+        private final LoadRun run;
+
+        LoadTask(List<Path> paths, LoadRun run) {
+            this.paths = paths;
+            this.run = run;
+        }
+
+        @Override
+        protected void compute() {
+            if (paths.size() > 1) {
+                List<LoadTask> tasks = new ArrayList<>();
+                for (Path path : paths) {
+                    tasks.add(new LoadTask(Collections.singletonList(path), run));
+                }
+                invokeAll(tasks);
+                return;
+            }
+
+            Path path = paths.get(0);
+            MarathiModule module;
+            try {
+                module = current(path);
+            } catch (RuntimeException e) {
+                if (run.error == null) {
+                    run.error = e;
+                }
+                return;
+            }
+            List<Path> next = new ArrayList<>();
+            for (Path dependency : module.getImports()) {
+                if (run.visited.add(dependency)) {
+                    next.add(dependency);
+                }
+            }
+            if (!next.isEmpty()) {
+                new LoadTask(next, run).compute();
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.function.Consumer;
+
+// Operator semantics and runtime checks shared by MarathiInterpreter and the classes MarathiCompiler
+// generates, so a script fails with the same message whichever way it runs.
+public final class MarathiOps {
+    private MarathiOps() {
+    }
+
+    // Arithmetic operands are read as integers the way the interpreter always has: through their text,
+    // so "12" - 2 is 10
+    public static int toInt(Object value) {
+        if (value instanceof Integer) {
+            return (Integer) value;
+        }
+        return Integer.parseInt(value.toString());
+    }
+
+    public static Object add(Object left, Object right) {
+        if (left instanceof CharSequence || right instanceof CharSequence) {
+            return MarathiRope.concat(MarathiValues.toText(left), MarathiValues.toText(right));  // String concatenation, copied only when printed
+        }
+        return toInt(left) + toInt(right);  // Numeric addition
+    }
+
+    public static int subtract(Object left, Object right) {
+        return toInt(left) - toInt(right);
+    }
+
+    public static int subtract(Object left, int right) {
+        return toInt(left) - right;
+    }
+
+    public static int multiply(Object left, Object right) {
+        return toInt(left) * toInt(right);
+    }
+
+    public static int multiply(Object left, int right) {
+        return toInt(left) * right;
+    }
+
+    public static int divide(Object left, Object right) {
+        return toInt(left) / toInt(right);
+    }
+
+    public static int divide(Object left, int right) {
+        return toInt(left) / right;
+    }
+
+    public static int remainder(Object left, Object right) {
+        return toInt(left) % toInt(right);
+    }
+
+    public static int remainder(Object left, int right) {
+        return toInt(left) % right;
+    }
+
+    // Negative, zero or positive as left is less than, equal to or greater than right.
+    // Integers compare by value and strings by content, so ropes are flattened here.
+    public static int compare(Object left, Object right) {
+        if (left instanceof CharSequence && right instanceof CharSequence) {
+            return left.toString().compareTo(right.toString());
+        }
+        if (left instanceof Integer && right instanceof Integer) {
+            return Integer.compare((Integer) left, (Integer) right);
+        }
+        throw new RuntimeException("Both operands must be integers or both strings for condition evaluation.");
+    }
+
+    public static int compare(Object left, int right) {
+        if (left instanceof Integer) {
+            return Integer.compare((Integer) left, right);
+        }
+        return compare(left, (Object) right);
+    }
+
+    // Value of a variable that was read; null means it was never assigned
+    public static Object read(Object value, String name) {
+        if (value == null) {
+            throw new RuntimeException("Undefined variable: " + name);
+        }
+        return value;
+    }
+
+    public static Object declared(Object value, String name) {
+        if (isValue(value)) {
+            return value;
+        }
+        throw new RuntimeException("Variable '" + name + "' must be assigned an integer, string, array or kosh value.");
+    }
+
+    public static Object assigned(Object value) {
+        if (isValue(value)) {
+            return value;
+        }
+        throw new RuntimeException("Unsupported value type for assignment: " + value.getClass().getName());
+    }
+
+    // The array a variable holds, for a[i] reads and writes
+    public static int[] array(Object value, String name) {
+        if (value == null) {
+            throw new RuntimeException("Undefined variable: " + name);
+        }
+        if (!(value instanceof int[])) {
+            throw new RuntimeException("Variable '" + name + "' is not an array");
+        }
+        return (int[]) value;
+    }
+
+    // The array or kosh a variable holds, for x[k] reads and writes of either
+    public static Object container(Object value, String name) {
+        if (value == null) {
+            throw new RuntimeException("Undefined variable: " + name);
+        }
+        if (!(value instanceof int[]) && !(value instanceof MarathiMap)) {
+            throw new RuntimeException("Variable '" + name + "' is not an array or kosh");
+        }
+        return value;
+    }
+
+    // x[k] where x may be an array or a kosh
+    public static Object get(Object container, Object key, String name) {
+        if (container instanceof MarathiMap) {
+            Object value = ((MarathiMap) container).get(key);
+            if (value == null) {
+                throw new RuntimeException("kosh '" + name + "' has no key " + MarathiValues.format(key));
+            }
+            return value;
+        }
+        return load((int[]) container, key, name);
+    }
+
+    // x[k] = value where x may be an array or a kosh. samantar iterations share every kosh, so none may be
+    // changed while one runs.
+    public static void set(Object container, Object key, Object value, String name, boolean parallel) {
+        if (container instanceof MarathiMap) {
+            if (parallel) {
+                throw new RuntimeException("samantar body cannot write kosh '" + name + "', which is shared between iterations; fill it before or after the loop");
+            }
+            if (!isValue(value)) {
+                throw new RuntimeException("kosh values must be integers, strings, arrays or kosh");
+            }
+            ((MarathiMap) container).put(key, value);
+            return;
+        }
+        int[] array = (int[]) container;
+        int index = index(array, key, name);
+        array[index] = element(value);
+    }
+
+    // The kosh a pratyek loop runs over
+    public static MarathiMap map(Object value) {
+        if (!(value instanceof MarathiMap)) {
+            throw new RuntimeException("pratyek expects a kosh, found: " + (value == null ? "no value" : MarathiValues.format(value)));
+        }
+        return (MarathiMap) value;
+    }
+
+    public static int index(int[] array, Object index, String name) {
+        if (!(index instanceof Integer)) {
+            throw new RuntimeException("Array index must be an integer, found: " + MarathiValues.format(index));
+        }
+        return index(array, ((Integer) index).intValue(), name);
+    }
+
+    public static int index(int[] array, int index, String name) {
+        if (index < 0 || index >= array.length) {
+            throw new RuntimeException("Index " + index + " out of bounds for array '" + name + "' of length " + array.length);
+        }
+        return index;
+    }
+
+    public static int load(int[] array, Object index, String name) {
+        return array[index(array, index, name)];
+    }
+
+    public static int load(int[] array, int index, String name) {
+        return array[index(array, index, name)];
+    }
+
+    public static int element(Object value) {
+        if (!(value instanceof Integer)) {
+            throw new RuntimeException("Array elements must be integers, found: " + MarathiValues.format(value));
+        }
+        return (Integer) value;
+    }
+
+    private static boolean isValue(Object value) {
+        return value instanceof Integer || value instanceof CharSequence || value instanceof int[] || value instanceof MarathiMap;
+    }
+
+    public static int loopBound(Object value) {
+        if (!(value instanceof Integer)) {
+            throw new RuntimeException("samantar bounds must be integers, found: " + value);
+        }
+        return (Integer) value;
+    }
+
+    public static void checkReduction(Object value, String name) {
+        if (!(value instanceof Integer)) {
+            throw new RuntimeException("Reduction variable '" + name + "' must hold an integer before the samantar loop");
+        }
+    }
+
+    // The samantar checks let a body that writes a[i] read only a[i], by name. Each time the loop starts this
+    // makes sure no other variable it reads holds one of those arrays, and no kosh it reads holds one either.
+    // 'names' lists the first 'written' written arrays, then 'shared' variables read whole or at any index,
+    // then variables read only at the loop index, and 'values' holds what each name holds now.
+    public static void checkLoopAliases(String index, String[] names, Object[] values, int written, int shared) {
+        for (int w = 0; w < written; w++) {
+            if (!(values[w] instanceof int[])) {
+                continue;
+            }
+            for (int r = written; r < names.length; r++) {
+                if (r < written + shared && values[r] == values[w]) {
+                    throw new RuntimeException("samantar body writes " + names[w] + "[" + index + "] and reads " + names[r]
+                            + ", which holds the same array, so it can only read " + names[r] + "[" + index + "]");
+                }
+                if (values[r] instanceof MarathiMap && holds((MarathiMap) values[r], values[w], new IdentityHashMap<>())) {
+                    throw new RuntimeException("samantar body writes " + names[w] + "[" + index + "] and reads kosh " + names[r]
+                            + ", which holds the same array, so iterations could read each other's elements");
+                }
+            }
+        }
+    }
+
+    private static boolean holds(MarathiMap map, Object array, IdentityHashMap<Object, Boolean> visited) {
+        if (visited.put(map, Boolean.TRUE) != null) {
+            return false;
+        }
+        for (int entry = 0; entry < map.size(); entry++) {
+            Object value = map.value(entry);
+            if (value == array || (value instanceof MarathiMap && holds((MarathiMap) value, array, visited))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Lets generated code raise an error where an expression is expected
+    public static Object fail(String message) {
+        throw new RuntimeException(message);
+    }
+
+    // Entry point of a compiled script: chapa lines go to a buffered stdout, and a runtime error is
+    // reported the way MarathiBatchRunner reports it, after the output printed before it
+    public static void runMain(Consumer<Consumer<String>> script) {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        String error = null;
+        try {
+            script.accept(new LineWriter(writer));
+        } catch (RuntimeException | StackOverflowError e) {
+            error = e.getMessage() != null ? e.getMessage() : e.toString();
+        }
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (error != null) {
+            System.err.println("Error: " + error);
+            System.exit(1);
+        }
+    }
+
+    // A class rather than a lambda, which would pull in java.lang.invoke at startup
+    private static class LineWriter implements Consumer<String> {
+        private final Writer writer;
+
+        LineWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void accept(String line) {
+            try {
+                writer.write(line);
+                writer.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+import javax.swing.AbstractListModel;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Output lines shown by the editor's console, kept in a ring buffer of fixed capacity: once it is full,
+// each new line replaces the oldest one, so a script printing millions of lines holds only the latest.
+// The buffer is the model of a JList with fixed cell sizes, which paints only the rows in view.
+// With spilling on, every line is also written to a temporary file, so the full output can still be exported.
+// Used on the Event Dispatch Thread only.
+public class MarathiOutputBuffer extends AbstractListModel<String> {
+    private static final long serialVersionUID = 1L;
+
+    private final String[] lines;
+    private int first;  // Slot of the oldest kept line
+    private int size;
+    private long total;  // Lines added since the last clear, dropped ones included
+    private int longestLine;  // Characters in the longest line added since the last clear
+    private Path spillFile;
+    private BufferedWriter spill;
+
+    public MarathiOutputBuffer(int capacity) {
+        this.lines = new String[capacity];
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return lines[(first + index) % lines.length];
+    }
+
+    public void add(String line) {
+        addAll(Collections.singletonList(line));
+    }
+
+    // Appends a batch of lines, dropping the oldest ones when the buffer is full. Listeners get at most
+    // one removal and one addition per batch.
+    public void addAll(List<String> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int sizeBefore = size;
+        for (String line : batch) {
+            if (size == lines.length) {
+                lines[first] = line;
+                first = (first + 1) % lines.length;
+            } else {
+                lines[(first + size) % lines.length] = line;
+                size++;
+            }
+            longestLine = Math.max(longestLine, line.length());
+        }
+        total += batch.size();
+        writeSpill(batch);
+
+        int added = Math.min(batch.size(), lines.length);
+        int removed = Math.min(sizeBefore, sizeBefore + batch.size() - size);  // Old lines pushed out
+        if (removed > 0) {
+            fireIntervalRemoved(this, 0, removed - 1);
+        }
+        fireIntervalAdded(this, size - added, size - 1);
+    }
+
+    public void clear() {
+        int sizeBefore = size;
+        Arrays.fill(lines, null);
+        first = 0;
+        size = 0;
+        total = 0;
+        longestLine = 0;
+        if (spill != null) {
+            closeSpill();
+            openSpill();
+        }
+        if (sizeBefore > 0) {
+            fireIntervalRemoved(this, 0, sizeBefore - 1);
+        }
+    }
+
+    public long getTotalLines() {
+        return total;
+    }
+
+    // Lines no longer in the buffer because newer ones replaced them
+    public long getDroppedLines() {
+        return total - size;
+    }
+
+    public int getLongestLine() {
+        return longestLine;
+    }
+
+    // Starts or stops writing lines to a temporary file. Lines added before spilling started are not in it.
+    public void setSpilling(boolean spilling) {
+        if (spilling && spill == null) {
+            openSpill();
+        } else if (!spilling && spill != null) {
+            closeSpill();
+        }
+    }
+
+    public boolean isSpilling() {
+        return spill != null;
+    }
+
+    // Writes the output to target: every line since the last clear when spilling, otherwise the kept lines
+    public void export(Path target) throws IOException {
+        if (spill != null) {
+            spill.flush();
+            Files.copy(spillFile, target, StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < size; i++) {
+                writer.write(getElementAt(i));
+                writer.write('\n');
+            }
+        }
+    }
+
+    private void writeSpill(List<String> batch) {
+        if (spill == null) {
+            return;
+        }
+        try {
+            for (String line : batch) {
+                spill.write(line);
+                spill.write('\n');
+            }
+        } catch (IOException e) {
+            closeSpill();  // The kept lines are still shown; only the full history is lost
+            throw new UncheckedIOException("Cannot write the output history: " + e.getMessage(), e);
+        }
+    }
+
+    private void openSpill() {
+        try {
+            spillFile = Files.createTempFile("marathi-output", ".txt");
+            spillFile.toFile().deleteOnExit();
+            spill = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            spill = null;
+            throw new UncheckedIOException("Cannot create a file for the output history: " + e.getMessage(), e);
+        }
+    }
+
+    private void closeSpill() {
+        try {
+            spill.close();
+            Files.deleteIfExists(spillFile);
+        } catch (IOException e) {
+            // A temporary file left behind is removed when the JVM exits
+        }
+        spill = null;
+        spillFile = null;
+    }
+}
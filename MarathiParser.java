@@ -1,12 +1,42 @@
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class MarathiParser {
+    private static final int PARALLEL_MIN_TOKENS = 1 << 15;  // Below this a file is parsed on the calling thread
+    private static final int CHUNK_MIN_TOKENS = 1 << 12;
+
     private List<Token> tokens;
     private int currentPosition;
+    private Path directory;  // Relative aayat paths are resolved against this; null means the working directory
+    private boolean lazyFunctionBodies;  // Pre-parse mode: karya bodies are parsed on their first call
+    private boolean parallel;  // Top-level statements of a large file are parsed in chunks on the common pool
 
     public MarathiParser(List<Token> tokens) {
+        this(tokens, null);
+    }
+
+    public MarathiParser(List<Token> tokens, Path directory) {
         this.tokens = tokens;
         this.currentPosition = 0;
+        this.directory = directory;
+    }
+
+    // In pre-parse mode a karya body is only scanned for its closing brace, and FunctionDeclarationNode
+    // parses it when it is first needed, so a large library costs little until its karya are called.
+    // A syntax error inside a body is then reported when the body is first needed instead of up front.
+    public void setLazyFunctionBodies(boolean lazyFunctionBodies) {
+        this.lazyFunctionBodies = lazyFunctionBodies;
+    }
+
+    // In parallel mode parse() splits a large file at top-level statement boundaries and parses the pieces
+    // at the same time. The boundaries are found by a scan that only counts brackets and loop keywords, so
+    // if any piece does not parse to exactly its own end, the file is parsed again in one go; either way the
+    // result, or the error, is the same as parsing it sequentially.
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
     }
 
     private Token currentToken() {
@@ -21,6 +51,10 @@ public class MarathiParser {
         return token != null && token.getType().equals(type);
     }
 
+    private boolean matchNext(String type) {
+        return currentPosition + 1 < tokens.size() && tokens.get(currentPosition + 1).getType().equals(type);
+    }
+
     private Token consume(String expectedType) {
         if (currentPosition >= tokens.size()) {
             throw new RuntimeException("Unexpected end of input. Expected: " + expectedType);
@@ -33,8 +67,96 @@ public class MarathiParser {
         return token;
     }
 
+    // aayat statements come first, so a module's imports are known without looking at the rest of it
     public ASTNode parse() {
-        return parseBlock();
+        List<ASTNode> statements = new ArrayList<>();
+        while (match("IMPORT")) {
+            statements.add(parseImport());
+        }
+        boolean split = parallel && ForkJoinPool.getCommonPoolParallelism() > 1 && tokens.size() - currentPosition >= PARALLEL_MIN_TOKENS;
+        List<ASTNode> parsed = split ? parseChunks() : null;
+        statements.addAll(parsed != null ? parsed : ((BlockNode) parseBlock()).getStatements());
+        return new BlockNode(statements);
+    }
+
+    // The top-level statements from the current position on, parsed in parallel, or null if a chunk didn't parse
+    private List<ASTNode> parseChunks() {
+        List<Integer> boundaries = topLevelBoundaries();
+        int chunkTokens = Math.max(CHUNK_MIN_TOKENS, (tokens.size() - currentPosition) / (ForkJoinPool.getCommonPoolParallelism() * 4));
+        List<Integer> starts = new ArrayList<>();
+        starts.add(currentPosition);
+        for (int boundary : boundaries) {
+            if (boundary - starts.get(starts.size() - 1) >= chunkTokens) {
+                starts.add(boundary);
+            }
+        }
+        if (starts.size() == 1) {
+            return null;
+        }
+        starts.add(tokens.size());
+        List<ASTNode> statements = ForkJoinPool.commonPool().invoke(new ChunkTask(starts, 0, starts.size() - 1));
+        if (statements != null) {
+            currentPosition = tokens.size();
+        }
+        return statements;
+    }
+
+    // Positions after the current one where a top-level statement starts: after a ';', a karya's '}' or a
+    // loop's sampel that leaves no bracket or loop open. A jar at the top level has no closing keyword, so its
+    // branches run to the end of the file and the scan stops there.
+    private List<Integer> topLevelBoundaries() {
+        List<Integer> boundaries = new ArrayList<>();
+        int brackets = 0;  // Open (, [ and {
+        int loops = 0;  // Open joparyant, paryant, samantar and pratyek
+        for (int i = currentPosition; i < tokens.size(); i++) {
+            switch (tokens.get(i).getType()) {
+                case "LPAREN":
+                case "LBRACKET":
+                case "LBRACE":
+                    brackets++;
+                    continue;
+                case "RPAREN":
+                case "RBRACKET":
+                    brackets--;
+                    continue;
+                case "RBRACE":
+                    brackets--;
+                    break;
+                case "WHILE":
+                case "FOR":
+                case "PARALLEL_FOR":
+                case "FOR_EACH":
+                    loops++;
+                    continue;
+                case "END_WHILE":
+                    loops--;
+                    break;
+                case "IF":
+                    if (brackets == 0 && loops == 0) {
+                        return boundaries;
+                    }
+                    continue;
+                case "SEMICOLON":
+                    break;
+                default:
+                    continue;
+            }
+            if (brackets == 0 && loops == 0 && i + 1 < tokens.size()) {
+                boundaries.add(i + 1);
+            }
+        }
+        return boundaries;
+    }
+
+    // aayat "lib/ganit.marathi" mhanun ganit;
+    private ASTNode parseImport() {
+        consume("IMPORT");
+        String path = consume("STRING").getValue();
+        consume("AS");
+        String alias = consume("IDENTIFIER").getValue();
+        consume("SEMICOLON");
+        Path resolved = directory != null ? directory.resolve(path) : Paths.get(path);
+        return new ImportNode(path, alias, resolved.toAbsolutePath().normalize());
     }
 
     private ASTNode parseBlock() {
@@ -56,12 +178,28 @@ public class MarathiParser {
             return parseWhileLoop();
         } else if (match("FOR")) {  
             return parseForLoop();
+        } else if (match("PARALLEL_FOR")) {
+            return parseParallelForLoop();
+        } else if (match("FOR_EACH")) {
+            return parseForEachLoop();
         } else if (match("RETURN")) {  // Add case for return statements
             return parseReturnStatement();
+        } else if (match("IDENTIFIER") && matchNext("LPAREN")) {  // Call used as a statement, e.g. bhara(a, 0);
+            ASTNode call = parseFunctionCall(consume("IDENTIFIER").getValue());
+            consume("SEMICOLON");
+            return call;
+        } else if (match("IDENTIFIER") && matchNext("DOT")) {  // Call of a module's karya, e.g. ganit.chapaTable(5);
+            String module = consume("IDENTIFIER").getValue();
+            consume("DOT");
+            ASTNode call = parseFunctionCall(module, consume("IDENTIFIER").getValue());
+            consume("SEMICOLON");
+            return call;
         } else if (match("IDENTIFIER")) {  
             return parseAssignment();
         } else if (match("FUNCTION_DECL")) {  
             return parseFunctionDeclaration();
+        } else if (match("IMPORT")) {
+            throw new RuntimeException("aayat must come before every other statement");
         } else {
             throw new RuntimeException("Unexpected token: " + currentToken());
         }
@@ -69,12 +207,21 @@ public class MarathiParser {
 
     private ASTNode parseAssignment() {
         String variableName = consume("IDENTIFIER").getValue();  
+        ASTNode index = null;
+        if (match("LBRACKET")) {  // a[i] = value;
+            consume("LBRACKET");
+            index = parseExpression();
+            consume("RBRACKET");
+        }
         Token operator = consume("OPERATOR");  // Expect '='
         if (!operator.getValue().equals("=")) {
             throw new RuntimeException("Expected '=' but found: " + operator.getValue());
         }
         ASTNode expression = parseExpression();  
         consume("SEMICOLON");  
+        if (index != null) {
+            return new ArrayAssignmentNode(variableName, index, expression);
+        }
         return new AssignmentNode(variableName, expression);  
     }
 
@@ -121,7 +268,32 @@ public class MarathiParser {
             if (match("LPAREN")) {  // If there is a '(', it is a function call
                 return parseFunctionCall(variableName);
             }
+            if (match("DOT")) {  // ganit.varg(3) calls a module's karya, ganit.pi reads its variable
+                consume("DOT");
+                String member = consume("IDENTIFIER").getValue();
+                if (match("LPAREN")) {
+                    return parseFunctionCall(variableName, member);
+                }
+                return new VariableNode(variableName, member);
+            }
+            if (match("LBRACKET")) {  // a[i] reads an array element, m[k] a kosh value
+                consume("LBRACKET");
+                ASTNode index = parseExpression();
+                consume("RBRACKET");
+                return new ArrayAccessNode(variableName, index);
+            }
             return new VariableNode(variableName);  // Otherwise, it's a variable
+        } else if (match("LBRACKET")) {  // Array literal
+            consume("LBRACKET");
+            List<ASTNode> elements = new ArrayList<>();
+            while (!match("RBRACKET")) {
+                elements.add(parseExpression());
+                if (match("COMMA")) {
+                    consume("COMMA");
+                }
+            }
+            consume("RBRACKET");
+            return new ArrayLiteralNode(elements);
         } else if (match("NUMBER")) {
             return new NumberNode(consume("NUMBER").getValue());  // Handle numbers
         } else if (match("LPAREN")) {
@@ -182,28 +354,58 @@ public class MarathiParser {
         return new ForLoopNode(initialization, condition, increment, body);  
     }
 
-    // Modified this to handle both variables and numbers
-    private ASTNode parseCondition() {
-        ASTNode leftOperand;
-        if (match("NUMBER")) {
-            leftOperand = new NumberNode(consume("NUMBER").getValue());
-        } else if (match("IDENTIFIER")) {
-            leftOperand = new VariableNode(consume("IDENTIFIER").getValue());
-        } else {
-            throw new RuntimeException("Expected NUMBER or IDENTIFIER but found: " + currentToken().getValue());
+    // samantar (i = start, end; sum, count) body sampel; the reduction list may be empty or left out with its semicolon
+    private ASTNode parseParallelForLoop() {
+        consume("PARALLEL_FOR");
+        consume("LPAREN");
+        String indexVariable = consume("IDENTIFIER").getValue();
+        Token operator = consume("OPERATOR");  // Expect '='
+        if (!operator.getValue().equals("=")) {
+            throw new RuntimeException("Expected '=' but found: " + operator.getValue());
         }
+        ASTNode start = parseExpression();
+        consume("COMMA");
+        ASTNode end = parseExpression();
 
-        String operator = consume("OPERATOR").getValue();
-
-        ASTNode rightOperand;
-        if (match("NUMBER")) {
-            rightOperand = new NumberNode(consume("NUMBER").getValue());
-        } else if (match("IDENTIFIER")) {
-            rightOperand = new VariableNode(consume("IDENTIFIER").getValue());
-        } else {
-            throw new RuntimeException("Expected NUMBER or IDENTIFIER but found: " + currentToken().getValue());
+        List<String> reductionVariables = new ArrayList<>();
+        if (match("SEMICOLON")) {
+            consume("SEMICOLON");
+            if (!match("RPAREN")) {
+                reductionVariables.add(consume("IDENTIFIER").getValue());
+            }
+            while (!reductionVariables.isEmpty() && match("COMMA")) {
+                consume("COMMA");
+                reductionVariables.add(consume("IDENTIFIER").getValue());
+            }
         }
+        consume("RPAREN");
+
+        ASTNode body = parseBlock();
+        consume("END_WHILE");
+
+        return new ParallelForNode(indexVariable, start, end, reductionVariables, body);
+    }
+
+    // pratyek (k madhye m) body sampel runs the body once for each key of the kosh m, in the order they were added
+    private ASTNode parseForEachLoop() {
+        consume("FOR_EACH");
+        consume("LPAREN");
+        String keyVariable = consume("IDENTIFIER").getValue();
+        consume("IN");
+        ASTNode map = parseExpression();
+        consume("RPAREN");
+
+        ASTNode body = parseBlock();
+        consume("END_WHILE");
+
+        return new ForEachNode(keyVariable, map, body);
+    }
 
+    // Operands are full expressions, so conditions like a[i] < lambi(a) work
+    private ASTNode parseCondition() {
+        ASTNode leftOperand = parseExpression();
+        String operator = consume("OPERATOR").getValue();
+        ASTNode rightOperand = parseExpression();
         return new ConditionNode(leftOperand, operator, rightOperand);
     }
 
@@ -220,12 +422,91 @@ public class MarathiParser {
         }
         consume("RPAREN");  
         consume("LBRACE");  
+        if (lazyFunctionBodies) {
+            int end = closingBrace();
+            if (end >= 0) {
+                // Copied: a subList view would keep every token of the file alive until the karya is called
+                List<Token> bodyTokens = new ArrayList<>(tokens.subList(currentPosition, end + 1));
+                currentPosition = end + 1;
+                return new FunctionDeclarationNode(functionName, parameters, bodyTokens);
+            }
+        }
         ASTNode body = parseBlock();
         consume("RBRACE");  
         return new FunctionDeclarationNode(functionName, parameters, body);
     }
 
+    // Position of the brace closing the body that starts here, or -1 if the body has to be parsed now:
+    // a karya declared inside it must be visible before the body runs, and an unclosed body is an error
+    private int closingBrace() {
+        int depth = 1;
+        for (int i = currentPosition; i < tokens.size(); i++) {
+            String type = tokens.get(i).getType();
+            if (type.equals("FUNCTION_DECL")) {
+                return -1;
+            } else if (type.equals("LBRACE")) {
+                depth++;
+            } else if (type.equals("RBRACE") && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Parses the chunks from first to last, splitting the range in halves. Returns null if any chunk has an
+    // error or stops before its end, which means a boundary was not really between two statements.
+    private class ChunkTask extends RecursiveTask<List<ASTNode>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Integer> starts;
+        private final int first;
+        private final int last;
+
+        ChunkTask(List<Integer> starts, int first, int last) {
+            this.starts = starts;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected List<ASTNode> compute() {
+            if (last - first > 1) {
+                int middle = first + (last - first) / 2;
+                ChunkTask left = new ChunkTask(starts, first, middle);
+                left.fork();
+                List<ASTNode> rightStatements = new ChunkTask(starts, middle, last).compute();
+                List<ASTNode> leftStatements = left.join();
+                if (leftStatements == null || rightStatements == null) {
+                    return null;
+                }
+                leftStatements.addAll(rightStatements);
+                return leftStatements;
+            }
+
+            MarathiParser chunk = new MarathiParser(tokens.subList(starts.get(first), starts.get(last)), directory);
+            chunk.lazyFunctionBodies = lazyFunctionBodies;
+            try {
+                List<ASTNode> statements = new ArrayList<>(((BlockNode) chunk.parseBlock()).getStatements());
+                return chunk.currentPosition == chunk.tokens.size() ? statements : null;
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+    }
+
+    // Parses a body set aside in pre-parse mode; bodyTokens ends with the closing brace
+    static ASTNode parseFunctionBody(List<Token> bodyTokens) {
+        MarathiParser parser = new MarathiParser(bodyTokens);
+        ASTNode body = parser.parseBlock();
+        parser.consume("RBRACE");
+        return body;
+    }
+
     private ASTNode parseFunctionCall(String functionName) {
+        return parseFunctionCall(null, functionName);
+    }
+
+    private ASTNode parseFunctionCall(String module, String functionName) {
         consume("LPAREN");  // Consume the '('
         List<ASTNode> arguments = new ArrayList<>();
         while (!match("RPAREN")) {
@@ -235,7 +516,7 @@ public class MarathiParser {
             }
         }
         consume("RPAREN");  // Consume the ')'
-        return new FunctionCallNode(functionName, arguments);  // Return a FunctionCallNode
+        return new FunctionCallNode(module, functionName, arguments);  // Return a FunctionCallNode
     }
 
     private ASTNode parseReturnStatement() {
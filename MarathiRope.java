@@ -0,0 +1,93 @@
+import java.util.ArrayDeque;
+
+// Immutable string built by concatenation. Concatenating only links the two halves, so building a
+// long string piece by piece is linear; the characters are copied once, when the rope is first
+// printed or compared, and the flattened text is cached.
+public final class MarathiRope implements CharSequence {
+    private static final int MERGE_LIMIT = 64;  // Short pieces are copied right away instead of linked
+
+    private final CharSequence left;
+    private final CharSequence right;
+    private final int length;
+    private volatile String flat;  // Cached result of toString()
+
+    private MarathiRope(CharSequence left, CharSequence right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+    }
+
+    public static CharSequence concat(CharSequence left, CharSequence right) {
+        left = flattenedIfCached(left);
+        right = flattenedIfCached(right);
+        if (left.length() == 0) {
+            return right;
+        }
+        if (right.length() == 0) {
+            return left;
+        }
+        if (left instanceof String && right instanceof String && left.length() + right.length() <= MERGE_LIMIT) {
+            return (String) left + right;
+        }
+        return new MarathiRope(left, right);
+    }
+
+    // Reuses text that was already flattened so the old tree can be collected
+    private static CharSequence flattenedIfCached(CharSequence text) {
+        if (text instanceof MarathiRope) {
+            String cached = ((MarathiRope) text).flat;
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return text;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        String result = flat;
+        if (result == null) {
+            result = flatten();
+            flat = result;
+        }
+        return result;
+    }
+
+    // Walks the tree with an explicit stack; ropes built in a loop are as deep as the loop is long
+    private String flatten() {
+        StringBuilder builder = new StringBuilder(length);
+        ArrayDeque<CharSequence> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            CharSequence piece = pending.pop();
+            if (piece instanceof MarathiRope) {
+                MarathiRope rope = (MarathiRope) piece;
+                String cached = rope.flat;
+                if (cached != null) {
+                    builder.append(cached);
+                } else {
+                    pending.push(rope.right);
+                    pending.push(rope.left);
+                }
+            } else {
+                builder.append(piece);
+            }
+        }
+        return builder.toString();
+    }
+}
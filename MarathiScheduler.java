@@ -0,0 +1,357 @@
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Runs many scripts on a fixed number of slots. A script holds a slot while it runs a slice of steps, and when the
+// slice is used up it gives the slot to the next ready script and waits to be resumed.
+// The next script is picked by stride scheduling: each script advances a virtual clock by 1/priority per slice and
+// the one furthest behind runs next, so ready scripts share the slots in proportion to their priorities and none
+// starves.
+// A MarathiMachine keeps its whole state on the heap: a slice is a call to run(sliceSteps), and between slices the
+// script holds no thread at all. A MarathiInterpreter counts its slice down at loop back-edges and karya calls (its
+// safepoints), but its state lives on its Java stack, so a suspended interpreter keeps its thread, parked. At most
+// maxParked interpreters are suspended at once; past that, one whose slice is used up keeps its slot for another
+// slice. The pool is a fixed slots + maxParked threads however many scripts are submitted.
+public class MarathiScheduler {
+    public static final int NORMAL_PRIORITY = 4;
+    private static final long STRIDE_BASE = 1L << 20;  // Virtual time of one slice at priority 1
+
+    private final int sliceSteps;
+    private final int maxParked;
+    private final ExecutorService threads;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Task<?>> ready = new PriorityQueue<>(
+            Comparator.<Task<?>>comparingLong(task -> task.pass).thenComparingLong(task -> task.sequence));
+    private int freeSlots;
+    private long virtualTime;  // Pass of the last script given a slot; new scripts start from it
+    private long sequence;
+
+    // Statistics, guarded by lock
+    private long submitted;
+    private long completed;
+    private int suspended;  // Started scripts waiting in the ready queue
+    private int parked;  // Suspended interpreters, each holding a thread
+    private int maxQueueDepth;
+    private long slices;
+    private long preemptions;
+    private long sliceNanos;
+    private long maxSliceNanos;
+
+    public MarathiScheduler(int slots, int sliceSteps) {
+        this(slots, sliceSteps, slots);
+    }
+
+    public MarathiScheduler(int slots, int sliceSteps, int maxParked) {
+        if (slots < 1 || sliceSteps < 1 || maxParked < 0) {
+            throw new IllegalArgumentException("A scheduler needs at least one slot and a slice of at least one step");
+        }
+        this.freeSlots = slots;
+        this.sliceSteps = sliceSteps;
+        this.maxParked = maxParked;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.threads = Executors.newFixedThreadPool(slots + maxParked, runnable -> {
+            Thread thread = new Thread(runnable, "marathi-script-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Queues body to run with interpreter attached, so the interpreter's safepoints yield to other scripts.
+    // A script with twice the priority of another gets twice as many slices while both are ready.
+    public <T> CompletableFuture<T> submit(MarathiInterpreter interpreter, int priority, Callable<T> body) {
+        return enqueue(new Task<>(interpreter, null, null, priority, body));
+    }
+
+    // Queues a machine that has been started, to run until it finishes. onStart runs on the pool thread just
+    // before the first slice. The future completes with the machine, or with the error that ended its run; a
+    // machine cancelled while it waits stops when its next slice comes.
+    public CompletableFuture<MarathiMachine> submit(MarathiMachine machine, int priority, Runnable onStart) {
+        return enqueue(new Task<>(null, machine, onStart, priority, null));
+    }
+
+    private <T> CompletableFuture<T> enqueue(Task<T> task) {
+        lock.lock();
+        try {
+            task.sequence = sequence++;
+            task.pass = virtualTime + task.stride;
+            submitted++;
+            if (freeSlots > 0) {
+                freeSlots--;
+                dispatch(task);
+            } else {
+                ready.add(task);
+                maxQueueDepth = Math.max(maxQueueDepth, ready.size());
+            }
+        } finally {
+            lock.unlock();
+        }
+        return task.future;
+    }
+
+    // Lets running scripts finish; queued ones still run
+    public void shutdown() {
+        threads.shutdown();
+    }
+
+    public Stats getStats() {
+        lock.lock();
+        try {
+            return new Stats(ready.size(), maxQueueDepth, suspended, submitted, completed, slices, preemptions,
+                    slices > 0 ? sliceNanos / slices : 0, maxSliceNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Gives the task a slot: a new task or a machine runs on a pool thread, a suspended interpreter is woken.
+    // Called with lock held.
+    private void dispatch(Task<?> task) {
+        virtualTime = Math.max(virtualTime, task.pass);
+        task.running = true;
+        if (task.started) {
+            suspended--;
+        }
+        if (task.started && task.machine == null) {
+            parked--;
+            task.resumed.signal();
+        } else {
+            task.started = true;
+            threads.execute(task);
+        }
+    }
+
+    // Called by the task's own thread once its slice is used up. Returns whether the task went back to the ready
+    // queue, its slot passing to a script due ahead of it; otherwise the task runs another slice.
+    private boolean endSlice(Task<?> task) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            recordSlice(now - task.sliceStart);
+            task.pass += task.stride;
+            Task<?> next = ready.peek();
+            if (next == null || ready.comparator().compare(next, task) >= 0 || (task.machine == null && parked == maxParked)) {
+                task.sliceStart = System.nanoTime();
+                return false;
+            }
+            preemptions++;
+            task.running = false;
+            ready.add(task);
+            suspended++;
+            if (task.machine == null) {
+                parked++;
+            }
+            maxQueueDepth = Math.max(maxQueueDepth, ready.size());
+            dispatch(ready.poll());
+            if (task.machine == null) {
+                while (!task.running) {
+                    task.resumed.awaitUninterruptibly();
+                }
+                task.sliceStart = System.nanoTime();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void finish(Task<?> task) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            recordSlice(now - task.sliceStart);
+            completed++;
+            Task<?> next = ready.poll();
+            if (next != null) {
+                dispatch(next);  // The slot passes straight to the next script
+            } else {
+                freeSlots++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Moves a cancelled script to the front of the queue, so it stops soon rather than when its turn comes
+    private void expedite(Task<?> task) {
+        lock.lock();
+        try {
+            Task<?> head = ready.peek();
+            if (head != task && ready.remove(task)) {
+                task.pass = Math.min(task.pass, head.pass - 1);
+                ready.add(task);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recordSlice(long nanos) {
+        slices++;
+        sliceNanos += nanos;
+        maxSliceNanos = Math.max(maxSliceNanos, nanos);
+    }
+
+    // A submitted script, run by an interpreter or a machine. The fields other than the future are guarded by the
+    // scheduler's lock, except sliceStart, which only the running task's thread touches.
+    final class Task<T> implements Runnable {
+        private final MarathiInterpreter interpreter;
+        private final MarathiMachine machine;
+        private final Runnable onStart;  // Run before a machine's first slice, or null
+        private final long stride;
+        private final Callable<T> body;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final Condition resumed = lock.newCondition();
+        private long sequence;  // Breaks ties between equal passes in submission order
+        private long pass;  // Virtual time at which the task is due to run again
+        private boolean started;
+        private boolean running;
+        private long sliceStart;
+        private boolean sliced;  // A machine has run a slice; set by the thread running it, ordered by the lock
+
+        Task(MarathiInterpreter interpreter, MarathiMachine machine, Runnable onStart, int priority, Callable<T> body) {
+            if (priority < 1) {
+                throw new IllegalArgumentException("Priority must be at least 1, found: " + priority);
+            }
+            this.interpreter = interpreter;
+            this.machine = machine;
+            this.onStart = onStart;
+            this.stride = STRIDE_BASE / priority;
+            this.body = body;
+        }
+
+        @Override
+        public void run() {
+            sliceStart = System.nanoTime();
+            if (machine != null) {
+                runMachine();
+                return;
+            }
+            interpreter.attach(this, sliceSteps);
+            T result = null;
+            Throwable failure = null;
+            try {
+                result = body.call();
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                interpreter.attach(null, 0);
+                finish(this);  // Before the future completes, so a caller that waited sees the slot free
+            }
+            if (failure != null) {
+                future.completeExceptionally(failure);
+            } else {
+                future.complete(result);
+            }
+        }
+
+        // Runs slices until the machine finishes or another script is due; each run of the task is one turn on a slot
+        @SuppressWarnings("unchecked")
+        private void runMachine() {
+            try {
+                if (!sliced && onStart != null) {
+                    onStart.run();
+                }
+                sliced = true;
+                while (!machine.run(sliceSteps)) {
+                    if (MarathiScheduler.this.endSlice(this)) {
+                        return;  // Runs again when dispatched
+                    }
+                }
+            } catch (Throwable t) {
+                finish(this);
+                future.completeExceptionally(t);
+                return;
+            }
+            finish(this);
+            future.complete((T) machine);
+        }
+
+        // Called at an interpreter's safepoint; returns the steps in its next slice
+        int endSlice() {
+            MarathiScheduler.this.endSlice(this);
+            return sliceSteps;
+        }
+
+        void expedite() {
+            MarathiScheduler.this.expedite(this);
+        }
+    }
+
+    // Queue depth and slice statistics at one moment
+    public static class Stats {
+        private final int queueDepth;
+        private final int maxQueueDepth;
+        private final int suspended;
+        private final long submitted;
+        private final long completed;
+        private final long slices;
+        private final long preemptions;
+        private final long meanSliceNanos;
+        private final long maxSliceNanos;
+
+        Stats(int queueDepth, int maxQueueDepth, int suspended, long submitted, long completed, long slices,
+              long preemptions, long meanSliceNanos, long maxSliceNanos) {
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.suspended = suspended;
+            this.submitted = submitted;
+            this.completed = completed;
+            this.slices = slices;
+            this.preemptions = preemptions;
+            this.meanSliceNanos = meanSliceNanos;
+            this.maxSliceNanos = maxSliceNanos;
+        }
+
+        // Scripts waiting for a slot, whether new or suspended
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public int getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        // Scripts that started and are waiting to be resumed
+        public int getSuspended() {
+            return suspended;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getSlices() {
+            return slices;
+        }
+
+        // Slices that ended with the slot going to another script
+        public long getPreemptions() {
+            return preemptions;
+        }
+
+        public long getMeanSliceNanos() {
+            return meanSliceNanos;
+        }
+
+        public long getMaxSliceNanos() {
+            return maxSliceNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d scripts done, queue %d (max %d, %d suspended), %,d slices (mean %.3f ms, max %.3f ms), %,d preemptions",
+                    completed, submitted, queueDepth, maxQueueDepth, suspended, slices, meanSliceNanos / 1_000_000.0,
+                    maxSliceNanos / 1_000_000.0, preemptions);
+        }
+    }
+}
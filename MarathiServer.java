@@ -0,0 +1,592 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Long-running local server that runs scripts in one warm JVM, so a run pays neither JVM startup nor parsing
+// again, and hot scripts run JIT-compiled interpreter code. It listens on the loopback address only.
+//   POST /scripts       Parses and caches the script in the body; replies with its id
+//   POST /run           Runs the script in the body, caching it the same way
+//   POST /run?id=ID     Runs a cached script, with the body as its standard input (handle 0)
+//   GET  /stats         Throughput, latency percentiles and cache hit rate
+// A run replies with what the script printed, then an "Error: " line if it failed; its outcome and timing are in
+// X-Marathi-* headers. A script's id is a hash of its source, so a client can compute it without asking. Files a run
+// opens with ughad are its own handles, and any it doesn't band are closed when it ends.
+// Runs of the same script queue together, and a worker takes up to BATCH_LIMIT of them at a time and runs them back
+// to back on one pooled interpreter. The interpreter is reset between runs but keeps its karya slots, so the call
+// sites linked by the first run of a batch stay linked for the rest. A call site keeps a link for each of up to eight
+// interpreters, so workers running the same script at once don't relink each other's call sites. Queued runs of one
+// script form batches on their own once every worker is busy; until then each run starts at once. A request for the
+// same script with the same input as one still queued or running shares that run's result. Results aren't kept after
+// a run finishes, since a script may read files that change.
+// Usage: java MarathiServer [--port N] [--threads N] [--timeout SECONDS] [--cache SCRIPTS]
+public class MarathiServer {
+    private static final String USAGE = "Usage: java MarathiServer [--port N] [--threads N] [--timeout SECONDS] [--cache SCRIPTS]";
+
+    private static final int BATCH_LIMIT = 32;
+    private static final int ID_LENGTH = 32;  // Hex digits of the source's SHA-256 kept as a script's id
+    private static final int EXACT_MICROS = 32;  // Latencies below this many microseconds get a histogram bucket each
+
+    private int port = 7341;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long timeoutSeconds = 30;  // 0 means no timeout
+    private int cacheSize = 256;
+
+    private HttpServer server;
+    private ExecutorService workers;
+    private ExecutorService exchanges;  // Reads requests and writes replies, so a slow client never holds a worker
+    private ScheduledExecutorService watchdog;
+    private ArrayBlockingQueue<MarathiInterpreter> interpreters;  // One per worker, so a batch always finds one
+    private final AtomicInteger drainers = new AtomicInteger();  // Drain tasks queued or running, for every script
+    private final ConcurrentHashMap<String, CompletableFuture<Result>> inFlight = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, Script> scripts = new LinkedHashMap<String, Script>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Script> eldest) {
+            return size() > cacheSize;  // Least recently used first; runs already queued for it still run
+        }
+    };
+
+    // Statistics, guarded by statsLock
+    private final Object statsLock = new Object();
+    private long startNanos;
+    private long requests;
+    private long coalesced;
+    private long runs;
+    private long batches;
+    private long failures;
+    private long timeouts;
+    private long lookups;
+    private long hits;
+    private final long[] latencyCounts = new long[EXACT_MICROS + (63 - 5) * 16];
+    private long maxLatencyNanos;
+
+    public static void main(String[] args) throws IOException {
+        MarathiServer server = new MarathiServer();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port":
+                    server.port = Integer.parseInt(MarathiBatchRunner.optionValue(args, ++i, USAGE));
+                    break;
+                case "--threads":
+                    server.threads = Integer.parseInt(MarathiBatchRunner.optionValue(args, ++i, USAGE));
+                    break;
+                case "--timeout":
+                    server.timeoutSeconds = Long.parseLong(MarathiBatchRunner.optionValue(args, ++i, USAGE));
+                    break;
+                case "--cache":
+                    server.cacheSize = Integer.parseInt(MarathiBatchRunner.optionValue(args, ++i, USAGE));
+                    break;
+                default:
+                    System.err.println(USAGE);
+                    System.exit(2);
+            }
+        }
+        server.start();
+        System.out.println("Listening on http://127.0.0.1:" + server.server.getAddress().getPort() + "/ with "
+                + server.threads + " workers");
+    }
+
+    public void start() throws IOException {
+        workers = Executors.newFixedThreadPool(threads, daemonThreads("marathi-server-worker-"));
+        exchanges = Executors.newCachedThreadPool(daemonThreads("marathi-server-http-"));
+        watchdog = Executors.newSingleThreadScheduledExecutor(daemonThreads("marathi-server-watchdog-"));
+        interpreters = new ArrayBlockingQueue<>(threads);
+        for (int i = 0; i < threads; i++) {
+            interpreters.add(new MarathiInterpreter());
+        }
+        startNanos = System.nanoTime();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/scripts", this::handleScripts);
+        server.createContext("/run", this::handleRun);
+        server.createContext("/stats", this::handleStats);
+        server.setExecutor(exchanges);
+        server.start();  // Its dispatcher thread isn't a daemon, so it keeps the JVM running
+    }
+
+    public void stop() {
+        server.stop(0);
+        workers.shutdownNow();
+        exchanges.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    public Stats getStats() {
+        synchronized (scripts) {
+            synchronized (statsLock) {
+                return new Stats(requests, coalesced, runs, batches, failures, timeouts, scripts.size(), lookups, hits,
+                        System.nanoTime() - startNanos, percentile(0.5), percentile(0.9), percentile(0.99), maxLatencyNanos);
+            }
+        }
+    }
+
+    // ---- HTTP ----
+
+    private void handleScripts(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            reply(exchange, 405, "Use POST\n");
+            return;
+        }
+        try {
+            reply(exchange, 200, load(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)).id + "\n");
+        } catch (RuntimeException | StackOverflowError e) {
+            reply(exchange, 400, "Error: " + message(e) + "\n");
+        }
+    }
+
+    private void handleRun(HttpExchange exchange) throws IOException {
+        long arrival = System.nanoTime();
+        if (!exchange.getRequestMethod().equals("POST")) {
+            reply(exchange, 405, "Use POST\n");
+            return;
+        }
+        byte[] body = exchange.getRequestBody().readAllBytes();
+        String id = queryParameter(exchange, "id");
+        Script script;
+        byte[] input;
+        if (id != null) {
+            script = cached(id);
+            if (script == null) {
+                reply(exchange, 404, "Unknown script id: " + id + "\n");
+                return;
+            }
+            input = body;
+        } else {
+            try {
+                script = load(new String(body, StandardCharsets.UTF_8));
+            } catch (RuntimeException | StackOverflowError e) {
+                reply(exchange, 400, "Error: " + message(e) + "\n");
+                return;
+            }
+            input = new byte[0];
+        }
+        submit(script, input).whenCompleteAsync((result, failure) -> respond(exchange, script, result, failure, arrival), exchanges);
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            reply(exchange, 405, "Use GET\n");
+            return;
+        }
+        reply(exchange, 200, getStats() + "\n");
+    }
+
+    private void respond(HttpExchange exchange, Script script, Result result, Throwable failure, long arrival) {
+        try {
+            if (failure != null) {
+                reply(exchange, 500, "Error: " + message(failure) + "\n");
+                return;
+            }
+            exchange.getResponseHeaders().set("X-Marathi-Script", script.id);
+            exchange.getResponseHeaders().set("X-Marathi-Status", result.status);
+            exchange.getResponseHeaders().set("X-Marathi-Queue-Micros", Long.toString(result.queueNanos / 1000));
+            exchange.getResponseHeaders().set("X-Marathi-Run-Micros", Long.toString(result.runNanos / 1000));
+            exchange.getResponseHeaders().set("X-Marathi-Statements", Long.toString(result.statements));
+            String text = result.error != null ? result.output + "Error: " + result.error + "\n" : result.output;
+            int code = result.status.equals("OK") ? 200 : result.status.equals("TIMEOUT") ? 504 : 422;
+            reply(exchange, code, text);
+        } catch (IOException e) {
+            exchange.close();  // The client went away
+        } finally {
+            recordLatency(System.nanoTime() - arrival);
+        }
+    }
+
+    private static void reply(HttpExchange exchange, int code, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                return parameter.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    // ---- Script cache ----
+
+    // The cached script with this source, parsed and type-checked if it isn't cached yet
+    private Script load(String source) {
+        String id = digest(source.getBytes(StandardCharsets.UTF_8));
+        Script script = cached(id);
+        if (script != null) {
+            return script;
+        }
+        script = new Script(id, MarathiModuleLoader.shared().parse(source, null));  // aayat paths resolve against the working directory
+        synchronized (scripts) {
+            Script raced = scripts.putIfAbsent(id, script);
+            return raced != null ? raced : script;
+        }
+    }
+
+    private Script cached(String id) {
+        Script script;
+        synchronized (scripts) {
+            script = scripts.get(id);
+        }
+        synchronized (statsLock) {
+            lookups++;
+            if (script != null) {
+                hits++;
+            }
+        }
+        return script;
+    }
+
+    private static String digest(byte[] bytes) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder hex = new StringBuilder(ID_LENGTH);
+            for (int i = 0; i < ID_LENGTH / 2; i++) {
+                hex.append(Character.forDigit((hash[i] >> 4) & 15, 16)).append(Character.forDigit(hash[i] & 15, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+
+    // ---- Batching ----
+
+    // Queues a run of script with this input, or joins the identical run already queued or running
+    private CompletableFuture<Result> submit(Script script, byte[] input) {
+        String key = script.id + ":" + digest(input);
+        CompletableFuture<Result> future = new CompletableFuture<>();
+        CompletableFuture<Result> running = inFlight.putIfAbsent(key, future);
+        synchronized (statsLock) {
+            requests++;
+            if (running != null) {
+                coalesced++;
+            }
+        }
+        if (running != null) {
+            return running;
+        }
+        future.whenComplete((result, failure) -> inFlight.remove(key, future));
+
+        boolean startDrainer;
+        synchronized (script) {
+            script.pending.add(new Request(input, future, System.nanoTime()));
+            // Another drainer only helps if a worker is idle to run it; otherwise the runs wait and form a batch
+            startDrainer = script.draining == 0 || (script.draining < threads && drainers.get() < threads);
+            if (startDrainer) {
+                script.draining++;
+                drainers.incrementAndGet();
+            }
+        }
+        if (startDrainer) {
+            workers.execute(() -> drain(script));
+        }
+        return future;
+    }
+
+    // Runs one batch of the script's queued runs, then queues itself behind other scripts' batches to take the next
+    private void drain(Script script) {
+        List<Request> batch = new ArrayList<>();
+        synchronized (script) {
+            while (batch.size() < BATCH_LIMIT && !script.pending.isEmpty()) {
+                batch.add(script.pending.poll());
+            }
+            if (batch.isEmpty()) {
+                script.draining--;
+                drainers.decrementAndGet();
+                return;
+            }
+        }
+        MarathiInterpreter interpreter = interpreters.poll();  // At most one batch per worker runs at a time
+        int finished = 0;
+        try {
+            for (Request request : batch) {
+                interpreter.reset();
+                boolean reusable = run(script, request, interpreter);
+                if (!reusable) {
+                    interpreter = new MarathiInterpreter();
+                }
+                finished++;
+            }
+        } catch (Throwable t) {
+            interpreter = new MarathiInterpreter();
+            for (Request request : batch.subList(finished, batch.size())) {
+                request.future.completeExceptionally(t);
+            }
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+        } finally {
+            interpreters.add(interpreter);
+            synchronized (statsLock) {
+                batches++;
+            }
+            workers.execute(() -> drain(script));
+        }
+    }
+
+    // Runs the request and completes its future. Returns false if a timeout may still cancel the interpreter,
+    // which then can't be used again.
+    private boolean run(Script script, Request request, MarathiInterpreter interpreter) {
+        ScheduledFuture<?> timeout = null;
+        if (timeoutSeconds > 0) {
+            timeout = watchdog.schedule(interpreter::cancel, timeoutSeconds, TimeUnit.SECONDS);
+        }
+        long start = System.nanoTime();
+        String status = "OK";
+        String error = null;
+        MarathiInput.beginOwnHandles(request.input);
+        try {
+            interpreter.interpret(script.program);
+        } catch (ExecutionCancelledException e) {
+            status = "TIMEOUT";
+            error = "Timed out after " + timeoutSeconds + " s";
+        } catch (RuntimeException | StackOverflowError e) {
+            status = "FAILED";
+            error = message(e);
+        } finally {
+            MarathiInput.endOwnHandles();
+        }
+        long end = System.nanoTime();
+        boolean reusable = timeout == null || timeout.cancel(false);
+        synchronized (statsLock) {
+            runs++;
+            if (status.equals("FAILED")) {
+                failures++;
+            } else if (status.equals("TIMEOUT")) {
+                timeouts++;
+            }
+        }
+        request.future.complete(new Result(interpreter.getOutput(), status, error, start - request.arrival, end - start,
+                interpreter.getStatementCount()));
+        return reusable;
+    }
+
+    private static String message(Throwable t) {
+        return t.getMessage() != null ? t.getMessage() : t.toString();
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // ---- Latency histogram ----
+
+    // Latencies are counted in microsecond buckets: one per value below EXACT_MICROS, then 16 per power of two, so
+    // a percentile is reported within about 6% of the true value without keeping every sample
+    private void recordLatency(long nanos) {
+        long micros = nanos / 1000;
+        int bucket;
+        if (micros < EXACT_MICROS) {
+            bucket = (int) micros;
+        } else {
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            bucket = EXACT_MICROS + (exponent - 5) * 16 + (int) ((micros >>> (exponent - 4)) & 15);
+        }
+        synchronized (statsLock) {
+            latencyCounts[bucket]++;
+            maxLatencyNanos = Math.max(maxLatencyNanos, nanos);
+        }
+    }
+
+    // The upper end of the bucket holding the given fraction of latencies, in nanoseconds. Called with statsLock held.
+    private long percentile(double fraction) {
+        long total = 0;
+        for (long count : latencyCounts) {
+            total += count;
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int bucket = 0; bucket < latencyCounts.length; bucket++) {
+            seen += latencyCounts[bucket];
+            if (seen >= rank && seen > 0) {
+                long upperMicros;
+                if (bucket < EXACT_MICROS) {
+                    upperMicros = bucket + 1;
+                } else {
+                    int exponent = (bucket - EXACT_MICROS) / 16 + 5;
+                    upperMicros = (16L + (bucket - EXACT_MICROS) % 16 + 1) << (exponent - 4);
+                }
+                return Math.min(upperMicros * 1000, maxLatencyNanos);
+            }
+        }
+        return 0;
+    }
+
+    // A parsed script and the runs waiting for it. pending and draining are guarded by the script itself.
+    static final class Script {
+        final String id;
+        final ASTNode program;
+        final ArrayDeque<Request> pending = new ArrayDeque<>();
+        int draining;  // Drain tasks for this script, queued or running
+
+        Script(String id, ASTNode program) {
+            this.id = id;
+            this.program = program;
+        }
+    }
+
+    static final class Request {
+        final byte[] input;
+        final CompletableFuture<Result> future;
+        final long arrival;  // When it was queued
+
+        Request(byte[] input, CompletableFuture<Result> future, long arrival) {
+            this.input = input;
+            this.future = future;
+            this.arrival = arrival;
+        }
+    }
+
+    // Outcome of one run, shared by every request coalesced into it
+    static final class Result {
+        final String output;
+        final String status;  // OK, FAILED or TIMEOUT
+        final String error;
+        final long queueNanos;
+        final long runNanos;
+        final long statements;
+
+        Result(String output, String status, String error, long queueNanos, long runNanos, long statements) {
+            this.output = output;
+            this.status = status;
+            this.error = error;
+            this.queueNanos = queueNanos;
+            this.runNanos = runNanos;
+            this.statements = statements;
+        }
+    }
+
+    // Request counts, latency percentiles and cache use since the server started
+    public static class Stats {
+        private final long requests;
+        private final long coalesced;
+        private final long runs;
+        private final long batches;
+        private final long failures;
+        private final long timeouts;
+        private final int cachedScripts;
+        private final long lookups;
+        private final long hits;
+        private final long elapsedNanos;
+        private final long p50Nanos;
+        private final long p90Nanos;
+        private final long p99Nanos;
+        private final long maxNanos;
+
+        Stats(long requests, long coalesced, long runs, long batches, long failures, long timeouts, int cachedScripts,
+              long lookups, long hits, long elapsedNanos, long p50Nanos, long p90Nanos, long p99Nanos, long maxNanos) {
+            this.requests = requests;
+            this.coalesced = coalesced;
+            this.runs = runs;
+            this.batches = batches;
+            this.failures = failures;
+            this.timeouts = timeouts;
+            this.cachedScripts = cachedScripts;
+            this.lookups = lookups;
+            this.hits = hits;
+            this.elapsedNanos = elapsedNanos;
+            this.p50Nanos = p50Nanos;
+            this.p90Nanos = p90Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        // Run requests, including those that shared another request's run
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getCoalesced() {
+            return coalesced;
+        }
+
+        public long getRuns() {
+            return runs;
+        }
+
+        public long getBatches() {
+            return batches;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public int getCachedScripts() {
+            return cachedScripts;
+        }
+
+        // Fraction of script lookups, by source or by id, that found the script already parsed
+        public double getHitRate() {
+            return lookups > 0 ? hits / (double) lookups : 0;
+        }
+
+        public double getRunsPerSecond() {
+            return elapsedNanos > 0 ? runs * 1e9 / elapsedNanos : 0;
+        }
+
+        // Latency from reading a run request to replying, as the upper end of a histogram bucket
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        public long getP90Nanos() {
+            return p90Nanos;
+        }
+
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d requests (%,d coalesced), %,d runs in %,d batches, %.1f runs/s, %,d failed, %,d timed out%n"
+                            + "latency p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max %.3f ms%n"
+                            + "%d scripts cached, %,d/%,d lookups hit (%.1f%%)",
+                    requests, coalesced, runs, batches, getRunsPerSecond(), failures, timeouts,
+                    p50Nanos / 1_000_000.0, p90Nanos / 1_000_000.0, p99Nanos / 1_000_000.0, maxNanos / 1_000_000.0,
+                    cachedScripts, hits, lookups, getHitRate() * 100);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Measures startup: how long a script takes, from launching a fresh JVM, to print its first line and
+// to exit. Compares Main, MarathiLauncher, and MarathiLauncher with the class-data-sharing archive
+// built by marathi-cds.sh, alone and with the flags the marathi wrapper adds.
+// The archive only applies with the class path it was built with, so run this with -cp build/marathi.jar.
+// Usage: java MarathiStartupBench [--runs N] [--archive build/marathi.jsa] <script.marathi>
+public class MarathiStartupBench {
+    private static final List<String> WRAPPER_FLAGS = Arrays.asList("-XX:+UseSerialGC", "-XX:TieredStopAtLevel=1", "-XX:-UsePerfData");
+
+    private static final String USAGE = "Usage: java MarathiStartupBench [--runs N] [--archive build/marathi.jsa] <script.marathi>";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int runs = 10;
+        String archive = "build/marathi.jsa";
+        String script = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--runs":
+                    runs = Integer.parseInt(MarathiBatchRunner.optionValue(args, ++i, USAGE));
+                    break;
+                case "--archive":
+                    archive = MarathiBatchRunner.optionValue(args, ++i, USAGE);
+                    break;
+                default:
+                    script = args[i];
+            }
+        }
+        if (script == null) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        System.out.printf("%-40s %16s %10s%n", "configuration", "first output ms", "exit ms");
+        measure("Main (its output is the token and AST dump)", command(Arrays.asList(), "Main", script), runs);
+        measure("MarathiLauncher", command(Arrays.asList(), "MarathiLauncher", script), runs);
+        if (new File(archive).isFile()) {
+            List<String> shared = Arrays.asList("-XX:SharedArchiveFile=" + archive);
+            measure("MarathiLauncher + archive", command(shared, "MarathiLauncher", script), runs);
+            List<String> wrapper = new ArrayList<>(shared);
+            wrapper.addAll(WRAPPER_FLAGS);
+            measure("MarathiLauncher + archive + flags", command(wrapper, "MarathiLauncher", script), runs);
+        } else {
+            System.out.println("(no archive at " + archive + "; run marathi-cds.sh to build one)");
+        }
+    }
+
+    private static List<String> command(List<String> jvmFlags, String mainClass, String script) {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(jvmFlags);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass);
+        command.add(script);
+        return command;
+    }
+
+    // Prints the median time to the first byte on stdout and to process exit, after one unmeasured run
+    private static void measure(String name, List<String> command, int runs) throws IOException, InterruptedException {
+        long[] firstOutput = new long[runs];
+        long[] exit = new long[runs];
+        boolean printed = true;
+        for (int run = -1; run < runs; run++) {
+            long start = System.nanoTime();
+            Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+            long first = -1;
+            try (InputStream out = process.getInputStream()) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = out.read(buffer)) >= 0) {
+                    if (read > 0 && first < 0) {
+                        first = System.nanoTime() - start;
+                    }
+                }
+            }
+            process.waitFor();
+            long end = System.nanoTime() - start;
+            if (run >= 0) {
+                firstOutput[run] = first;
+                exit[run] = end;
+                printed &= first >= 0;
+            }
+        }
+        System.out.printf("%-40s %16s %10.1f%n", name, printed ? String.format("%.1f", median(firstOutput) / 1_000_000.0) : "-",
+                median(exit) / 1_000_000.0);
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
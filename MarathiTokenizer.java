@@ -3,12 +3,17 @@ import java.util.*;
 public class MarathiTokenizer {
     private String input;
     private int position;
+    private boolean debug;  // Print every token while tokenizing
 
     public MarathiTokenizer(String input) {
         this.input = input;
         this.position = 0;
     }
 
+    public void setDebug(boolean debug) {
+        this.debug = debug;
+    }
+
     public Token nextToken() {
         skipWhitespace();
 
@@ -16,46 +21,11 @@ public class MarathiTokenizer {
             return null;
         }
 
-        String currentSubstring = input.substring(position).toLowerCase();
-
-        // Handle function declarations and calls
-        if (currentSubstring.startsWith("karya")) {  // 'karya' for function declaration
-            position += "karya".length();
-            return new Token("FUNCTION_DECL", "karya");
-        }
-        if (currentSubstring.startsWith("parat")) {  // 'parat' for return statement
-            position += "parat".length();
-            return new Token("RETURN", "parat");
-        }
-        
-        // Handle variable declaration and other keywords
-        if (currentSubstring.startsWith("he aahe")) {
-            position += "he aahe".length();
-            return new Token("VAR_DECL", "He aahe");
-        }
-        if (currentSubstring.startsWith("jar")) {
-            position += "jar".length();
-            return new Token("IF", "Jar");
-        }
-        if (currentSubstring.startsWith("nahitar")) {
-            position += "nahitar".length();
-            return new Token("ELSE", "Nahitar");
-        }
-        if (currentSubstring.startsWith("chapa")) {
-            position += "chapa".length();
-            return new Token("PRINT", "Chapa");
-        }
-        if (currentSubstring.startsWith("joparyant")) {
-            position += "joparyant".length();
-            return new Token("WHILE", "joparyant");
-        }
-        if (currentSubstring.startsWith("sampel")) {
-            position += "sampel".length();
-            return new Token("END_WHILE", "sampel");
-        }
-        if (currentSubstring.startsWith("paryant")) {
-            position += "paryant".length();
-            return new Token("FOR", "paryant");
+        // Keywords, in Latin or Devanagari spelling, ending on a word boundary
+        int keyword = MarathiKeywords.match(input, position);
+        if (keyword >= 0) {
+            position += MarathiKeywords.length(keyword);
+            return MarathiKeywords.token(keyword);
         }
 
         // Handling string literals
@@ -65,10 +35,10 @@ public class MarathiTokenizer {
 
         char currentChar = input.charAt(position);
 
-        if (Character.isDigit(currentChar)) {
+        if (MarathiKeywords.isDigit(currentChar)) {
             return readNumber();
         }
-        if (Character.isLetter(currentChar)) {
+        if (MarathiKeywords.isIdentifierStart(currentChar)) {
             return readIdentifier();
         }
 
@@ -83,19 +53,19 @@ public class MarathiTokenizer {
         }
 
         // Handling multi-character operators (==, !=)
-        if (currentSubstring.startsWith("==")) {
+        if (input.startsWith("==", position)) {
             position += 2;
             return new Token("OPERATOR", "==");
         }
-        if (currentSubstring.startsWith("!=")) {
+        if (input.startsWith("!=", position)) {
             position += 2;
             return new Token("OPERATOR", "!=");
         }
-        if (currentSubstring.startsWith("<=")) {
+        if (input.startsWith("<=", position)) {
             position += 2;
             return new Token("OPERATOR", "<=");
         }
-        if (currentSubstring.startsWith(">=")) {
+        if (input.startsWith(">=", position)) {
             position += 2;
             return new Token("OPERATOR", ">=");
         }
@@ -140,19 +110,31 @@ public class MarathiTokenizer {
             position++;
             return new Token("COMMA", ",");
         }
+        if (currentChar == '.') {  // Between a module alias and a name, e.g. ganit.varg(3)
+            position++;
+            return new Token("DOT", ".");
+        }
+        if (currentChar == '[') {
+            position++;
+            return new Token("LBRACKET", "[");
+        }
+        if (currentChar == ']') {
+            position++;
+            return new Token("RBRACKET", "]");
+        }
 
         throw new RuntimeException("Unexpected character: " + currentChar);
     }
 
     private void skipWhitespace() {
-        while (position < input.length() && Character.isWhitespace(input.charAt(position))) {
+        while (position < input.length() && MarathiKeywords.isWhitespace(input.charAt(position))) {
             position++;
         }
     }
 
     private Token readNumber() {
         int start = position;
-        while (position < input.length() && Character.isDigit(input.charAt(position))) {
+        while (position < input.length() && MarathiKeywords.isDigit(input.charAt(position))) {
             position++;
         }
         String number = input.substring(start, position);
@@ -161,7 +143,7 @@ public class MarathiTokenizer {
 
     private Token readIdentifier() {
         int start = position;
-        while (position < input.length() && Character.isLetterOrDigit(input.charAt(position))) {
+        while (position < input.length() && MarathiKeywords.isIdentifierPart(input.charAt(position))) {
             position++;
         }
         String identifier = input.substring(start, position);
@@ -186,7 +168,9 @@ public class MarathiTokenizer {
         List<Token> tokens = new ArrayList<>();
         Token token;
         while ((token = nextToken()) != null) {
-            System.out.println("Token: " + token);  // Debug output
+            if (debug) {
+                System.out.println("Token: " + token);  // Debug output
+            }
             tokens.add(token);
         }
         return tokens;
@@ -0,0 +1,581 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Flow-sensitive type inference over a parsed script, run before the script executes.
+// A type is the set of kinds of value an expression or variable can hold at a point in the script. Variables
+// are tracked statement by statement; a karya body is analysed with the join of the variables at every call
+// site that reaches it, since karya see their callers' variables, and its parameters get the join of the
+// argument types. Karya entry types, results and loop heads grow until nothing changes.
+// Operations that fail whatever the values are reported as type errors before anything runs. Operations
+// whose operand types are proven are marked on their nodes, so MarathiInterpreter skips their runtime checks.
+public final class MarathiTypeChecker {
+    public static final int UNBOUND = 1;  // Variable not assigned yet
+    public static final int INT = 2;
+    public static final int STRING = 4;  // String or MarathiRope
+    public static final int ARRAY = 8;
+    public static final int NONE = 16;  // Result of a karya that ends without parat
+    public static final int MAP = 32;  // MarathiMap
+    public static final int VALUE = INT | STRING | ARRAY | MAP;
+
+    private final boolean module;  // Karya of a module are called by the scripts that import it, with any arguments
+    private final List<FunctionDeclarationNode> declarations = new ArrayList<>();
+    private final Map<String, List<FunctionDeclarationNode>> functions = new HashMap<>();
+    private final IdentityHashMap<FunctionDeclarationNode, Map<String, Integer>> entries = new IdentityHashMap<>();
+    private final IdentityHashMap<FunctionDeclarationNode, Integer> results = new IdentityHashMap<>();
+    private final Set<FunctionDeclarationNode> active = Collections.newSetFromMap(new IdentityHashMap<>());  // Being analysed
+    private final Set<String> errors = new LinkedHashSet<>();
+    private boolean changed;
+    private boolean reporting;  // Set for the last pass, once every type is final
+    private FunctionDeclarationNode currentFunction;  // null while analysing top-level code
+    private int returned;  // Join of the parat types seen in the current karya
+
+    private MarathiTypeChecker(boolean module) {
+        this.module = module;
+    }
+
+    // Throws on the first type error, after marking the proven operations of a script or module
+    public static void check(ASTNode program, boolean module) {
+        MarathiTypeChecker checker = new MarathiTypeChecker(module);
+        checker.collectFunctions(program);
+        do {
+            checker.changed = false;
+            checker.analyse(program);
+        } while (checker.changed);
+        checker.reporting = true;
+        checker.analyse(program);
+
+        if (!checker.errors.isEmpty()) {
+            String first = checker.errors.iterator().next();
+            int more = checker.errors.size() - 1;
+            throw new RuntimeException("Type error" + first + (more > 0 ? " (and " + more + " more)" : ""));
+        }
+    }
+
+    private void collectFunctions(ASTNode node) {
+        if (node instanceof FunctionDeclarationNode) {
+            FunctionDeclarationNode function = (FunctionDeclarationNode) node;
+            declarations.add(function);
+            List<FunctionDeclarationNode> named = functions.get(function.getFunctionName());
+            if (named == null) {
+                named = new ArrayList<>();
+                functions.put(function.getFunctionName(), named);
+            }
+            named.add(function);
+            if (function.isBodyParsed()) {  // The parser leaves a body unparsed only when no karya is declared in it
+                collectFunctions(function.getBody());
+            }
+        } else if (node instanceof BlockNode) {
+            for (ASTNode statement : ((BlockNode) node).getStatements()) {
+                collectFunctions(statement);
+            }
+        } else if (node instanceof IfStatementNode) {
+            collectFunctions(((IfStatementNode) node).getThenBranch());
+            if (((IfStatementNode) node).getElseBranch() != null) {
+                collectFunctions(((IfStatementNode) node).getElseBranch());
+            }
+        } else if (node instanceof WhileLoopNode) {
+            collectFunctions(((WhileLoopNode) node).getBody());
+        } else if (node instanceof ForLoopNode) {
+            collectFunctions(((ForLoopNode) node).getBody());
+        } else if (node instanceof ParallelForNode) {
+            collectFunctions(((ParallelForNode) node).getBody());
+        } else if (node instanceof ForEachNode) {
+            collectFunctions(((ForEachNode) node).getBody());
+        }
+    }
+
+    // One pass over the top level and every karya reached so far
+    private void analyse(ASTNode program) {
+        currentFunction = null;
+        Map<String, Integer> end = statement(program, new HashMap<>());
+        if (module && end != null) {
+            for (FunctionDeclarationNode function : declarations) {
+                Map<String, Integer> entry = new HashMap<>(end);
+                for (String parameter : function.getParameters()) {
+                    entry.put(parameter, VALUE);
+                }
+                enter(function, entry);
+            }
+        }
+        for (FunctionDeclarationNode function : declarations) {
+            if (entries.containsKey(function)) {  // A karya that is never called has nothing in it that can run
+                analyseFunction(function);
+            }
+        }
+    }
+
+    private void analyseFunction(FunctionDeclarationNode function) {
+        FunctionDeclarationNode caller = currentFunction;
+        int callerReturned = returned;
+        active.add(function);
+        currentFunction = function;
+        returned = 0;
+        Map<String, Integer> exit = statement(function.getBody(), new HashMap<>(entries.get(function)));
+        int result = returned | (exit != null ? NONE : 0);
+        Integer previous = results.get(function);
+        if (previous == null || (previous | result) != previous) {
+            results.put(function, previous == null ? result : previous | result);
+            changed = true;
+        }
+        active.remove(function);
+        currentFunction = caller;
+        returned = callerReturned;
+    }
+
+    // Whether the karya's entry types grew
+    private boolean enter(FunctionDeclarationNode function, Map<String, Integer> entry) {
+        Map<String, Integer> previous = entries.get(function);
+        Map<String, Integer> joined = previous == null ? entry : join(previous, entry);
+        if (joined.equals(previous)) {
+            return false;
+        }
+        entries.put(function, joined);
+        changed = true;
+        return true;
+    }
+
+    // The variables after the statement, or null if it never completes normally
+    private Map<String, Integer> statement(ASTNode node, Map<String, Integer> variables) {
+        if (node instanceof BlockNode) {
+            for (ASTNode statement : ((BlockNode) node).getStatements()) {
+                variables = statement(statement, variables);
+                if (variables == null) {
+                    return null;  // The rest of the block can't run
+                }
+            }
+            return variables;
+        } else if (node instanceof IfStatementNode) {
+            IfStatementNode ifStatement = (IfStatementNode) node;
+            condition((ConditionNode) ifStatement.getCondition(), variables);
+            Map<String, Integer> then = statement(ifStatement.getThenBranch(), new HashMap<>(variables));
+            Map<String, Integer> otherwise = ifStatement.getElseBranch() != null
+                    ? statement(ifStatement.getElseBranch(), variables) : variables;
+            return join(then, otherwise);
+        } else if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode declaration = (VariableDeclarationNode) node;
+            return store(declaration.getVariableName(), declaration.getValue(), variables);
+        } else if (node instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) node;
+            return store(assignment.getVariableName(), assignment.getExpression(), variables);
+        } else if (node instanceof ArrayAssignmentNode) {
+            ArrayAssignmentNode assignment = (ArrayAssignmentNode) node;
+            int container = container(assignment.getArrayName(), variables);
+            boolean index = index(assignment.getIndex(), container, variables);
+            boolean element = element(assignment.getValue(), (container & MAP) == 0, variables);
+            if (reporting) {
+                assignment.setContainerType(container);
+            }
+            return container != 0 && index && element ? variables : null;
+        } else if (node instanceof PrintStatementNode) {
+            return value(((PrintStatementNode) node).getMessage(), variables) != 0 ? variables : null;
+        } else if (node instanceof WhileLoopNode) {
+            WhileLoopNode loop = (WhileLoopNode) node;
+            return loop((ConditionNode) loop.getCondition(), loop.getBody(), null, variables);
+        } else if (node instanceof ForLoopNode) {
+            ForLoopNode loop = (ForLoopNode) node;
+            variables = statement(loop.getInitialization(), variables);
+            if (variables == null) {
+                return null;
+            }
+            return loop((ConditionNode) loop.getCondition(), loop.getBody(), loop.getIncrement(), variables);
+        } else if (node instanceof ParallelForNode) {
+            return parallelLoop((ParallelForNode) node, variables);
+        } else if (node instanceof ForEachNode) {
+            return forEachLoop((ForEachNode) node, variables);
+        } else if (node instanceof FunctionCallNode) {
+            call((FunctionCallNode) node, variables);
+            return variables;  // The callee's writes are rolled back when it returns
+        } else if (node instanceof ReturnNode) {
+            returned |= expression(((ReturnNode) node).getReturnValue(), variables);
+            return null;
+        }
+        return variables;  // karya declarations and aayat leave the variables as they are
+    }
+
+    private Map<String, Integer> store(String name, ASTNode value, Map<String, Integer> variables) {
+        int type = expression(value, variables);
+        if (type != 0 && (type & VALUE) == 0) {
+            error("Variable '" + name + "' must be assigned an integer, string, array or kosh value, but "
+                    + describeCall(value) + " does not return one");
+        }
+        if ((type & VALUE) == 0) {
+            return null;
+        }
+        variables.put(name, type & VALUE);
+        return variables;
+    }
+
+    // Analyses the body until the types at the loop head stop growing; the variables after the loop are those
+    // at the head, where the condition turns false. Errors are reported only on the final trip.
+    private Map<String, Integer> loop(ConditionNode condition, ASTNode body, ASTNode increment, Map<String, Integer> variables) {
+        boolean report = reporting;
+        reporting = false;
+        Map<String, Integer> head = variables;
+        while (true) {
+            condition(condition, head);
+            Map<String, Integer> next = trip(body, increment, new HashMap<>(head));
+            Map<String, Integer> joined = join(head, next);
+            if (joined.equals(head)) {
+                break;
+            }
+            head = joined;
+        }
+        reporting = report;
+        if (reporting) {
+            condition(condition, head);
+            trip(body, increment, new HashMap<>(head));
+        }
+        return head;
+    }
+
+    private Map<String, Integer> trip(ASTNode body, ASTNode increment, Map<String, Integer> variables) {
+        variables = statement(body, variables);
+        if (variables != null && increment != null) {
+            variables = statement(increment, variables);
+        }
+        return variables;
+    }
+
+    // Each samantar worker runs its iterations on a copy of the variables in which the index and the
+    // reduction variables are integers; afterwards only the reduction variables have changed
+    private Map<String, Integer> parallelLoop(ParallelForNode loop, Map<String, Integer> variables) {
+        boolean bounds = bound(loop.getStart(), variables) & bound(loop.getEnd(), variables);
+        for (String reduction : loop.getReductionVariables()) {
+            int type = variables.getOrDefault(reduction, UNBOUND);
+            if ((type & INT) == 0) {
+                error("Reduction variable '" + reduction + "' must hold an integer before the samantar loop");
+                bounds = false;
+            }
+        }
+        if (!bounds) {
+            return null;
+        }
+
+        Map<String, Integer> frame = new HashMap<>(variables);
+        frame.put(loop.getIndexVariable(), INT);
+        for (String reduction : loop.getReductionVariables()) {
+            frame.put(reduction, INT);
+        }
+        boolean report = reporting;
+        reporting = false;
+        while (true) {
+            Map<String, Integer> joined = join(frame, statement(loop.getBody(), new HashMap<>(frame)));
+            joined.put(loop.getIndexVariable(), INT);
+            if (joined.equals(frame)) {
+                break;
+            }
+            frame = joined;
+        }
+        reporting = report;
+        if (reporting) {
+            statement(loop.getBody(), new HashMap<>(frame));
+        }
+
+        for (String reduction : loop.getReductionVariables()) {
+            variables.put(reduction, INT);
+        }
+        return variables;
+    }
+
+    // Like a loop whose condition can always go either way; the key variable is assigned at the start of every trip
+    private Map<String, Integer> forEachLoop(ForEachNode loop, Map<String, Integer> variables) {
+        int type = value(loop.getMap(), variables);
+        if (type != 0 && (type & MAP) == 0) {
+            error("pratyek expects a kosh, found " + describe(type));
+        }
+        if ((type & MAP) == 0) {
+            return null;
+        }
+        boolean report = reporting;
+        reporting = false;
+        Map<String, Integer> head = variables;
+        while (true) {
+            Map<String, Integer> trip = new HashMap<>(head);
+            trip.put(loop.getKeyVariable(), INT | STRING);
+            Map<String, Integer> joined = join(head, statement(loop.getBody(), trip));
+            if (joined.equals(head)) {
+                break;
+            }
+            head = joined;
+        }
+        reporting = report;
+        if (reporting) {
+            Map<String, Integer> trip = new HashMap<>(head);
+            trip.put(loop.getKeyVariable(), INT | STRING);
+            statement(loop.getBody(), trip);
+        }
+        return head;
+    }
+
+    private boolean bound(ASTNode node, Map<String, Integer> variables) {
+        int type = value(node, variables);
+        if (type != 0 && (type & INT) == 0) {
+            error("samantar bounds must be integers");
+        }
+        return (type & INT) != 0;
+    }
+
+    private void condition(ConditionNode condition, Map<String, Integer> variables) {
+        int left = value(condition.getLeftOperand(), variables);
+        int right = value(condition.getRightOperand(), variables);
+        int proven = 0;
+        if (left != 0 && right != 0) {
+            if ((left & right & (INT | STRING)) == 0) {
+                error("Both operands must be integers or both strings for condition evaluation, found "
+                        + describe(left) + " and " + describe(right));
+            } else if (left == right && (left == INT || left == STRING)) {
+                proven = left;
+            }
+        }
+        if (reporting) {
+            condition.setOperandType(proven);
+        }
+    }
+
+    // The type of an expression's value, or 0 if evaluating it always fails
+    private int expression(ASTNode node, Map<String, Integer> variables) {
+        if (node instanceof NumberNode) {
+            return INT;
+        } else if (node instanceof StringNode) {
+            return STRING;
+        } else if (node instanceof VariableNode) {
+            VariableNode variable = (VariableNode) node;
+            if (variable.getModule() != null) {
+                return VALUE;
+            }
+            int type = variables.getOrDefault(variable.getName(), UNBOUND);
+            if (type == UNBOUND) {
+                error("Undefined variable: " + variable.getName());
+            }
+            if (reporting) {
+                variable.setBound((type & UNBOUND) == 0);
+            }
+            return type & VALUE;
+        } else if (node instanceof ArrayAccessNode) {
+            ArrayAccessNode access = (ArrayAccessNode) node;
+            int container = container(access.getArrayName(), variables);
+            boolean index = index(access.getIndex(), container, variables);
+            if (reporting) {
+                access.setContainerType(container);
+            }
+            // An array holds integers, a kosh any value
+            return index ? ((container & ARRAY) != 0 ? INT : 0) | ((container & MAP) != 0 ? VALUE : 0) : 0;
+        } else if (node instanceof ArrayLiteralNode) {
+            boolean elements = true;
+            for (ASTNode element : ((ArrayLiteralNode) node).getElements()) {
+                elements &= element(element, true, variables);
+            }
+            return elements ? ARRAY : 0;
+        } else if (node instanceof BinaryOperationNode) {
+            return operation((BinaryOperationNode) node, variables);
+        } else if (node instanceof FunctionCallNode) {
+            return call((FunctionCallNode) node, variables);
+        }
+        return 0;
+    }
+
+    // Like expression, for places that need a value; a karya result that is never a value is an error there
+    private int value(ASTNode node, Map<String, Integer> variables) {
+        int type = expression(node, variables);
+        if (type != 0 && (type & VALUE) == 0) {
+            error(describeCall(node) + " is used as a value but does not return one");
+        }
+        return type & VALUE;
+    }
+
+    private int operation(BinaryOperationNode operation, Map<String, Integer> variables) {
+        int left = value(operation.getLeft(), variables);
+        int right = value(operation.getRight(), variables);
+        if (left == 0 || right == 0) {
+            return 0;
+        }
+
+        int result;
+        int proven = 0;
+        if (operation.getOperator().equals("+")) {
+            // Concatenates when either side is a string, otherwise adds integers
+            result = ((left | right) & STRING) | ((left & INT) != 0 && (right & INT) != 0 ? INT : 0);
+            if (left == INT && right == INT) {
+                proven = INT;
+            } else if (left == STRING || right == STRING) {
+                proven = STRING;
+            }
+        } else {
+            // Strings are read through their text, so only arrays and kosh can never be operands
+            result = (left & (INT | STRING)) != 0 && (right & (INT | STRING)) != 0 ? INT : 0;
+            if (left == INT && right == INT) {
+                proven = INT;
+            }
+        }
+        if (result == 0) {
+            error("Operator '" + operation.getOperator() + "' cannot be applied to " + describe(left) + " and " + describe(right));
+        }
+        if (reporting) {
+            operation.setOperandType(proven);
+        }
+        return result;
+    }
+
+    private int call(FunctionCallNode call, Map<String, Integer> variables) {
+        List<ASTNode> arguments = call.getArguments();
+        int[] types = new int[arguments.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = expression(arguments.get(i), variables);
+        }
+        if (call.getModule() != null) {
+            return VALUE | NONE;  // Checked when the module was loaded
+        }
+        for (int type : types) {
+            if (type == 0) {
+                return 0;
+            }
+        }
+
+        String name = call.getFunctionName();
+        List<FunctionDeclarationNode> named = functions.get(name);
+        int[] signature = MarathiBuiltins.signature(name, types.length);
+        if (named == null && signature == null) {
+            error("Function not defined: " + name);
+            return 0;
+        }
+
+        int result = 0;
+        boolean arity = false;
+        if (named != null) {
+            for (FunctionDeclarationNode function : named) {
+                List<String> parameters = function.getParameters();
+                if (parameters.size() != types.length) {
+                    continue;
+                }
+                arity = true;
+                Map<String, Integer> entry = new HashMap<>(variables);
+                for (int i = 0; i < types.length; i++) {
+                    // A karya result that isn't a value leaves the parameter unassigned
+                    entry.put(parameters.get(i), (types[i] & VALUE) | ((types[i] & NONE) != 0 ? UNBOUND : 0));
+                }
+                if (enter(function, entry) && !active.contains(function)) {
+                    // Analysed right away, so the caller sees its result in this pass; a recursive call uses
+                    // the result so far and is revisited on the next pass
+                    boolean report = reporting;
+                    reporting = false;
+                    analyseFunction(function);
+                    reporting = report;
+                }
+                Integer functionResult = results.get(function);
+                result |= functionResult != null ? functionResult : 0;
+            }
+        }
+        if (signature != null) {
+            // A karya declared under the same name may shadow the intrinsic, so its arguments are only checked without one
+            boolean valid = true;
+            for (int i = 0; i < types.length && named == null; i++) {
+                if ((types[i] & signature[i]) == 0) {
+                    error(name + " expects " + describe(signature[i]) + ", found " + describe(types[i]));
+                    valid = false;
+                }
+            }
+            if (valid) {
+                result |= signature[types.length];
+            }
+        } else if (!arity) {
+            error("Argument count mismatch for function: " + name);
+        }
+        return result;
+    }
+
+    // Which of ARRAY and MAP the variable can hold, for x[k]; 0 if it can hold neither
+    private int container(String name, Map<String, Integer> variables) {
+        int type = variables.getOrDefault(name, UNBOUND);
+        if (type == UNBOUND) {
+            error("Undefined variable: " + name);
+        } else if ((type & (ARRAY | MAP)) == 0) {
+            error("Variable '" + name + "' is not an array or kosh");
+        }
+        return type & (ARRAY | MAP);
+    }
+
+    // Arrays are indexed by integers and kosh by integers or strings
+    private boolean index(ASTNode index, int container, Map<String, Integer> variables) {
+        int type = value(index, variables);
+        if (container == MAP) {
+            if (type != 0 && (type & (INT | STRING)) == 0) {
+                error("kosh keys must be integers or strings, found " + describe(type));
+            }
+            return (type & (INT | STRING)) != 0;
+        }
+        if (type != 0 && (type & INT) == 0) {
+            error("Array index must be an integer, found " + describe(type));
+        }
+        return (type & INT) != 0 || (container & MAP) != 0 && (type & STRING) != 0;
+    }
+
+    // An element stored in an array, or in what may be an array or a kosh when 'array' is false
+    private boolean element(ASTNode element, boolean array, Map<String, Integer> variables) {
+        int type = value(element, variables);
+        if (type != 0 && (type & INT) == 0 && array) {
+            error("Array elements must be integers, found " + describe(type));
+        }
+        return array ? (type & INT) != 0 : type != 0;
+    }
+
+    private void error(String message) {
+        if (reporting) {
+            errors.add(currentFunction == null ? ": " + message
+                    : " in karya '" + currentFunction.getFunctionName() + "': " + message);
+        }
+    }
+
+    // Variables from either path; one that only one path assigns may be unassigned afterwards
+    private static Map<String, Integer> join(Map<String, Integer> left, Map<String, Integer> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        Map<String, Integer> joined = new HashMap<>(left);
+        for (Map.Entry<String, Integer> entry : right.entrySet()) {
+            Integer type = left.get(entry.getKey());
+            joined.put(entry.getKey(), entry.getValue() | (type != null ? type : UNBOUND));
+        }
+        for (Map.Entry<String, Integer> entry : left.entrySet()) {
+            if (!right.containsKey(entry.getKey())) {
+                joined.put(entry.getKey(), entry.getValue() | UNBOUND);
+            }
+        }
+        return joined;
+    }
+
+    private static String describe(int type) {
+        if (type == VALUE) {
+            return "any value";
+        }
+        List<String> kinds = new ArrayList<>();
+        if ((type & INT) != 0) {
+            kinds.add("an integer");
+        }
+        if ((type & STRING) != 0) {
+            kinds.add("a string");
+        }
+        if ((type & ARRAY) != 0) {
+            kinds.add("an array");
+        }
+        if ((type & MAP) != 0) {
+            kinds.add("a kosh");
+        }
+        return String.join(" or ", kinds);
+    }
+
+    private static String describeCall(ASTNode node) {
+        if (node instanceof FunctionCallNode) {
+            return "karya '" + ((FunctionCallNode) node).getFunctionName() + "'";
+        }
+        return "the expression";
+    }
+}
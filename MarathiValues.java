@@ -0,0 +1,22 @@
+import java.util.Arrays;
+
+// Helpers shared by everything that handles script values (Integer, String/MarathiRope, int[], MarathiMap)
+public final class MarathiValues {
+    private MarathiValues() {
+    }
+
+    // How a value looks when printed or concatenated; ropes are flattened here
+    public static String format(Object value) {
+        if (value instanceof int[]) {
+            return Arrays.toString((int[]) value);
+        }
+        return value.toString();
+    }
+
+    public static CharSequence toText(Object value) {
+        if (value instanceof CharSequence) {
+            return (CharSequence) value;
+        }
+        return format(value);
+    }
+}
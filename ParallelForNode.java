@@ -0,0 +1,58 @@
+import java.util.List;
+
+// samantar (i = start, end; reductions...) body sampel
+public class ParallelForNode implements ASTNode {
+    private String indexVariable;
+    private ASTNode start;
+    private ASTNode end;
+    private List<String> reductionVariables;
+    private ASTNode body;
+    private volatile MarathiInterpreter.ParallelLoopCheck check;  // The last check of the body for cross-iteration writes
+
+    public ParallelForNode(String indexVariable, ASTNode start, ASTNode end, List<String> reductionVariables, ASTNode body) {
+        this.indexVariable = indexVariable;
+        this.start = start;
+        this.end = end;
+        this.reductionVariables = reductionVariables;
+        this.body = body;
+    }
+
+    public String getIndexVariable() {
+        return indexVariable;
+    }
+
+    public ASTNode getStart() {
+        return start;
+    }
+
+    public ASTNode getEnd() {
+        return end;
+    }
+
+    public List<String> getReductionVariables() {
+        return reductionVariables;
+    }
+
+    public ASTNode getBody() {
+        return body;
+    }
+
+    public MarathiInterpreter.ParallelLoopCheck getCheck() {
+        return check;
+    }
+
+    public void setCheck(MarathiInterpreter.ParallelLoopCheck check) {
+        this.check = check;
+    }
+
+    @Override
+    public String toString() {
+        return "ParallelForNode{" +
+                "indexVariable='" + indexVariable + '\'' +
+                ", start=" + start +
+                ", end=" + end +
+                ", reductionVariables=" + reductionVariables +
+                ", body=" + body +
+                '}';
+    }
+}
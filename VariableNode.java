@@ -1,14 +1,33 @@
 public class VariableNode implements ASTNode {
+    private String module;  // Alias of the imported module the variable belongs to, or null
     private String name;
+    private boolean bound;  // Set by MarathiTypeChecker when the variable is assigned wherever this read runs
 
     public VariableNode(String name) {
+        this(null, name);
+    }
+
+    public VariableNode(String module, String name) {
+        this.module = module;
         this.name = name;
     }
 
+    public String getModule() {
+        return module;
+    }
+
     public String getName() {
         return name;
     }
 
+    public boolean isBound() {
+        return bound;
+    }
+
+    public void setBound(boolean bound) {
+        this.bound = bound;
+    }
+
     @Override
     public String toString() {
         return "VariableNode{" + "name='" + name + '\'' + '}';
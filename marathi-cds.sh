@@ -0,0 +1,16 @@
+#!/bin/sh
+# Builds the interpreter into build/marathi.jar and records an AppCDS archive of the classes a
+# MarathiLauncher run loads into build/marathi.jsa. Rerun it after changing the sources or the JDK;
+# the JVM ignores an archive that doesn't match its classes. (AppCDS needs classes in a jar, not a
+# directory.)
+#
+# String concatenation is compiled inline rather than through invokedynamic, so the interpreter
+# doesn't bootstrap java.lang.invoke at startup.
+set -e
+cd "$(dirname "$0")"
+rm -rf build
+mkdir -p build/classes
+javac -XDstringConcat=inline -d build/classes $(ls *.java | grep -v '^MarathiLangEditor.java$')
+jar cf build/marathi.jar -C build/classes .
+java -XX:ArchiveClassesAtExit=build/marathi.jsa -cp build/marathi.jar MarathiLauncher --train
+echo "Archive written to build/marathi.jsa; run scripts with ./marathi <script.marathi>"
@@ -0,0 +1,19 @@
+#!/bin/sh
+# Compiles the sources and the checks in tests/ into build/test-classes, then runs every script in
+# tests/scripts on the interpreter, the flat interpreter and the machine and compares the output with its
+# .expected file, runs the other checks in MarathiChecks, and checks that compiled scripts print the same
+# as interpreted ones. The common pool gets four threads even on a single-core machine, so samantar
+# loops and parallel parsing really run in parallel.
+set -e
+cd "$(dirname "$0")"
+rm -rf build/test-classes
+mkdir -p build/test-classes
+javac -d build/test-classes *.java tests/*.java
+java -Djava.util.concurrent.ForkJoinPool.common.parallelism=4 -cp build/test-classes MarathiChecks tests/scripts
+if ! java -Djava.util.concurrent.ForkJoinPool.common.parallelism=4 -cp build/test-classes \
+        MarathiCompiler --bench --runs 1 tests/scripts > build/compiler-bench.txt; then
+    cat build/compiler-bench.txt
+    echo "Compiled scripts print something other than the interpreter"
+    exit 1
+fi
+echo "Compiled scripts print the same as the interpreter"
@@ -0,0 +1,421 @@
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+// Checks run by run-tests.sh. Every script in the scripts directory runs on the interpreter, the flat interpreter
+// and the machine, and its output, with "Error: ..." as its last line if it fails, must match the .expected file
+// next to it. The other checks cover what a script can't see.
+// Usage: java MarathiChecks <scripts directory>
+public class MarathiChecks {
+    private static final String[] ENGINES = {"interpreter", "flat", "machine"};
+    private static final int SCRIPT_RUNS = 10;  // A samantar loop must give the same output however the pool splits it
+    private static final String FOREVER = "he aahe i = 0;\njoparyant (0 < 1)\n    i = i + 1;\nsampel\n";
+
+    private int passed;
+    private int failed;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java MarathiChecks <scripts directory>");
+            System.exit(2);
+        }
+        MarathiChecks checks = new MarathiChecks();
+        checks.checkScripts(Paths.get(args[0]));
+        checks.check("karya bodies are parsed on first call", MarathiChecks::checkLazyParsing);
+        checks.check("a syntax error in a karya body is only reported if the script can reach it", MarathiChecks::checkLazySyntaxError);
+        checks.check("a large file parses the same in parallel", MarathiChecks::checkParallelParse);
+        checks.check("a large file with a mistake in it parses as it does sequentially", MarathiChecks::checkParallelParseError);
+        checks.check("the batch runner times out a script that doesn't stop", () -> checkBatchTimeout());
+        checks.check("the batch runner times out a time-sliced script that doesn't stop", () -> checkBatchTimeout("--slice", "1000"));
+        checks.check("the scheduler stops cancelled interpreters, running, suspended or queued", MarathiChecks::checkSchedulerCancelsInterpreters);
+        checks.check("the scheduler stops cancelled machines and lets the others finish", MarathiChecks::checkSchedulerCancelsMachines);
+        checks.check("the output buffer reports the lines it adds and drops", MarathiChecks::checkOutputBufferEvents);
+        System.out.println(checks.passed + " passed, " + checks.failed + " failed");
+        System.exit(checks.failed > 0 ? 1 : 0);
+    }
+
+    private void check(String name, Runnable body) {
+        try {
+            body.run();
+            passed++;
+            System.out.println("ok      " + name);
+        } catch (RuntimeException e) {
+            failed++;
+            System.out.println("FAILED  " + name + ": " + message(e));
+        }
+    }
+
+    private static void expect(boolean condition, String message) {
+        if (!condition) {
+            throw new RuntimeException(message);
+        }
+    }
+
+    private static String message(Throwable e) {
+        return e.getMessage() != null ? e.getMessage() : e.toString();
+    }
+
+    private void checkScripts(Path directory) throws IOException {
+        List<Path> scripts = MarathiBatchRunner.collectScripts(List.of(directory.toString()));
+        for (Path script : scripts) {
+            Path expectedFile = Paths.get(script.toString().replaceAll("\\.marathi$", ".expected"));
+            String source = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+            String expected = new String(Files.readAllBytes(expectedFile), StandardCharsets.UTF_8).replace("\r\n", "\n");
+            check(directory.relativize(script).toString(), () -> {
+                for (String engine : ENGINES) {
+                    for (int run = 1; run <= SCRIPT_RUNS; run++) {
+                        String actual = runScript(engine, source, script.toAbsolutePath().getParent());
+                        expect(actual.equals(expected), engine + " run " + run + " printed\n" + actual + "instead of\n" + expected);
+                    }
+                }
+            });
+        }
+    }
+
+    // What the script prints on the given engine, followed by its error
+    private static String runScript(String engine, String source, Path directory) {
+        MarathiInterpreter interpreter = new MarathiInterpreter();
+        MarathiFlatInterpreter flatInterpreter = new MarathiFlatInterpreter();
+        MarathiMachine machine = new MarathiMachine();
+        String error = "";
+        try {
+            ASTNode program = MarathiModuleLoader.shared().parse(source, directory);
+            if (engine.equals("interpreter")) {
+                interpreter.interpret(program);
+            } else if (engine.equals("flat")) {
+                flatInterpreter.interpret(MarathiFlatAst.flatten(program));
+            } else {
+                machine.interpret(MarathiFlatAst.flatten(program));
+            }
+        } catch (RuntimeException | StackOverflowError e) {
+            error = "Error: " + message(e) + "\n";
+        }
+        switch (engine) {
+            case "interpreter":
+                return interpreter.getOutput() + error;
+            case "flat":
+                return flatInterpreter.getOutput() + error;
+            default:
+                return machine.getOutput() + error;
+        }
+    }
+
+    // Straight from the parser, without the type checker, which reads the body of every karya the script reaches
+    private static void checkLazyParsing() {
+        MarathiParser parser = new MarathiParser(new MarathiTokenizer(String.join("\n",
+                "karya used(x) {",
+                "    parat(x + 1);",
+                "}",
+                "karya unused(x) {",
+                "    parat(x * 2);",
+                "}",
+                "chapa(used(1));")).tokenize());
+        parser.setLazyFunctionBodies(true);
+        BlockNode program = (BlockNode) parser.parse();
+        Map<String, FunctionDeclarationNode> functions = declarations(program);
+        expect(!functions.get("used").isBodyParsed() && !functions.get("unused").isBodyParsed(), "a karya body was parsed before the script ran");
+        MarathiInterpreter interpreter = new MarathiInterpreter();
+        interpreter.interpret(program);
+        expect(interpreter.getOutput().equals("2\n"), "the script printed " + interpreter.getOutput());
+        expect(functions.get("used").isBodyParsed(), "the called karya's body was not parsed");
+        expect(!functions.get("unused").isBodyParsed(), "a karya that was never called had its body parsed");
+    }
+
+    private static void checkLazySyntaxError() {
+        String declarations = "karya broken(x) {\n    parat(x + );\n}\nkarya caller() {\n    parat(broken(1));\n}\nchapa(\"before\");\n";
+        BlockNode uncalled = (BlockNode) MarathiModuleLoader.shared().parse(declarations, null);
+        MarathiInterpreter interpreter = new MarathiInterpreter();
+        interpreter.interpret(uncalled);
+        expect(interpreter.getOutput().equals("before\n"), "a script that never calls the broken karya printed " + interpreter.getOutput());
+        expect(!declarations(uncalled).get("broken").isBodyParsed() && !declarations(uncalled).get("caller").isBodyParsed(),
+                "a karya the script can't reach had its body parsed");
+
+        String syntaxError = null;  // What parsing every body up front reports
+        try {
+            new MarathiParser(new MarathiTokenizer(declarations).tokenize()).parse();
+        } catch (RuntimeException e) {
+            syntaxError = message(e);
+        }
+        expect(syntaxError != null, "the broken karya parsed");
+        try {
+            MarathiModuleLoader.shared().parse(declarations + "chapa(caller());\n", null);
+        } catch (RuntimeException e) {
+            expect(message(e).equals(syntaxError), "the script failed with '" + message(e) + "' instead of '" + syntaxError + "'");
+            return;
+        }
+        throw new RuntimeException("a script that calls the broken karya was accepted");
+    }
+
+    private static void checkParallelParse() {
+        expect(ForkJoinPool.getCommonPoolParallelism() > 1, "the common pool has a single thread, so nothing is parsed in parallel");
+        String source = largeScript(null);
+        BlockNode sequential = (BlockNode) parse(source, false);
+        BlockNode parallel = (BlockNode) parse(source, true);
+        expect(parallel.getStatements().size() == sequential.getStatements().size(),
+                "the parallel parse has " + parallel.getStatements().size() + " statements instead of " + sequential.getStatements().size());
+        MarathiInterpreter sequentialRun = new MarathiInterpreter();
+        sequentialRun.interpret(sequential);
+        MarathiInterpreter parallelRun = new MarathiInterpreter();
+        parallelRun.interpret(parallel);
+        expect(parallelRun.getOutput().equals(sequentialRun.getOutput()),
+                "the parallel parse printed " + parallelRun.getOutput() + " instead of " + sequentialRun.getOutput());
+    }
+
+    // A chunk that doesn't parse to its end makes the parser start over on the whole file, so the outcome is the
+    // sequential one even when a later chunk failed first
+    private static void checkParallelParseError() {
+        expect(ForkJoinPool.getCommonPoolParallelism() > 1, "the common pool has a single thread, so nothing is parsed in parallel");
+        String[] mistakes = {
+                "he aahe broken = ;",  // Fails inside one chunk
+                "sampel",  // Ends the top level there, so the chunk after it stops early
+                "chapa(1;"};  // Unclosed bracket: every later semicolon looks nested to the boundary scan
+        for (String mistake : mistakes) {
+            String source = largeScript(mistake);
+            String sequential = parseOutcome(source, false);
+            String parallel = parseOutcome(source, true);
+            expect(sequential.equals(parallel), "with '" + mistake + "' the parallel parse gave " + parallel + " instead of " + sequential);
+        }
+    }
+
+    // About 36000 tokens, enough to be split into chunks, with mistake in the middle if it isn't null
+    private static String largeScript(String mistake) {
+        StringBuilder source = new StringBuilder("he aahe total = 0;\n");
+        for (int i = 0; i < 6000; i++) {
+            if (i == 3000 && mistake != null) {
+                source.append(mistake).append("\n");
+            }
+            source.append("total = total + ").append(i).append(";\n");
+            if (i % 1000 == 0) {
+                source.append("karya f").append(i).append("(x) {\n    parat(x + ").append(i).append(");\n}\n");
+                source.append("joparyant (total < 0)\n    total = f").append(i).append("(total);\nsampel\n");
+            }
+        }
+        return source.append("chapa(total);\n").toString();
+    }
+
+    private static ASTNode parse(String source, boolean parallel) {
+        MarathiParser parser = new MarathiParser(new MarathiTokenizer(source).tokenize());
+        parser.setLazyFunctionBodies(true);
+        parser.setParallel(parallel);
+        return parser.parse();
+    }
+
+    // The number of top-level statements, or the syntax error
+    private static String parseOutcome(String source, boolean parallel) {
+        try {
+            return ((BlockNode) parse(source, parallel)).getStatements().size() + " statements";
+        } catch (RuntimeException e) {
+            return "'" + message(e) + "'";
+        }
+    }
+
+    // Runs MarathiBatchRunner in its own JVM, since it is configured from the command line and exits when done.
+    // The script that never stops must be reported as TIMEOUT, with what it printed before it was cancelled, and
+    // must not hold up the other script.
+    private static void checkBatchTimeout(String... options) {
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("marathi-checks");
+            Path scripts = Files.createDirectory(directory.resolve("scripts"));
+            Files.write(scripts.resolve("forever.marathi"), ("chapa(\"started\");\n" + FOREVER).getBytes(StandardCharsets.UTF_8));
+            Files.write(scripts.resolve("quick.marathi"), "chapa(7);\n".getBytes(StandardCharsets.UTF_8));
+
+            List<String> command = new ArrayList<>(List.of(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"), "MarathiBatchRunner", "--out", directory.resolve("out").toString(), "--timeout", "1"));
+            command.addAll(List.of(options));
+            command.add(scripts.toString());
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(directory.resolve("summary.txt").toFile()).start();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new RuntimeException("the batch runner was still running after 30 s");
+            }
+            String summary = new String(Files.readAllBytes(directory.resolve("summary.txt")), StandardCharsets.UTF_8);
+            expect(process.exitValue() == 1, "the batch runner exited with " + process.exitValue() + " and printed\n" + summary);
+            expect(summary.contains("1 passed, 1 failed"), "the batch runner printed\n" + summary);
+            expect(batchOutput(directory, "forever").equals("started\nError: Timed out after 1 s\n"),
+                    "the script that never stops wrote " + batchOutput(directory, "forever"));
+            expect(batchOutput(directory, "quick").equals("7\n"), "the quick script wrote " + batchOutput(directory, "quick"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the batch runner");
+        } finally {
+            delete(directory);
+        }
+    }
+
+    // What the batch runner wrote for the script with this name; the output file is named after the script's path
+    private static String batchOutput(Path directory, String name) throws IOException {
+        try (Stream<Path> files = Files.list(directory.resolve("out"))) {
+            Path file = files.filter(p -> p.getFileName().toString().endsWith("_" + name + ".marathi.out"))
+                    .findFirst().orElseThrow(() -> new RuntimeException("the batch runner wrote no output for " + name + ".marathi"));
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void delete(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(directory)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).toArray(Path[]::new)) {
+                Files.delete(path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // With one slot and room for one parked interpreter, the first script is suspended, the second keeps the slot
+    // because no more interpreters can be parked, and the third is never started before they are cancelled
+    private static void checkSchedulerCancelsInterpreters() {
+        MarathiScheduler scheduler = new MarathiScheduler(1, 50, 1);
+        try {
+            List<MarathiInterpreter> interpreters = new ArrayList<>();
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                MarathiInterpreter interpreter = new MarathiInterpreter();
+                ASTNode program = MarathiModuleLoader.shared().parse(FOREVER, null);
+                interpreters.add(interpreter);
+                futures.add(scheduler.submit(interpreter, MarathiScheduler.NORMAL_PRIORITY, () -> {
+                    interpreter.interpret(program);
+                    return interpreter.getOutput();
+                }));
+            }
+            awaitSuspended(scheduler, 1);
+            for (MarathiInterpreter interpreter : interpreters) {
+                interpreter.cancel();
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                Throwable failure = failureOf(futures.get(i));
+                expect(failure instanceof ExecutionCancelledException, "script " + (i + 1) + " ended with " + failure);
+            }
+            expect(scheduler.getStats().getCompleted() == 3, "the scheduler counted " + scheduler.getStats().getCompleted() + " scripts as completed");
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    // Machines hold no thread between slices, so a short script queued behind two that never stop still gets
+    // its turn and finishes; the two are then cancelled, whether running or waiting
+    private static void checkSchedulerCancelsMachines() {
+        MarathiScheduler scheduler = new MarathiScheduler(1, 50);
+        try {
+            List<MarathiMachine> machines = new ArrayList<>();
+            List<CompletableFuture<MarathiMachine>> futures = new ArrayList<>();
+            for (String source : new String[] {FOREVER, FOREVER, "chapa(7);\n"}) {
+                MarathiMachine machine = new MarathiMachine();
+                machine.start(MarathiFlatAst.flatten(MarathiModuleLoader.shared().parse(source, null)));
+                machines.add(machine);
+                futures.add(scheduler.submit(machine, MarathiScheduler.NORMAL_PRIORITY, () -> { }));
+            }
+            Throwable quickFailure = failureOf(futures.get(2));
+            expect(quickFailure == null, "the short script ended with " + quickFailure);
+            expect(machines.get(2).getOutput().equals("7\n"), "the short script printed " + machines.get(2).getOutput());
+            expect(!futures.get(0).isDone() && !futures.get(1).isDone(), "a script that never stops ended before it was cancelled");
+            machines.get(0).cancel();
+            machines.get(1).cancel();
+            for (int i = 0; i < 2; i++) {
+                Throwable failure = failureOf(futures.get(i));
+                expect(failure instanceof ExecutionCancelledException, "script " + (i + 1) + " ended with " + failure);
+            }
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    private static void awaitSuspended(MarathiScheduler scheduler, int suspended) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (scheduler.getStats().getSuspended() < suspended || scheduler.getStats().getSlices() < 10) {
+            expect(System.nanoTime() < deadline, "the scheduler didn't suspend a script within 10 s: " + scheduler.getStats());
+            Thread.onSpinWait();
+        }
+    }
+
+    // Waits at most 10 s for the script; returns what it failed with, or null if it finished normally
+    private static Throwable failureOf(CompletableFuture<?> future) {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (TimeoutException e) {
+            throw new RuntimeException("a script was still running 10 s later");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a script");
+        }
+    }
+
+    // A JList repaints from these events, so each one must describe the model as it is once the batch is in
+    private static void checkOutputBufferEvents() {
+        MarathiOutputBuffer buffer = new MarathiOutputBuffer(3);
+        List<String> events = new ArrayList<>();
+        buffer.addListDataListener(new ListDataListener() {
+            @Override
+            public void intervalAdded(ListDataEvent e) {
+                events.add("added " + e.getIndex0() + "-" + e.getIndex1());
+            }
+
+            @Override
+            public void intervalRemoved(ListDataEvent e) {
+                events.add("removed " + e.getIndex0() + "-" + e.getIndex1());
+            }
+
+            @Override
+            public void contentsChanged(ListDataEvent e) {
+                events.add("changed " + e.getIndex0() + "-" + e.getIndex1());
+            }
+        });
+
+        expectBuffer(buffer, events, () -> buffer.add("a"), "[added 0-0]", "[a]");
+        expectBuffer(buffer, events, () -> buffer.addAll(List.of("b", "c")), "[added 1-2]", "[a, b, c]");
+        expectBuffer(buffer, events, () -> buffer.add("d"), "[removed 0-0, added 2-2]", "[b, c, d]");
+        expectBuffer(buffer, events, () -> buffer.addAll(List.of("e", "f", "g", "h", "i")), "[removed 0-2, added 0-2]", "[g, h, i]");
+        expect(buffer.getTotalLines() == 9 && buffer.getDroppedLines() == 6,
+                buffer.getTotalLines() + " lines added and " + buffer.getDroppedLines() + " dropped instead of 9 and 6");
+        expectBuffer(buffer, events, () -> buffer.addAll(List.of()), "[]", "[g, h, i]");
+        expectBuffer(buffer, events, buffer::clear, "[removed 0-2]", "[]");
+        expectBuffer(buffer, events, buffer::clear, "[]", "[]");
+        expectBuffer(buffer, events, () -> buffer.addAll(List.of("j", "k")), "[added 0-1]", "[j, k]");
+    }
+
+    private static void expectBuffer(MarathiOutputBuffer buffer, List<String> events, Runnable change, String expectedEvents, String expectedLines) {
+        events.clear();
+        change.run();
+        String[] lines = new String[buffer.getSize()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = buffer.getElementAt(i);
+        }
+        expect(events.toString().equals(expectedEvents), "listeners got " + events + " instead of " + expectedEvents);
+        expect(Arrays.toString(lines).equals(expectedLines), "the buffer holds " + Arrays.toString(lines) + " instead of " + expectedLines);
+    }
+
+    private static Map<String, FunctionDeclarationNode> declarations(BlockNode program) {
+        Map<String, FunctionDeclarationNode> functions = new HashMap<>();
+        for (ASTNode statement : program.getStatements()) {
+            if (statement instanceof FunctionDeclarationNode) {
+                functions.put(((FunctionDeclarationNode) statement).getFunctionName(), (FunctionDeclarationNode) statement);
+            }
+        }
+        return functions;
+    }
+}